@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of the asynchronous audit log pipeline
+ */
+@Configuration
+@ConfigurationProperties(prefix = "apps.audit")
+@Getter
+@Setter
+public class AuditLogConfiguration {
+
+    public enum OverflowPolicy {
+        /**
+         * Drop events that do not fit into the queue
+         */
+        DROP,
+        /**
+         * Keep every {@code sampleEvery}-th event once the queue is more than half full, drop when full
+         */
+        SAMPLE,
+        /**
+         * Block the caller up to {@code blockTimeoutMs}, then drop
+         */
+        BLOCK
+    }
+
+    public enum PartitionInterval {
+        DAY,
+        MONTH
+    }
+
+    private int queueCapacity = 10_000;
+
+    private int batchSize = 500;
+
+    private long flushIntervalMs = 200;
+
+    private int drainThreads = 1;
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    private int sampleEvery = 10;
+
+    private long blockTimeoutMs = 50;
+
+    /**
+     * Rows fetched per keyset query when exporting a time range
+     */
+    private int exportChunkSize = 1000;
+
+    /**
+     * How long per-minute stat buckets are kept; older windows are answered from hourly buckets
+     */
+    private int statsMinuteRetentionHours = 48;
+
+    /**
+     * Partition audit_logs by created_at on databases that support it (MySQL)
+     */
+    private boolean partitioningEnabled = true;
+
+    private PartitionInterval partitionInterval = PartitionInterval.DAY;
+
+    /**
+     * Number of future partitions kept created ahead of time
+     */
+    private int partitionsAhead = 7;
+
+    /**
+     * Audit logs older than this are removed, by dropping whole partitions where possible; 0 keeps logs forever
+     */
+    private int retentionDays = 90;
+
+    /**
+     * How long one node holds the maintenance lock at most; the first run may rebuild the whole table
+     */
+    private long partitionMaintenanceLockAtMostMs = 3_600_000;
+
+    /**
+     * Rows removed per statement when expired logs are deleted instead of dropping partitions
+     */
+    private int purgeChunkSize = 5000;
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of per-app API rate limiting
+ */
+@Configuration
+@ConfigurationProperties(prefix = "apps.rate-limit")
+@Getter
+@Setter
+public class RateLimitConfiguration {
+
+    public enum Mode {
+        /**
+         * Buckets live in this node only; with N nodes an app gets N times its limit
+         */
+        LOCAL,
+        /**
+         * Bucket state is shared through the database, every request is one compare-and-swap round trip
+         */
+        JDBC,
+        /**
+         * Shared state as in JDBC, but each node consumes locally and synchronizes
+         * after {@code hybridMaxUnsynchronizedTokens} tokens or {@code hybridMaxUnsynchronizedMs}
+         */
+        HYBRID
+    }
+
+    private Mode mode = Mode.LOCAL;
+
+    /**
+     * Tokens a node may consume without synchronizing; the global limit may be exceeded by up to this number per node
+     */
+    private long hybridMaxUnsynchronizedTokens = 10;
+
+    private long hybridMaxUnsynchronizedMs = 500;
+
+    /**
+     * Hard cap on buckets kept in memory; the least recently used are evicted beyond it
+     */
+    private long maxBuckets = 100_000;
+
+    /**
+     * Buckets unused for this long are evicted; at 60 minutes or more an evicted bucket would have refilled anyway
+     */
+    private long bucketIdleMinutes = 60;
+}
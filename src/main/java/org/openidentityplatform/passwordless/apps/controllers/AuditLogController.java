@@ -16,19 +16,24 @@
 
 package org.openidentityplatform.passwordless.apps.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.AllArgsConstructor;
 import org.openidentityplatform.passwordless.apps.models.AuditLog;
+import org.openidentityplatform.passwordless.apps.models.AuditStatsResponse;
 import org.openidentityplatform.passwordless.apps.services.AuditLogService;
+import org.openidentityplatform.passwordless.apps.services.AuditStatsService;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.Duration;
 import java.time.Instant;
-import java.util.List;
 
 @RestController
 @RequestMapping("/apps/v1/audit")
@@ -36,14 +41,24 @@ import java.util.List;
 public class AuditLogController {
     
     private final AuditLogService auditLogService;
+    private final AuditStatsService auditStatsService;
+    private final ObjectMapper objectMapper;
     
+    /**
+     * Offset page by default; when "after" is given (empty for the first page),
+     * a keyset page ordered by createdAt descending is returned instead
+     */
     @GetMapping("/logs")
-    public ResponseEntity<Page<AuditLog>> getAuditLogs(
+    public ResponseEntity<?> getAuditLogs(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(defaultValue = "createdAt") String sortBy,
-            @RequestParam(defaultValue = "DESC") String direction) {
+            @RequestParam(defaultValue = "DESC") String direction,
+            @RequestParam(required = false) String after) {
         
+        if (after != null) {
+            return ResponseEntity.ok(auditLogService.getAuditLogsAfter(after, size));
+        }
         Sort.Direction sortDirection = Sort.Direction.fromString(direction);
         Pageable pageable = PageRequest.of(page, size, Sort.by(sortDirection, sortBy));
         Page<AuditLog> logs = auditLogService.getAuditLogs(pageable);
@@ -51,43 +66,75 @@ public class AuditLogController {
     }
     
     @GetMapping("/logs/app/{appId}")
-    public ResponseEntity<Page<AuditLog>> getAuditLogsByApp(
+    public ResponseEntity<?> getAuditLogsByApp(
             @PathVariable String appId,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size) {
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String after) {
         
+        if (after != null) {
+            return ResponseEntity.ok(auditLogService.getAuditLogsByAppAfter(appId, after, size));
+        }
         Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
         Page<AuditLog> logs = auditLogService.getAuditLogsByApp(appId, pageable);
         return ResponseEntity.ok(logs);
     }
     
     @GetMapping("/logs/event/{eventType}")
-    public ResponseEntity<Page<AuditLog>> getAuditLogsByEventType(
+    public ResponseEntity<?> getAuditLogsByEventType(
             @PathVariable String eventType,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size) {
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String after) {
         
+        if (after != null) {
+            return ResponseEntity.ok(auditLogService.getAuditLogsByEventTypeAfter(eventType, after, size));
+        }
         Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
         Page<AuditLog> logs = auditLogService.getAuditLogsByEventType(eventType, pageable);
         return ResponseEntity.ok(logs);
     }
     
+    /**
+     * Streams all logs in the range as a JSON array (default), NDJSON or CSV
+     * without buffering the result set
+     */
     @GetMapping("/logs/range")
-    public ResponseEntity<List<AuditLog>> getAuditLogsInRange(
+    public ResponseEntity<StreamingResponseBody> getAuditLogsInRange(
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant start,
-            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant end) {
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant end,
+            @RequestParam(defaultValue = "JSON") AuditLogExportWriter.Format format) {
         
-        List<AuditLog> logs = auditLogService.getAuditLogsInRange(start, end);
-        return ResponseEntity.ok(logs);
+        AuditLogExportWriter writer = new AuditLogExportWriter(format, objectMapper);
+        StreamingResponseBody body = outputStream -> {
+            writer.start(outputStream);
+            auditLogService.streamAuditLogsInRange(start, end, writer);
+            writer.finish();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.contentType))
+                .body(body);
     }
     
+    /**
+     * Requests of the app within the last "days" days plus "hours" hours (1 hour by default)
+     */
     @GetMapping("/stats/{appId}")
     public ResponseEntity<Long> getRecentRequestCount(
             @PathVariable String appId,
-            @RequestParam(defaultValue = "1") int hours) {
+            @RequestParam(defaultValue = "1") int hours,
+            @RequestParam(defaultValue = "0") int days) {
+        
+        AuditStatsResponse stats = auditStatsService.getStats(appId, Duration.ofDays(days).plusHours(hours));
+        return ResponseEntity.ok(stats.getTotal());
+    }
+    
+    @GetMapping("/stats/{appId}/breakdown")
+    public ResponseEntity<AuditStatsResponse> getRequestStats(
+            @PathVariable String appId,
+            @RequestParam(defaultValue = "1") int hours,
+            @RequestParam(defaultValue = "0") int days) {
         
-        Instant after = Instant.now().minusSeconds(hours * 3600L);
-        long count = auditLogService.countRecentRequests(appId, after);
-        return ResponseEntity.ok(count);
+        return ResponseEntity.ok(auditStatsService.getStats(appId, Duration.ofDays(days).plusHours(hours)));
     }
 }
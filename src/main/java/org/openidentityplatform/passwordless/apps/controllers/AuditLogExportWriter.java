@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.commons.text.StringEscapeUtils;
+import org.openidentityplatform.passwordless.apps.models.AuditLog;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes audit logs to the response one by one as a JSON array, NDJSON or CSV
+ */
+class AuditLogExportWriter implements Consumer<AuditLog> {
+
+    enum Format {
+        JSON(MediaType.APPLICATION_JSON_VALUE),
+        NDJSON("application/x-ndjson"),
+        CSV("text/csv");
+
+        final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+    }
+
+    private static final String CSV_HEADER = "id,createdAt,appId,appName,eventType,endpoint,httpMethod,ipAddress,"
+            + "success,responseStatus,latencyMs,errorMessage,userEmail\n";
+
+    private final Format format;
+    private final ObjectWriter objectWriter;
+    private JsonGenerator jsonGenerator;
+    private Writer csvWriter;
+
+    AuditLogExportWriter(Format format, ObjectMapper objectMapper) {
+        this.format = format;
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.objectWriter = format == Format.NDJSON ? writer.withRootValueSeparator("\n") : writer;
+    }
+
+    void start(OutputStream outputStream) throws IOException {
+        if (format == Format.CSV) {
+            csvWriter = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+            csvWriter.write(CSV_HEADER);
+            return;
+        }
+        jsonGenerator = objectWriter.createGenerator(outputStream);
+        if (format == Format.JSON) {
+            jsonGenerator.writeStartArray();
+        }
+    }
+
+    @Override
+    public void accept(AuditLog auditLog) {
+        try {
+            if (format == Format.CSV) {
+                csvWriter.write(toCsvLine(auditLog));
+            } else {
+                objectWriter.writeValue(jsonGenerator, auditLog);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void finish() throws IOException {
+        if (format == Format.CSV) {
+            csvWriter.flush();
+            return;
+        }
+        if (format == Format.JSON) {
+            jsonGenerator.writeEndArray();
+        } else {
+            jsonGenerator.writeRaw('\n');
+        }
+        jsonGenerator.flush();
+    }
+
+    private static String toCsvLine(AuditLog auditLog) {
+        return Stream.of(auditLog.getId(), auditLog.getCreatedAt(), auditLog.getAppId(), auditLog.getAppName(),
+                        auditLog.getEventType(), auditLog.getEndpoint(), auditLog.getHttpMethod(), auditLog.getIpAddress(),
+                        auditLog.isSuccess(), auditLog.getResponseStatus(), auditLog.getLatencyMs(),
+                        auditLog.getErrorMessage(), auditLog.getUserEmail())
+                .map(value -> StringEscapeUtils.escapeCsv(Objects.toString(value, "")))
+                .collect(Collectors.joining(",", "", "\n"));
+    }
+}
@@ -26,7 +26,8 @@ import java.time.Instant;
 /**
  * Audit Log Entity
  * Tracks all authentication and API events
- * Linked to User and Domain for centralized audit trail
+ * Linked to User and Domain for centralized audit trail.
+ * The table carries no foreign keys so it can be partitioned by created_at, see AuditLogPartitionManager
  */
 @Data
 @Entity
@@ -53,14 +54,14 @@ public class AuditLog {
      * Link to User entity - who performed the action
      */
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "user_id")
+    @JoinColumn(name = "user_id", foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private User user;
     
     /**
      * Link to Domain entity - which organization/domain
      */
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "domain_id")
+    @JoinColumn(name = "domain_id", foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private Domain domain;
     
     @Column(name = "user_email", length = 255)
@@ -81,6 +82,18 @@ public class AuditLog {
     @Column(name = "success")
     private boolean success;
     
+    /**
+     * HTTP status returned to the caller, set for API_REQUEST events
+     */
+    @Column(name = "response_status")
+    private Integer responseStatus;
+    
+    /**
+     * Time spent serving the request in milliseconds, set for API_REQUEST events
+     */
+    @Column(name = "latency_ms")
+    private Long latencyMs;
+    
     @Column(name = "error_message", length = 500)
     private String errorMessage;
     
@@ -92,6 +105,8 @@ public class AuditLog {
     
     @PrePersist
     protected void onCreate() {
-        createdAt = Instant.now();
+        if (createdAt == null) {
+            createdAt = Instant.now();
+        }
     }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Keyset position in the audit log, ordered by (createdAt, id)
+ * Encoded as an opaque URL-safe string for the "after" request parameter
+ */
+@Data
+@AllArgsConstructor
+public class AuditLogCursor {
+
+    /**
+     * Position before every stored audit log when paging in descending order
+     */
+    public static final AuditLogCursor NEWEST = new AuditLogCursor(Instant.parse("9999-12-31T23:59:59Z"), "");
+
+    private Instant createdAt;
+
+    private String id;
+
+    public static AuditLogCursor of(AuditLog auditLog) {
+        return new AuditLogCursor(auditLog.getCreatedAt(), auditLog.getId());
+    }
+
+    public String encode() {
+        String value = createdAt.toString() + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor encoded cursor, empty for the first page
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public static AuditLogCursor decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return NEWEST;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.indexOf('|');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            return new AuditLogCursor(Instant.parse(value.substring(0, separator)), value.substring(separator + 1));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.models;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Pre-aggregated audit counters of one app and event type for one minute or one hour
+ */
+@Data
+@Entity
+@Table(name = "audit_stats", indexes = {
+    @Index(name = "idx_audit_stats_bucket", columnList = "app_id, granularity, bucket_start, event_type", unique = true)
+})
+public class AuditStat {
+
+    public enum Granularity {
+        MINUTE,
+        HOUR
+    }
+
+    @Id
+    private String id;
+
+    @Column(name = "app_id", nullable = false)
+    private String appId;
+
+    @Column(name = "event_type", nullable = false)
+    private String eventType;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "granularity", nullable = false, length = 6)
+    private Granularity granularity;
+
+    @Column(name = "bucket_start", nullable = false)
+    private Instant bucketStart;
+
+    @Column(name = "request_count", nullable = false)
+    private long requestCount;
+
+    @Column(name = "success_count", nullable = false)
+    private long successCount;
+
+    @Column(name = "failure_count", nullable = false)
+    private long failureCount;
+}
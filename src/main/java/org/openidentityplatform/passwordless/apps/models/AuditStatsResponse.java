@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Request counters of an app within a time window, broken down by event type
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AuditStatsResponse {
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Counts {
+        private long requests;
+        private long successes;
+        private long failures;
+    }
+
+    private String appId;
+    private Instant from;
+    private Instant to;
+    private long total;
+    private Map<String, Counts> byEventType;
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.models;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+/**
+ * Serialized state of a distributed rate limit bucket, updated by compare-and-swap on {@code version}
+ */
+@Data
+@Entity
+@Table(name = "rate_limit_buckets")
+public class RateLimitBucketState {
+
+    @Id
+    private String id;
+
+    @Column(name = "state", nullable = false, length = 2048)
+    private byte[] state;
+
+    @Column(name = "version", nullable = false)
+    private long version;
+}
@@ -31,7 +31,8 @@ import java.time.Instant;
 @Entity
 @Table(name = "registered_apps", indexes = {
     @Index(name = "idx_app_name", columnList = "name", unique = true),
-    @Index(name = "idx_app_domain", columnList = "domain_id")
+    @Index(name = "idx_app_domain", columnList = "domain_id"),
+    @Index(name = "idx_app_key_id", columnList = "key_id", unique = true)
 })
 public class RegisteredApp {
     
@@ -56,6 +57,13 @@ public class RegisteredApp {
     @Transient
     private String apiKey;
     
+    /**
+     * Non-secret key identifier embedded in the API key ("pk_{keyId}_{secret}")
+     * Used to look up the app before verifying the hash; null for legacy keys
+     */
+    @Column(name = "key_id", length = 32)
+    private String keyId;
+    
     @Column(nullable = false)
     private String apiKeyHash;
     
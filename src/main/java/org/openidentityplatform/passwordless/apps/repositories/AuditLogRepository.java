@@ -17,9 +17,11 @@
 package org.openidentityplatform.passwordless.apps.repositories;
 
 import org.openidentityplatform.passwordless.apps.models.AuditLog;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
@@ -29,6 +31,41 @@ import java.util.List;
 public interface AuditLogRepository extends JpaRepository<AuditLog, String> {
     Page<AuditLog> findByAppId(String appId, Pageable pageable);
     Page<AuditLog> findByEventType(String eventType, Pageable pageable);
-    List<AuditLog> findByCreatedAtBetween(Instant start, Instant end);
-    long countByAppIdAndCreatedAtAfter(String appId, Instant after);
+    Page<AuditLog> findByEventTypeIn(List<String> eventTypes, Pageable pageable);
+
+    /**
+     * Counts the app's logs created within [from, to) per event type; used for ranges before the stats rollup starts
+     */
+    @Query("SELECT a.eventType AS eventType, COUNT(a) AS requests, " +
+           "SUM(CASE WHEN a.success = true THEN 1 ELSE 0 END) AS successes, " +
+           "SUM(CASE WHEN a.success = true THEN 0 ELSE 1 END) AS failures " +
+           "FROM AuditLog a WHERE a.appId = :appId AND a.createdAt >= :from AND a.createdAt < :to " +
+           "GROUP BY a.eventType")
+    List<AuditStatRepository.EventTypeTotals> sumByEventType(String appId, Instant from, Instant to);
+    
+    /**
+     * Next chunk of a range export in (createdAt, id) order, starting after the given keyset position
+     */
+    @Query("SELECT a FROM AuditLog a WHERE a.createdAt <= :end " +
+           "AND (a.createdAt > :afterCreatedAt OR (a.createdAt = :afterCreatedAt AND a.id > :afterId)) " +
+           "ORDER BY a.createdAt, a.id")
+    List<AuditLog> findRangeAfter(Instant end, Instant afterCreatedAt, String afterId, Limit limit);
+    
+    /**
+     * Keyset page in (createdAt, id) descending order, starting before the given position
+     */
+    @Query("SELECT a FROM AuditLog a " +
+           "WHERE a.createdAt < :beforeCreatedAt OR (a.createdAt = :beforeCreatedAt AND a.id < :beforeId) " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<AuditLog> findBefore(Instant beforeCreatedAt, String beforeId, Limit limit);
+    
+    @Query("SELECT a FROM AuditLog a WHERE a.appId = :appId " +
+           "AND (a.createdAt < :beforeCreatedAt OR (a.createdAt = :beforeCreatedAt AND a.id < :beforeId)) " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<AuditLog> findByAppIdBefore(String appId, Instant beforeCreatedAt, String beforeId, Limit limit);
+    
+    @Query("SELECT a FROM AuditLog a WHERE a.eventType IN :eventTypes " +
+           "AND (a.createdAt < :beforeCreatedAt OR (a.createdAt = :beforeCreatedAt AND a.id < :beforeId)) " +
+           "ORDER BY a.createdAt DESC, a.id DESC")
+    List<AuditLog> findByEventTypeInBefore(List<String> eventTypes, Instant beforeCreatedAt, String beforeId, Limit limit);
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.repositories;
+
+import org.openidentityplatform.passwordless.apps.models.AuditStat;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface AuditStatRepository extends JpaRepository<AuditStat, String> {
+
+    interface EventTypeTotals {
+        String getEventType();
+        Long getRequests();
+        Long getSuccesses();
+        Long getFailures();
+    }
+
+    /**
+     * Sum counters of buckets starting within [from, to) per event type
+     */
+    @Query("SELECT s.eventType AS eventType, SUM(s.requestCount) AS requests, " +
+           "SUM(s.successCount) AS successes, SUM(s.failureCount) AS failures " +
+           "FROM AuditStat s WHERE s.appId = :appId AND s.granularity = :granularity " +
+           "AND s.bucketStart >= :from AND s.bucketStart < :to GROUP BY s.eventType")
+    List<EventTypeTotals> sumByEventType(String appId, AuditStat.Granularity granularity, Instant from, Instant to);
+
+    /**
+     * Start of the earliest bucket of the app, or null if nothing has been flushed for it yet
+     */
+    @Query("SELECT MIN(s.bucketStart) FROM AuditStat s WHERE s.appId = :appId AND s.granularity = :granularity")
+    Instant findFirstBucketStart(String appId, AuditStat.Granularity granularity);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM AuditStat s WHERE s.granularity = :granularity AND s.bucketStart < :before")
+    int deleteExpiredBuckets(AuditStat.Granularity granularity, Instant before);
+}
@@ -20,11 +20,14 @@ import org.openidentityplatform.passwordless.apps.models.RegisteredApp;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface RegisteredAppRepository extends JpaRepository<RegisteredApp, String> {
     Optional<RegisteredApp> findByApiKeyHash(String apiKeyHash);
+    Optional<RegisteredApp> findByKeyIdAndActiveTrue(String keyId);
+    List<RegisteredApp> findByKeyIdIsNullAndActiveTrue();
     Optional<RegisteredApp> findByName(String name);
     boolean existsByName(String name);
 }
@@ -35,6 +35,7 @@ import org.springframework.web.filter.OncePerRequestFilter;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 @Component
 @AllArgsConstructor
@@ -42,6 +43,10 @@ import java.util.Optional;
 public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
     
     private static final String API_KEY_HEADER = "X-API-Key";
+    
+    public static final String REGISTERED_APP_ATTRIBUTE = "registeredApp";
+    
+    public static final String CLIENT_IP_ATTRIBUTE = "clientIpAddress";
     private final AppRegistrationService appRegistrationService;
     private final RateLimitService rateLimitService;
     private final AuditLogService auditLogService;
@@ -65,6 +70,7 @@ public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
             return;
         }
         
+        long startNanos = System.nanoTime();
         String apiKey = request.getHeader(API_KEY_HEADER);
         
         if (apiKey == null || apiKey.isEmpty()) {
@@ -101,13 +107,6 @@ public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
             return;
         }
         
-        // Log successful authentication
-        auditLogService.logAuthenticationAttempt(app, path, request.getMethod(), 
-            ipAddress, true, null);
-        
-        // Log API request
-        auditLogService.logApiRequest(app, path, request.getMethod(), ipAddress);
-        
         // Set authentication in context
         UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
             app.getName(),
@@ -116,17 +115,27 @@ public class ApiKeyAuthenticationFilter extends OncePerRequestFilter {
         );
         SecurityContextHolder.getContext().setAuthentication(authentication);
         
-        // Store app info in request attribute for later use
-        request.setAttribute("registeredApp", app);
+        // Store app info and caller address in request attributes for later use
+        request.setAttribute(REGISTERED_APP_ATTRIBUTE, app);
+        request.setAttribute(CLIENT_IP_ATTRIBUTE, ipAddress);
         
-        filterChain.doFilter(request, response);
+        // Log API request once the response is known; it also records the successful authentication
+        int responseStatus = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        try {
+            filterChain.doFilter(request, response);
+            responseStatus = response.getStatus();
+        } finally {
+            long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            auditLogService.logApiRequest(app, path, request.getMethod(), ipAddress, responseStatus, latencyMs);
+        }
     }
     
     private boolean isApiEndpoint(String path) {
         // WebAuthn endpoints are browser-based and don't require API keys
-        // Only OTP and TOTP are server-to-server API endpoints
+        // Only OTP and TOTP are server-to-server API endpoints, actuator endpoints other than health are protected
         return path.startsWith("/otp/v1") || 
-               path.startsWith("/totp/v1");
+               path.startsWith("/totp/v1") ||
+               (path.startsWith("/actuator/") && !path.startsWith("/actuator/health"));
     }
     
     private String getClientIpAddress(HttpServletRequest request) {
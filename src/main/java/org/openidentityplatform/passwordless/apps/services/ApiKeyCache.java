@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.openidentityplatform.passwordless.apps.configuration.ApiKeyCacheConfiguration;
+import org.openidentityplatform.passwordless.apps.models.RegisteredApp;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, expiring cache of API keys that already passed hash verification.
+ * Entries are keyed by an HMAC-SHA256 digest of the presented key under a per-process secret,
+ * so the plaintext key is never retained.
+ * Every invalidation bumps a generation, so a lookup that read the app before an invalidation cannot cache it after.
+ */
+@Component
+public class ApiKeyCache {
+
+    private static final String DIGEST_ALGORITHM = "HmacSHA256";
+
+    private final Cache<String, RegisteredApp> cache;
+
+    private final ThreadLocal<Mac> macs;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    public ApiKeyCache(ApiKeyCacheConfiguration configuration, SecureRandom secureRandom, MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(configuration.getMaximumSize())
+                .expireAfterWrite(Duration.ofSeconds(configuration.getTtlSeconds()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "apiKeyCache");
+
+        byte[] secret = new byte[32];
+        secureRandom.nextBytes(secret);
+        SecretKeySpec digestKey = new SecretKeySpec(secret, DIGEST_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(DIGEST_ALGORITHM);
+                mac.init(digestKey);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public Optional<RegisteredApp> get(String apiKey) {
+        return Optional.ofNullable(cache.getIfPresent(digest(apiKey)));
+    }
+
+    /**
+     * @return generation to pass to {@link #put}, taken before the app is read from the database
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Caches the app unless an invalidation ran since {@code generation} was taken; the entry is dropped again
+     * if the invalidation races the put
+     */
+    public void put(String apiKey, RegisteredApp app, long generation) {
+        String digest = digest(apiKey);
+        cache.put(digest, app);
+        if (this.generation.get() != generation) {
+            cache.invalidate(digest);
+        }
+    }
+
+    public void invalidateApp(String appId) {
+        generation.incrementAndGet();
+        cache.asMap().values().removeIf(app -> app.getId().equals(appId));
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private String digest(String apiKey) {
+        byte[] digest = macs.get().doFinal(apiKey.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(digest);
+    }
+}
@@ -25,10 +25,13 @@ import org.springframework.cache.annotation.Cacheable;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.security.SecureRandom;
 import java.time.Instant;
 import java.util.Base64;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Optional;
 
@@ -37,9 +40,16 @@ import java.util.Optional;
 @Slf4j
 public class AppRegistrationService {
     
+    private static final String API_KEY_PREFIX = "pk_";
+    private static final char KEY_ID_SEPARATOR = '_';
+    private static final int KEY_ID_BYTES = 8;
+    private static final int KEY_ID_LENGTH = KEY_ID_BYTES * 2;
+    
     private final RegisteredAppRepository appRepository;
     private final BCryptPasswordEncoder passwordEncoder;
     private final SecureRandom secureRandom;
+    private final ApiKeyCache apiKeyCache;
+    private final AppUsageTracker appUsageTracker;
     
     @Transactional
     @CacheEvict(value = "activeApps", allEntries = true)
@@ -48,7 +58,8 @@ public class AppRegistrationService {
             throw new IllegalArgumentException("App with name '" + name + "' already exists");
         }
         
-        String apiKey = generateApiKey();
+        String keyId = generateKeyId();
+        String apiKey = generateApiKey(keyId);
         String apiKeyHash = passwordEncoder.encode(apiKey);
         
         RegisteredApp app = new RegisteredApp();
@@ -56,6 +67,7 @@ public class AppRegistrationService {
         app.setDescription(description);
         app.setApiKey(apiKey); // Store temporarily to return to user
         app.setApiKeyHash(apiKeyHash);
+        app.setKeyId(keyId);
         app.setActive(true);
         app.setRateLimitPerMinute(rateLimitPerMinute != null ? rateLimitPerMinute : 60);
         app.setRateLimitPerHour(rateLimitPerHour != null ? rateLimitPerHour : 1000);
@@ -85,42 +97,50 @@ public class AppRegistrationService {
             .toList();
     }
     
-    @Transactional
     public boolean validateApiKey(String apiKey) {
-        if (apiKey == null || apiKey.isEmpty()) {
-            return false;
-        }
-        
-        List<RegisteredApp> activeApps = getActiveApps();
-        
-        for (RegisteredApp app : activeApps) {
-            if (passwordEncoder.matches(apiKey, app.getApiKeyHash())) {
-                // Update last used timestamp
-                app.setLastUsedAt(Instant.now());
-                appRepository.save(app);
-                return true;
-            }
-        }
-        
-        return false;
+        return getAppByApiKey(apiKey).isPresent();
     }
     
-    @Transactional
     public Optional<RegisteredApp> getAppByApiKey(String apiKey) {
         if (apiKey == null || apiKey.isEmpty()) {
             return Optional.empty();
         }
         
-        List<RegisteredApp> activeApps = getActiveApps();
+        Optional<RegisteredApp> appOpt = apiKeyCache.get(apiKey);
+        if (appOpt.isEmpty()) {
+            long generation = apiKeyCache.generation();
+            String keyId = extractKeyId(apiKey);
+            appOpt = keyId != null
+                    ? findByKeyId(keyId, apiKey)
+                    : findLegacyApp(apiKey);
+            appOpt.ifPresent(app -> apiKeyCache.put(apiKey, app, generation));
+        }
         
-        for (RegisteredApp app : activeApps) {
+        // the cached app is shared between requests, so lastUsedAt is only written through the tracker
+        appOpt.ifPresent(app -> appUsageTracker.recordUsage(app.getId(), Instant.now()));
+        return appOpt;
+    }
+    
+    /**
+     * Keyed lookup: one indexed query and a single hash verification,
+     * independent of the number of registered apps
+     */
+    private Optional<RegisteredApp> findByKeyId(String keyId, String apiKey) {
+        return appRepository.findByKeyIdAndActiveTrue(keyId)
+                .filter(app -> passwordEncoder.matches(apiKey, app.getApiKeyHash()));
+    }
+    
+    /**
+     * Migration path for keys issued before the key id was embedded.
+     * Only apps without a key id are scanned; regenerating the key moves an app to the keyed lookup.
+     */
+    private Optional<RegisteredApp> findLegacyApp(String apiKey) {
+        for (RegisteredApp app : appRepository.findByKeyIdIsNullAndActiveTrue()) {
             if (passwordEncoder.matches(apiKey, app.getApiKeyHash())) {
-                app.setLastUsedAt(Instant.now());
-                appRepository.save(app);
+                log.warn("App {} authenticated with a legacy API key, regenerate the key to enable keyed lookup", app.getName());
                 return Optional.of(app);
             }
         }
-        
         return Optional.empty();
     }
     
@@ -131,6 +151,7 @@ public class AppRegistrationService {
                 .orElseThrow(() -> new IllegalArgumentException("App not found with id: " + id));
         app.setActive(false);
         appRepository.save(app);
+        invalidateCachedApiKeys(id);
         log.info("Deactivated app: {}", app.getName());
     }
     
@@ -148,6 +169,7 @@ public class AppRegistrationService {
     @CacheEvict(value = "activeApps", allEntries = true)
     public void deleteApp(String id) {
         appRepository.deleteById(id);
+        invalidateCachedApiKeys(id);
         log.info("Deleted app with id: {}", id);
     }
     
@@ -157,20 +179,65 @@ public class AppRegistrationService {
         RegisteredApp app = appRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("App not found with id: " + id));
         
-        String newApiKey = generateApiKey();
+        String keyId = generateKeyId();
+        String newApiKey = generateApiKey(keyId);
         String newApiKeyHash = passwordEncoder.encode(newApiKey);
         
         app.setApiKey(newApiKey);
         app.setApiKeyHash(newApiKeyHash);
+        app.setKeyId(keyId);
         appRepository.save(app);
+        invalidateCachedApiKeys(id);
         
         log.info("Regenerated API key for app: {}", app.getName());
         return newApiKey;
     }
     
-    private String generateApiKey() {
+    /**
+     * Drops verified keys of the app immediately and once more after commit. Each invalidation bumps the cache
+     * generation, so a lookup that read the pre-commit state before the commit does not keep it cached
+     */
+    private void invalidateCachedApiKeys(String appId) {
+        apiKeyCache.invalidateApp(appId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apiKeyCache.invalidateApp(appId);
+                }
+            });
+        }
+    }
+    
+    private String generateKeyId() {
+        byte[] randomBytes = new byte[KEY_ID_BYTES];
+        secureRandom.nextBytes(randomBytes);
+        return HexFormat.of().formatHex(randomBytes);
+    }
+    
+    private String generateApiKey(String keyId) {
         byte[] randomBytes = new byte[32];
         secureRandom.nextBytes(randomBytes);
-        return "pk_" + Base64.getUrlEncoder().withoutPadding().encodeToString(randomBytes);
+        return API_KEY_PREFIX + keyId + KEY_ID_SEPARATOR + Base64.getUrlEncoder().withoutPadding().encodeToString(randomBytes);
+    }
+    
+    /**
+     * Extracts the key id from an API key in the "pk_{keyId}_{secret}" format
+     * @param apiKey API key presented by the client
+     * @return key id, or null for legacy keys without an embedded key id
+     */
+    static String extractKeyId(String apiKey) {
+        int keyIdEnd = API_KEY_PREFIX.length() + KEY_ID_LENGTH;
+        if (!apiKey.startsWith(API_KEY_PREFIX) || apiKey.length() <= keyIdEnd
+                || apiKey.charAt(keyIdEnd) != KEY_ID_SEPARATOR) {
+            return null;
+        }
+        String keyId = apiKey.substring(API_KEY_PREFIX.length(), keyIdEnd);
+        for (int i = 0; i < keyId.length(); i++) {
+            if (Character.digit(keyId.charAt(i), 16) < 0) {
+                return null;
+            }
+        }
+        return keyId;
     }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind tracker of {@code registered_apps.last_used_at}.
+ * Usage is recorded in memory on the request path and flushed periodically
+ * as one JDBC-batched UPDATE per app; the column is eventually consistent.
+ */
+@Component
+@Slf4j
+public class AppUsageTracker {
+
+    private static final String UPDATE_LAST_USED_AT =
+            "UPDATE registered_apps SET last_used_at = ? WHERE id = ? AND (last_used_at IS NULL OR last_used_at < ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<String, Instant> pending = new ConcurrentHashMap<>();
+
+    public AppUsageTracker(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void recordUsage(String appId, Instant usedAt) {
+        pending.merge(appId, usedAt, (previous, current) -> current.isAfter(previous) ? current : previous);
+    }
+
+    @Scheduled(fixedDelayString = "${apps.lastUsedFlushIntervalMs:30000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>(pending.size());
+        for (Map.Entry<String, Instant> entry : pending.entrySet()) {
+            String appId = entry.getKey();
+            Instant usedAt = entry.getValue();
+            // keep newer usage recorded concurrently for the next flush
+            if (pending.remove(appId, usedAt)) {
+                Timestamp timestamp = Timestamp.from(usedAt);
+                batch.add(new Object[]{timestamp, appId, timestamp});
+            }
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_LAST_USED_AT, batch);
+        } catch (RuntimeException e) {
+            log.error("Failed to flush last usage of {} apps", batch.size(), e);
+            batch.forEach(args -> recordUsage((String) args[1], ((Timestamp) args[0]).toInstant()));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
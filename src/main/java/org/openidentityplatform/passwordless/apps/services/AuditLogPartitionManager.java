@@ -0,0 +1,246 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.openidentityplatform.passwordless.apps.configuration.AuditLogConfiguration;
+import org.openidentityplatform.passwordless.apps.configuration.AuditLogConfiguration.PartitionInterval;
+import org.openidentityplatform.passwordless.housekeeping.services.LeaderLockService;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps audit_logs range-partitioned by created_at on MySQL: partitions are created ahead of time
+ * and expired ones are dropped as a whole. Other databases (H2 in tests) fall back to deleting expired rows.
+ * Partition names encode the first day of the period in UTC, e.g. p20260117 (DAY) or p202601 (MONTH).
+ * Maintenance runs on one node of the cluster at a time, under a {@link LeaderLockService} lock.
+ */
+@Component
+@Slf4j
+public class AuditLogPartitionManager {
+
+    static final String LOCK_NAME = "audit-log-partitions";
+
+    private static final String TABLE = "audit_logs";
+
+    private static final String MAX_PARTITION = "pmax";
+
+    private static final DateTimeFormatter DAY_NAME = DateTimeFormatter.ofPattern("'p'yyyyMMdd");
+
+    private static final DateTimeFormatter DATETIME_LITERAL = DateTimeFormatter.ofPattern("''yyyy-MM-dd HH:mm:ss''");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AuditLogConfiguration configuration;
+    private final LeaderLockService leaderLockService;
+
+    private volatile Boolean partitionable;
+
+    public AuditLogPartitionManager(JdbcTemplate jdbcTemplate, AuditLogConfiguration configuration,
+                                    LeaderLockService leaderLockService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.configuration = configuration;
+        this.leaderLockService = leaderLockService;
+    }
+
+    @Scheduled(initialDelayString = "${apps.audit.partitionMaintenanceInitialDelayMs:60000}",
+            fixedDelayString = "${apps.audit.partitionMaintenanceIntervalMs:3600000}")
+    public void maintain() {
+        long lockAtMostMs = configuration.getPartitionMaintenanceLockAtMostMs();
+        try {
+            if (!leaderLockService.tryAcquire(LOCK_NAME, Duration.ofMillis(lockAtMostMs))) {
+                return;
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to acquire the audit log maintenance lock", e);
+            return;
+        }
+        try {
+            Instant now = Instant.now();
+            if (configuration.isPartitioningEnabled() && isPartitionable()) {
+                maintainPartitions(now);
+            } else {
+                purgeExpiredRows(now, System.currentTimeMillis() + lockAtMostMs * 4 / 5);
+            }
+        } catch (RuntimeException e) {
+            log.error("Audit log partition maintenance failed", e);
+        } finally {
+            try {
+                leaderLockService.release(LOCK_NAME);
+            } catch (RuntimeException e) {
+                log.warn("Failed to release the audit log maintenance lock, it expires on its own", e);
+            }
+        }
+    }
+
+    private boolean isPartitionable() {
+        if (partitionable == null) {
+            String product = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                    connection.getMetaData().getDatabaseProductName());
+            partitionable = "MySQL".equalsIgnoreCase(product) || "MariaDB".equalsIgnoreCase(product);
+        }
+        return partitionable;
+    }
+
+    /**
+     * Deletes expired rows by {@code DELETE ... LIMIT purgeChunkSize} statements, so no statement locks
+     * a large part of the table, until none are left or {@code deadline}
+     */
+    private void purgeExpiredRows(Instant now, long deadline) {
+        if (configuration.getRetentionDays() <= 0) {
+            return;
+        }
+        Timestamp before = Timestamp.from(now.minus(configuration.getRetentionDays(), ChronoUnit.DAYS));
+        int chunkSize = configuration.getPurgeChunkSize();
+        String sql = "DELETE FROM " + TABLE + " WHERE created_at < ? LIMIT " + chunkSize;
+        long total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(sql, before);
+            total += deleted;
+        } while (deleted == chunkSize && System.currentTimeMillis() < deadline);
+        log.debug("Deleted {} expired audit logs", total);
+    }
+
+    private void maintainPartitions(Instant now) {
+        boolean timestampColumn = "timestamp".equalsIgnoreCase(jdbcTemplate.queryForObject(
+                "SELECT DATA_TYPE FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() "
+                        + "AND TABLE_NAME = ? AND COLUMN_NAME = 'created_at'", String.class, TABLE));
+        List<String> existing = jdbcTemplate.queryForList(
+                "SELECT PARTITION_NAME FROM information_schema.PARTITIONS WHERE TABLE_SCHEMA = DATABASE() "
+                        + "AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL ORDER BY PARTITION_ORDINAL_POSITION",
+                String.class, TABLE);
+
+        List<LocalDate> missing = missingPeriods(existing, now);
+        if (existing.isEmpty()) {
+            partitionTable(missing, timestampColumn);
+        } else if (!missing.isEmpty()) {
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " REORGANIZE PARTITION " + MAX_PARTITION
+                    + " INTO (" + partitionDefinitions(missing, timestampColumn) + ")");
+            log.info("Created audit log partitions {}", missing);
+        }
+
+        List<String> expired = expiredPartitions(existing, now);
+        if (!expired.isEmpty()) {
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP PARTITION " + String.join(", ", expired));
+            log.info("Dropped expired audit log partitions {}", expired);
+        }
+    }
+
+    /**
+     * One-off conversion of an unpartitioned table. MySQL requires the partitioning column in the primary key
+     * and does not allow foreign keys on partitioned tables; rows older than the current period land in its partition.
+     */
+    private void partitionTable(List<LocalDate> periods, boolean timestampColumn) {
+        List<String> foreignKeys = jdbcTemplate.queryForList(
+                "SELECT CONSTRAINT_NAME FROM information_schema.TABLE_CONSTRAINTS WHERE TABLE_SCHEMA = DATABASE() "
+                        + "AND TABLE_NAME = ? AND CONSTRAINT_TYPE = 'FOREIGN KEY'", String.class, TABLE);
+        for (String foreignKey : foreignKeys) {
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP FOREIGN KEY " + foreignKey);
+        }
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP PRIMARY KEY, ADD PRIMARY KEY (id, created_at)");
+        String expression = timestampColumn ? "RANGE (UNIX_TIMESTAMP(created_at))" : "RANGE COLUMNS (created_at)";
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " PARTITION BY " + expression
+                + " (" + partitionDefinitions(periods, timestampColumn) + ")");
+        log.info("Partitioned {} by {} starting with {}", TABLE, configuration.getPartitionInterval(), periods.get(0));
+    }
+
+    private String partitionDefinitions(List<LocalDate> periods, boolean timestampColumn) {
+        List<String> definitions = new ArrayList<>();
+        for (LocalDate period : periods) {
+            Instant end = nextPeriod(period).atStartOfDay(ZoneOffset.UTC).toInstant();
+            String bound = timestampColumn
+                    ? String.valueOf(end.getEpochSecond())
+                    : DATETIME_LITERAL.format(end.atOffset(ZoneOffset.UTC));
+            definitions.add("PARTITION " + partitionName(period) + " VALUES LESS THAN (" + bound + ")");
+        }
+        definitions.add("PARTITION " + MAX_PARTITION + " VALUES LESS THAN " + (timestampColumn ? "MAXVALUE" : "(MAXVALUE)"));
+        return String.join(", ", definitions);
+    }
+
+    /**
+     * Periods from the one after the newest existing partition (or the current one) up to {@code partitionsAhead} ahead
+     */
+    List<LocalDate> missingPeriods(List<String> existing, Instant now) {
+        LocalDate current = periodStart(LocalDate.ofInstant(now, ZoneOffset.UTC));
+        LocalDate last = current;
+        for (int i = 0; i < configuration.getPartitionsAhead(); i++) {
+            last = nextPeriod(last);
+        }
+        LocalDate from = existing.stream()
+                .filter(name -> !MAX_PARTITION.equals(name))
+                .map(AuditLogPartitionManager::periodEnd)
+                .max(LocalDate::compareTo)
+                .orElse(current);
+        List<LocalDate> periods = new ArrayList<>();
+        for (LocalDate period = from; !period.isAfter(last); period = nextPeriod(period)) {
+            periods.add(period);
+        }
+        return periods;
+    }
+
+    /**
+     * Partitions whose whole period lies before the retention horizon
+     */
+    List<String> expiredPartitions(List<String> existing, Instant now) {
+        if (configuration.getRetentionDays() <= 0) {
+            return List.of();
+        }
+        LocalDate horizon = LocalDate.ofInstant(now.minus(configuration.getRetentionDays(), ChronoUnit.DAYS), ZoneOffset.UTC);
+        return existing.stream()
+                .filter(name -> !MAX_PARTITION.equals(name))
+                .filter(name -> !periodEnd(name).isAfter(horizon))
+                .collect(Collectors.toList());
+    }
+
+    private LocalDate periodStart(LocalDate date) {
+        return configuration.getPartitionInterval() == PartitionInterval.MONTH ? date.withDayOfMonth(1) : date;
+    }
+
+    private LocalDate nextPeriod(LocalDate period) {
+        return configuration.getPartitionInterval() == PartitionInterval.MONTH ? period.plusMonths(1) : period.plusDays(1);
+    }
+
+    private String partitionName(LocalDate period) {
+        return configuration.getPartitionInterval() == PartitionInterval.MONTH
+                ? DAY_NAME.format(period).substring(0, 7)
+                : DAY_NAME.format(period);
+    }
+
+    /**
+     * Exclusive upper bound of a partition, derived from its name so it does not depend on the current interval
+     */
+    private static LocalDate periodEnd(String partitionName) {
+        String digits = partitionName.substring(1);
+        if (digits.length() == 6) {
+            return LocalDate.parse(digits + "01", DateTimeFormatter.BASIC_ISO_DATE).plusMonths(1);
+        }
+        return LocalDate.parse(digits, DateTimeFormatter.BASIC_ISO_DATE).plusDays(1);
+    }
+}
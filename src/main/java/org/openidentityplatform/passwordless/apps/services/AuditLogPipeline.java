@@ -0,0 +1,231 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.openidentityplatform.passwordless.apps.configuration.AuditLogConfiguration;
+import org.openidentityplatform.passwordless.apps.models.AuditLog;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded audit log pipeline.
+ * Request threads only enqueue events; drain threads write them with JDBC-batched inserts,
+ * flushing when a batch is full or the flush interval elapses.
+ */
+@Component
+@Slf4j
+public class AuditLogPipeline implements SmartLifecycle {
+
+    private static final String INSERT_AUDIT_LOG = "INSERT INTO audit_logs "
+            + "(id, app_id, app_name, user_id, domain_id, user_email, event_type, endpoint, http_method, "
+            + "ip_address, success, response_status, latency_ms, error_message, details, created_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final AuditLogConfiguration configuration;
+    private final JdbcTemplate jdbcTemplate;
+    private final AuditStatsService auditStatsService;
+    private final BlockingQueue<AuditLog> queue;
+
+    private final Counter droppedEvents;
+    private final Counter sampledOutEvents;
+    private final Counter failedEvents;
+    private final DistributionSummary batchSizes;
+    private final AtomicLong sampleSequence = new AtomicLong();
+
+    private final List<Thread> drainThreads = new ArrayList<>();
+    private volatile boolean running;
+
+    public AuditLogPipeline(AuditLogConfiguration configuration, JdbcTemplate jdbcTemplate,
+                            AuditStatsService auditStatsService, MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.jdbcTemplate = jdbcTemplate;
+        this.auditStatsService = auditStatsService;
+        this.queue = new ArrayBlockingQueue<>(configuration.getQueueCapacity());
+
+        Gauge.builder("audit.queue.depth", queue, BlockingQueue::size).register(meterRegistry);
+        this.droppedEvents = Counter.builder("audit.events.dropped").register(meterRegistry);
+        this.sampledOutEvents = Counter.builder("audit.events.sampled.out").register(meterRegistry);
+        this.failedEvents = Counter.builder("audit.events.failed").register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("audit.batch.size").register(meterRegistry);
+    }
+
+    /**
+     * Enqueues an audit event according to the configured overflow policy; never throws.
+     * Stats are counted before the overflow policy applies, so they stay exact when events are dropped.
+     */
+    public void submit(AuditLog auditLog) {
+        if (auditLog.getCreatedAt() == null) {
+            auditLog.setCreatedAt(Instant.now());
+        }
+        auditStatsService.record(auditLog);
+        boolean accepted = switch (configuration.getOverflowPolicy()) {
+            case DROP -> queue.offer(auditLog);
+            case SAMPLE -> submitSampled(auditLog);
+            case BLOCK -> submitBlocking(auditLog);
+        };
+        if (!accepted) {
+            droppedEvents.increment();
+        }
+    }
+
+    private boolean submitSampled(AuditLog auditLog) {
+        if (queue.size() * 2 > configuration.getQueueCapacity()
+                && sampleSequence.incrementAndGet() % configuration.getSampleEvery() != 0) {
+            sampledOutEvents.increment();
+            return true;
+        }
+        return queue.offer(auditLog);
+    }
+
+    private boolean submitBlocking(AuditLog auditLog) {
+        try {
+            return queue.offer(auditLog, configuration.getBlockTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Collects up to {@code batchSize} events, waiting at most {@code flushIntervalMs} after the first one,
+     * and writes them in one batch
+     * @return number of events taken from the queue
+     */
+    int drainBatch() throws InterruptedException {
+        AuditLog first = queue.poll(configuration.getFlushIntervalMs(), TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return 0;
+        }
+        List<AuditLog> batch = new ArrayList<>(configuration.getBatchSize());
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(configuration.getFlushIntervalMs());
+        while (batch.size() < configuration.getBatchSize()) {
+            queue.drainTo(batch, configuration.getBatchSize() - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= configuration.getBatchSize() || remaining <= 0) {
+                break;
+            }
+            AuditLog next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        write(batch);
+        return batch.size();
+    }
+
+    private void write(List<AuditLog> batch) {
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        for (AuditLog auditLog : batch) {
+            if (auditLog.getId() == null) {
+                auditLog.setId(UUID.randomUUID().toString());
+            }
+            rows.add(new Object[]{
+                    auditLog.getId(),
+                    auditLog.getAppId(),
+                    auditLog.getAppName(),
+                    auditLog.getUser() != null ? auditLog.getUser().getId() : null,
+                    auditLog.getDomain() != null ? auditLog.getDomain().getId() : null,
+                    auditLog.getUserEmail(),
+                    auditLog.getEventType(),
+                    auditLog.getEndpoint(),
+                    auditLog.getHttpMethod(),
+                    auditLog.getIpAddress(),
+                    auditLog.isSuccess(),
+                    auditLog.getResponseStatus(),
+                    auditLog.getLatencyMs(),
+                    auditLog.getErrorMessage(),
+                    auditLog.getDetails(),
+                    Timestamp.from(auditLog.getCreatedAt())
+            });
+        }
+        try {
+            jdbcTemplate.batchUpdate(INSERT_AUDIT_LOG, rows);
+            batchSizes.record(batch.size());
+        } catch (RuntimeException e) {
+            failedEvents.increment(batch.size());
+            log.error("Failed to save batch of {} audit logs", batch.size(), e);
+        }
+    }
+
+    private void drainLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                drainBatch();
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            } catch (RuntimeException e) {
+                log.error("Audit log drain failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        for (int i = 0; i < configuration.getDrainThreads(); i++) {
+            Thread thread = new Thread(this::drainLoop, "audit-drain-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            drainThreads.add(thread);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (Thread thread : drainThreads) {
+            try {
+                thread.join(configuration.getFlushIntervalMs() * 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drainThreads.clear();
+        if (!queue.isEmpty()) {
+            log.warn("{} audit logs were not written on shutdown", queue.size());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -18,78 +18,81 @@ package org.openidentityplatform.passwordless.apps.services;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.openidentityplatform.passwordless.apps.configuration.AuditLogConfiguration;
 import org.openidentityplatform.passwordless.apps.models.AuditLog;
+import org.openidentityplatform.passwordless.apps.models.AuditLogCursor;
+import org.openidentityplatform.passwordless.apps.models.AuditLogCursorPage;
 import org.openidentityplatform.passwordless.apps.models.RegisteredApp;
 import org.openidentityplatform.passwordless.apps.repositories.AuditLogRepository;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Service
 @AllArgsConstructor
 @Slf4j
 public class AuditLogService {
     
+    public static final String EVENT_AUTHENTICATION = "AUTHENTICATION";
+    public static final String EVENT_API_REQUEST = "API_REQUEST";
+    public static final String EVENT_RATE_LIMIT_EXCEEDED = "RATE_LIMIT_EXCEEDED";
+    
     private final AuditLogRepository auditLogRepository;
+    private final AuditLogPipeline auditLogPipeline;
+    private final AuditLogConfiguration auditLogConfiguration;
     
-    @Async
     public void logAuthenticationAttempt(RegisteredApp app, String endpoint, String httpMethod, 
                                         String ipAddress, boolean success, String errorMessage) {
-        try {
-            AuditLog auditLog = new AuditLog();
-            auditLog.setAppId(app != null ? app.getId() : null);
-            auditLog.setAppName(app != null ? app.getName() : null);
-            auditLog.setEventType("AUTHENTICATION");
-            auditLog.setEndpoint(endpoint);
-            auditLog.setHttpMethod(httpMethod);
-            auditLog.setIpAddress(ipAddress);
-            auditLog.setSuccess(success);
-            auditLog.setErrorMessage(errorMessage);
-            
-            auditLogRepository.save(auditLog);
-        } catch (Exception e) {
-            log.error("Failed to save audit log", e);
-        }
+        AuditLog auditLog = new AuditLog();
+        auditLog.setAppId(app != null ? app.getId() : null);
+        auditLog.setAppName(app != null ? app.getName() : null);
+        auditLog.setEventType(EVENT_AUTHENTICATION);
+        auditLog.setEndpoint(endpoint);
+        auditLog.setHttpMethod(httpMethod);
+        auditLog.setIpAddress(ipAddress);
+        auditLog.setSuccess(success);
+        auditLog.setErrorMessage(errorMessage);
+        
+        auditLogPipeline.submit(auditLog);
     }
     
-    @Async
-    public void logApiRequest(RegisteredApp app, String endpoint, String httpMethod, String ipAddress) {
-        try {
-            AuditLog auditLog = new AuditLog();
-            auditLog.setAppId(app.getId());
-            auditLog.setAppName(app.getName());
-            auditLog.setEventType("API_REQUEST");
-            auditLog.setEndpoint(endpoint);
-            auditLog.setHttpMethod(httpMethod);
-            auditLog.setIpAddress(ipAddress);
-            auditLog.setSuccess(true);
-            
-            auditLogRepository.save(auditLog);
-        } catch (Exception e) {
-            log.error("Failed to save audit log", e);
-        }
+    /**
+     * Single record of an authenticated API request; it also stands for the successful authentication
+     * @param responseStatus HTTP status returned to the caller
+     * @param latencyMs time spent serving the request
+     */
+    public void logApiRequest(RegisteredApp app, String endpoint, String httpMethod, String ipAddress,
+                              int responseStatus, long latencyMs) {
+        AuditLog auditLog = new AuditLog();
+        auditLog.setAppId(app.getId());
+        auditLog.setAppName(app.getName());
+        auditLog.setEventType(EVENT_API_REQUEST);
+        auditLog.setEndpoint(endpoint);
+        auditLog.setHttpMethod(httpMethod);
+        auditLog.setIpAddress(ipAddress);
+        auditLog.setSuccess(responseStatus < 400);
+        auditLog.setResponseStatus(responseStatus);
+        auditLog.setLatencyMs(latencyMs);
+        
+        auditLogPipeline.submit(auditLog);
     }
     
-    @Async
     public void logRateLimitExceeded(RegisteredApp app, String endpoint, String ipAddress) {
-        try {
-            AuditLog auditLog = new AuditLog();
-            auditLog.setAppId(app.getId());
-            auditLog.setAppName(app.getName());
-            auditLog.setEventType("RATE_LIMIT_EXCEEDED");
-            auditLog.setEndpoint(endpoint);
-            auditLog.setIpAddress(ipAddress);
-            auditLog.setSuccess(false);
-            auditLog.setErrorMessage("Rate limit exceeded");
-            
-            auditLogRepository.save(auditLog);
-        } catch (Exception e) {
-            log.error("Failed to save audit log", e);
-        }
+        AuditLog auditLog = new AuditLog();
+        auditLog.setAppId(app.getId());
+        auditLog.setAppName(app.getName());
+        auditLog.setEventType(EVENT_RATE_LIMIT_EXCEEDED);
+        auditLog.setEndpoint(endpoint);
+        auditLog.setIpAddress(ipAddress);
+        auditLog.setSuccess(false);
+        auditLog.setErrorMessage("Rate limit exceeded");
+        
+        auditLogPipeline.submit(auditLog);
     }
     
     public Page<AuditLog> getAuditLogs(Pageable pageable) {
@@ -101,14 +104,52 @@ public class AuditLogService {
     }
     
     public Page<AuditLog> getAuditLogsByEventType(String eventType, Pageable pageable) {
+        if (EVENT_AUTHENTICATION.equals(eventType)) {
+            // successful authentications are recorded as part of the API_REQUEST event
+            return auditLogRepository.findByEventTypeIn(List.of(EVENT_AUTHENTICATION, EVENT_API_REQUEST), pageable);
+        }
         return auditLogRepository.findByEventType(eventType, pageable);
     }
     
-    public List<AuditLog> getAuditLogsInRange(Instant start, Instant end) {
-        return auditLogRepository.findByCreatedAtBetween(start, end);
+    public AuditLogCursorPage getAuditLogsAfter(String after, int size) {
+        AuditLogCursor cursor = AuditLogCursor.decode(after);
+        return toCursorPage(auditLogRepository.findBefore(cursor.getCreatedAt(), cursor.getId(), Limit.of(size)), size);
+    }
+    
+    public AuditLogCursorPage getAuditLogsByAppAfter(String appId, String after, int size) {
+        AuditLogCursor cursor = AuditLogCursor.decode(after);
+        return toCursorPage(auditLogRepository.findByAppIdBefore(appId, cursor.getCreatedAt(), cursor.getId(), Limit.of(size)), size);
+    }
+    
+    public AuditLogCursorPage getAuditLogsByEventTypeAfter(String eventType, String after, int size) {
+        AuditLogCursor cursor = AuditLogCursor.decode(after);
+        List<String> eventTypes = EVENT_AUTHENTICATION.equals(eventType)
+                ? List.of(EVENT_AUTHENTICATION, EVENT_API_REQUEST)
+                : List.of(eventType);
+        return toCursorPage(auditLogRepository.findByEventTypeInBefore(eventTypes, cursor.getCreatedAt(), cursor.getId(), Limit.of(size)), size);
+    }
+    
+    private AuditLogCursorPage toCursorPage(List<AuditLog> content, int size) {
+        String nextCursor = content.size() == size && !content.isEmpty()
+                ? AuditLogCursor.of(content.get(content.size() - 1)).encode()
+                : null;
+        return new AuditLogCursorPage(content, nextCursor);
     }
     
-    public long countRecentRequests(String appId, Instant after) {
-        return auditLogRepository.countByAppIdAndCreatedAtAfter(appId, after);
+    /**
+     * Streams audit logs created within [start, end] in (createdAt, id) order.
+     * Rows are read in keyset-paginated chunks, so memory use does not depend on the range size.
+     */
+    public void streamAuditLogsInRange(Instant start, Instant end, Consumer<AuditLog> consumer) {
+        int chunkSize = auditLogConfiguration.getExportChunkSize();
+        AuditLogCursor position = new AuditLogCursor(start, "");
+        List<AuditLog> chunk;
+        do {
+            chunk = auditLogRepository.findRangeAfter(end, position.getCreatedAt(), position.getId(), Limit.of(chunkSize));
+            chunk.forEach(consumer);
+            if (!chunk.isEmpty()) {
+                position = AuditLogCursor.of(chunk.get(chunk.size() - 1));
+            }
+        } while (chunk.size() == chunkSize);
     }
 }
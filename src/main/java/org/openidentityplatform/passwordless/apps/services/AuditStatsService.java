@@ -0,0 +1,292 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.openidentityplatform.passwordless.apps.configuration.AuditLogConfiguration;
+import org.openidentityplatform.passwordless.apps.models.AuditLog;
+import org.openidentityplatform.passwordless.apps.models.AuditStat.Granularity;
+import org.openidentityplatform.passwordless.apps.models.AuditStatsResponse;
+import org.openidentityplatform.passwordless.apps.repositories.AuditLogRepository;
+import org.openidentityplatform.passwordless.apps.repositories.AuditStatRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-app, per-minute and per-hour rollup of audit events.
+ * Counters are incremented in memory as events are submitted and merged into {@code audit_stats} periodically;
+ * statistics are answered from the rollup plus the not yet flushed counters, independent of the audit log size.
+ * Ranges before the first hour of an app's rollup, e.g. logged before the rollup was deployed, are counted
+ * from {@code audit_logs} instead.
+ */
+@Service
+@Slf4j
+public class AuditStatsService {
+
+    private static final String UPDATE_COUNTERS = "UPDATE audit_stats SET request_count = request_count + ?, "
+            + "success_count = success_count + ?, failure_count = failure_count + ? "
+            + "WHERE app_id = ? AND granularity = ? AND bucket_start = ? AND event_type = ?";
+
+    private static final String INSERT_COUNTERS = "INSERT INTO audit_stats "
+            + "(id, app_id, event_type, granularity, bucket_start, request_count, success_count, failure_count) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private record BucketKey(String appId, String eventType, Granularity granularity, Instant bucketStart) {
+    }
+
+    private static final class Counters {
+        long requests;
+        long successes;
+        long failures;
+    }
+
+    private final AuditStatRepository auditStatRepository;
+    private final AuditLogRepository auditLogRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final AuditLogConfiguration configuration;
+    private final TransactionOperations transactionOperations;
+
+    private final Map<BucketKey, Counters> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Start of the rollup per app, once buckets of it have been flushed; hour buckets are never purged
+     */
+    private final Map<String, Instant> rollupStarts = new ConcurrentHashMap<>();
+
+    public AuditStatsService(AuditStatRepository auditStatRepository, AuditLogRepository auditLogRepository,
+                             JdbcTemplate jdbcTemplate, AuditLogConfiguration configuration,
+                             TransactionOperations transactionOperations) {
+        this.auditStatRepository = auditStatRepository;
+        this.auditLogRepository = auditLogRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.configuration = configuration;
+        this.transactionOperations = transactionOperations;
+    }
+
+    public void record(AuditLog auditLog) {
+        if (auditLog.getAppId() == null) {
+            return;
+        }
+        Instant createdAt = auditLog.getCreatedAt();
+        increment(new BucketKey(auditLog.getAppId(), auditLog.getEventType(), Granularity.MINUTE,
+                createdAt.truncatedTo(ChronoUnit.MINUTES)), auditLog.isSuccess());
+        increment(new BucketKey(auditLog.getAppId(), auditLog.getEventType(), Granularity.HOUR,
+                createdAt.truncatedTo(ChronoUnit.HOURS)), auditLog.isSuccess());
+    }
+
+    private void increment(BucketKey key, boolean success) {
+        // compute() serializes with the remove() in flush, so no increment is lost
+        pending.compute(key, (k, counters) -> {
+            Counters c = counters != null ? counters : new Counters();
+            c.requests++;
+            if (success) {
+                c.successes++;
+            } else {
+                c.failures++;
+            }
+            return c;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${apps.audit.statsFlushIntervalMs:10000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<BucketKey> keys = new ArrayList<>();
+        List<Counters> values = new ArrayList<>();
+        for (BucketKey key : pending.keySet()) {
+            Counters counters = pending.remove(key);
+            if (counters != null) {
+                keys.add(key);
+                values.add(counters);
+            }
+        }
+        try {
+            transactionOperations.executeWithoutResult(status -> merge(keys, values));
+        } catch (RuntimeException e) {
+            log.error("Failed to flush {} audit stat buckets", keys.size(), e);
+            for (int i = 0; i < keys.size(); i++) {
+                Counters failed = values.get(i);
+                pending.merge(keys.get(i), failed, (current, ignored) -> {
+                    current.requests += failed.requests;
+                    current.successes += failed.successes;
+                    current.failures += failed.failures;
+                    return current;
+                });
+            }
+        }
+    }
+
+    /**
+     * Flushes the counters of the last interval before the node stops
+     */
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * Adds counters to existing rows with one batched UPDATE and inserts the missing buckets, in one transaction:
+     * if the insert fails, e.g. because another node created the same bucket, the updates roll back too and
+     * the re-queued counters are not counted twice
+     */
+    private void merge(List<BucketKey> keys, List<Counters> values) {
+        List<Object[]> updates = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            BucketKey key = keys.get(i);
+            Counters counters = values.get(i);
+            updates.add(new Object[]{counters.requests, counters.successes, counters.failures,
+                    key.appId(), key.granularity().name(), Timestamp.from(key.bucketStart()), key.eventType()});
+        }
+        int[] updated = jdbcTemplate.batchUpdate(UPDATE_COUNTERS, updates);
+
+        List<Object[]> inserts = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (updated[i] == 0) {
+                BucketKey key = keys.get(i);
+                Counters counters = values.get(i);
+                inserts.add(new Object[]{UUID.randomUUID().toString(), key.appId(), key.eventType(),
+                        key.granularity().name(), Timestamp.from(key.bucketStart()),
+                        counters.requests, counters.successes, counters.failures});
+            }
+        }
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_COUNTERS, inserts);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${apps.audit.statsPurgeIntervalMs:3600000}")
+    public void purgeExpiredMinuteBuckets() {
+        Instant before = Instant.now().minus(configuration.getStatsMinuteRetentionHours(), ChronoUnit.HOURS);
+        int deleted = auditStatRepository.deleteExpiredBuckets(Granularity.MINUTE, before);
+        log.debug("Purged {} minute audit stat buckets", deleted);
+    }
+
+    /**
+     * Counters of the app within the last {@code window}.
+     * The partial hour at the start of the window is read from minute buckets while they are retained;
+     * the part of the window before the rollup of the app starts is counted from audit_logs.
+     */
+    public AuditStatsResponse getStats(String appId, Duration window) {
+        Instant to = Instant.now();
+        Instant from = to.minus(window);
+
+        Map<String, AuditStatsResponse.Counts> totals = new TreeMap<>();
+        Instant rollupStart = rollupStart(appId, to);
+        if (from.isBefore(rollupStart)) {
+            Instant logRangeEnd = rollupStart.isBefore(to) ? rollupStart : to;
+            for (AuditStatRepository.EventTypeTotals row : auditLogRepository.sumByEventType(appId, from, logRangeEnd)) {
+                add(totals, row.getEventType(), row.getRequests(), row.getSuccesses(), row.getFailures());
+            }
+        }
+        if (rollupStart.isBefore(to)) {
+            accumulateRollup(totals, appId, from.isBefore(rollupStart) ? rollupStart : from, to);
+        }
+
+        long total = totals.values().stream().mapToLong(AuditStatsResponse.Counts::getRequests).sum();
+        return new AuditStatsResponse(appId, from, to, total, totals);
+    }
+
+    /**
+     * Start of the app's rollup: audit_logs are counted before it, buckets from it on.
+     * The first minute bucket is exact to the minute; once it has been purged, the first hour bucket is partial,
+     * so the rollup is trusted only from the end of that hour. Without flushed buckets the earliest pending minute
+     * is used, and without any counters the whole window is read from audit_logs.
+     */
+    private Instant rollupStart(String appId, Instant now) {
+        Instant cached = rollupStarts.get(appId);
+        if (cached != null) {
+            return cached;
+        }
+        Instant firstHour = auditStatRepository.findFirstBucketStart(appId, Granularity.HOUR);
+        if (firstHour != null) {
+            Instant firstMinute = auditStatRepository.findFirstBucketStart(appId, Granularity.MINUTE);
+            Instant rollupStart = firstMinute != null && firstMinute.truncatedTo(ChronoUnit.HOURS).equals(firstHour)
+                    ? firstMinute
+                    : firstHour.plus(1, ChronoUnit.HOURS);
+            rollupStarts.put(appId, rollupStart);
+            return rollupStart;
+        }
+        Instant rollupStart = now;
+        for (BucketKey key : pending.keySet()) {
+            if (key.appId().equals(appId) && key.granularity() == Granularity.MINUTE
+                    && key.bucketStart().isBefore(rollupStart)) {
+                rollupStart = key.bucketStart();
+            }
+        }
+        return rollupStart;
+    }
+
+    private void accumulateRollup(Map<String, AuditStatsResponse.Counts> totals, String appId,
+                                  Instant from, Instant to) {
+        Instant hourRangeEnd = to.truncatedTo(ChronoUnit.HOURS).plus(1, ChronoUnit.HOURS);
+        Instant minuteRetention = to.minus(configuration.getStatsMinuteRetentionHours(), ChronoUnit.HOURS);
+
+        Instant hourRangeStart;
+        if (from.isBefore(minuteRetention)) {
+            hourRangeStart = from.truncatedTo(ChronoUnit.HOURS);
+        } else {
+            Instant fromHour = from.truncatedTo(ChronoUnit.HOURS);
+            hourRangeStart = fromHour.equals(from) ? from : fromHour.plus(1, ChronoUnit.HOURS);
+            Instant minuteRangeEnd = hourRangeStart.isBefore(to)
+                    ? hourRangeStart
+                    : to.truncatedTo(ChronoUnit.MINUTES).plus(1, ChronoUnit.MINUTES);
+            if (from.isBefore(minuteRangeEnd)) {
+                accumulate(totals, appId, Granularity.MINUTE, from.truncatedTo(ChronoUnit.MINUTES), minuteRangeEnd);
+            }
+        }
+        if (hourRangeStart.isBefore(to)) {
+            accumulate(totals, appId, Granularity.HOUR, hourRangeStart, hourRangeEnd);
+        }
+    }
+
+    private void accumulate(Map<String, AuditStatsResponse.Counts> totals, String appId, Granularity granularity,
+                            Instant from, Instant to) {
+        for (AuditStatRepository.EventTypeTotals row : auditStatRepository.sumByEventType(appId, granularity, from, to)) {
+            add(totals, row.getEventType(), row.getRequests(), row.getSuccesses(), row.getFailures());
+        }
+        pending.forEach((key, counters) -> {
+            if (key.appId().equals(appId) && key.granularity() == granularity
+                    && !key.bucketStart().isBefore(from) && key.bucketStart().isBefore(to)) {
+                add(totals, key.eventType(), counters.requests, counters.successes, counters.failures);
+            }
+        });
+    }
+
+    private static void add(Map<String, AuditStatsResponse.Counts> totals, String eventType,
+                            Long requests, Long successes, Long failures) {
+        AuditStatsResponse.Counts counts = totals.computeIfAbsent(eventType, k -> new AuditStatsResponse.Counts());
+        counts.setRequests(counts.getRequests() + (requests != null ? requests : 0));
+        counts.setSuccesses(counts.getSuccesses() + (successes != null ? successes : 0));
+        counts.setFailures(counts.getFailures() + (failures != null ? failures : 0));
+    }
+}
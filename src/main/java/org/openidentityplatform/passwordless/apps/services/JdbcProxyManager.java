@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import io.github.bucket4j.distributed.proxy.ClientSideConfig;
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.AbstractCompareAndSwapBasedProxyManager;
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.AsyncCompareAndSwapOperation;
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.CompareAndSwapOperation;
+import io.github.bucket4j.distributed.remote.RemoteBucketState;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Bucket4j proxy manager keeping bucket state in the rate_limit_buckets table.
+ * State changes are optimistic: a row is written only if its version did not change since it was read,
+ * otherwise Bucket4j re-reads the state and retries.
+ * Asynchronous operations run the same statements on {@code asyncExecutor}, JDBC itself being blocking.
+ */
+public class JdbcProxyManager extends AbstractCompareAndSwapBasedProxyManager<String> {
+
+    private static final String SELECT_STATE = "SELECT state, version FROM rate_limit_buckets WHERE id = ?";
+
+    private static final String INSERT_STATE = "INSERT INTO rate_limit_buckets (id, state, version) VALUES (?, ?, 0)";
+
+    private static final String UPDATE_STATE = "UPDATE rate_limit_buckets SET state = ?, version = version + 1 "
+            + "WHERE id = ? AND version = ?";
+
+    private static final String DELETE_STATE = "DELETE FROM rate_limit_buckets WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Executor asyncExecutor;
+
+    public JdbcProxyManager(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, ForkJoinPool.commonPool());
+    }
+
+    public JdbcProxyManager(JdbcTemplate jdbcTemplate, Executor asyncExecutor) {
+        super(ClientSideConfig.getDefault());
+        this.jdbcTemplate = jdbcTemplate;
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    @Override
+    protected CompareAndSwapOperation beginCompareAndSwapOperation(String key) {
+        return new CompareAndSwapOperation() {
+
+            private Long version;
+
+            @Override
+            public Optional<byte[]> getStateData() {
+                version = null;
+                List<byte[]> states = jdbcTemplate.query(SELECT_STATE, (rs, rowNum) -> {
+                    version = rs.getLong("version");
+                    return rs.getBytes("state");
+                }, key);
+                return states.stream().findFirst();
+            }
+
+            @Override
+            public boolean compareAndSwap(byte[] originalData, byte[] newData, RemoteBucketState newState) {
+                if (version == null) {
+                    try {
+                        jdbcTemplate.update(INSERT_STATE, key, newData);
+                        return true;
+                    } catch (DuplicateKeyException e) {
+                        return false;
+                    }
+                }
+                return jdbcTemplate.update(UPDATE_STATE, newData, key, version) == 1;
+            }
+        };
+    }
+
+    @Override
+    protected AsyncCompareAndSwapOperation beginAsyncCompareAndSwapOperation(String key) {
+        CompareAndSwapOperation operation = beginCompareAndSwapOperation(key);
+        return new AsyncCompareAndSwapOperation() {
+            @Override
+            public CompletableFuture<Optional<byte[]>> getStateData() {
+                return CompletableFuture.supplyAsync(operation::getStateData, asyncExecutor);
+            }
+
+            @Override
+            public CompletableFuture<Boolean> compareAndSwap(byte[] originalData, byte[] newData, RemoteBucketState newState) {
+                return CompletableFuture.supplyAsync(() -> operation.compareAndSwap(originalData, newData, newState), asyncExecutor);
+            }
+        };
+    }
+
+    @Override
+    public void removeProxy(String key) {
+        jdbcTemplate.update(DELETE_STATE, key);
+    }
+
+    @Override
+    protected CompletableFuture<Void> removeAsync(String key) {
+        return CompletableFuture.runAsync(() -> removeProxy(key), asyncExecutor);
+    }
+
+    @Override
+    public boolean isAsyncModeSupported() {
+        return true;
+    }
+}
@@ -16,62 +16,146 @@
 
 package org.openidentityplatform.passwordless.apps.services;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
 import io.github.bucket4j.Refill;
+import io.github.bucket4j.TokensInheritanceStrategy;
+import io.github.bucket4j.distributed.BucketProxy;
+import io.github.bucket4j.distributed.proxy.ProxyManager;
+import io.github.bucket4j.distributed.proxy.RemoteBucketBuilder;
+import io.github.bucket4j.distributed.proxy.optimization.DelayParameters;
+import io.github.bucket4j.distributed.proxy.optimization.Optimizations;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.openidentityplatform.passwordless.apps.configuration.RateLimitConfiguration;
 import org.openidentityplatform.passwordless.apps.models.RegisteredApp;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Per-app minute and hour limits, kept in one bucket per app.
+ * Depending on {@link RateLimitConfiguration.Mode} the bucket is local to the node or shared through the database.
+ * Buckets idle for {@code bucketIdleMinutes} or beyond {@code maxBuckets} are evicted; when an app's limits change,
+ * its bucket is reconfigured in place and keeps the tokens already consumed.
+ */
 @Service
+@Slf4j
 public class RateLimitService {
     
-    private final Map<String, Bucket> minuteBuckets = new ConcurrentHashMap<>();
-    private final Map<String, Bucket> hourBuckets = new ConcurrentHashMap<>();
+    private static final class AppBucket {
+        final Bucket bucket;
+        int ratePerMinute;
+        int ratePerHour;
+        
+        AppBucket(Bucket bucket, int ratePerMinute, int ratePerHour) {
+            this.bucket = bucket;
+            this.ratePerMinute = ratePerMinute;
+            this.ratePerHour = ratePerHour;
+        }
+    }
+    
+    private final RateLimitConfiguration configuration;
+    private final ProxyManager<String> proxyManager;
+    
+    private final Cache<String, AppBucket> buckets;
+    
+    public RateLimitService(RateLimitConfiguration configuration, JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.proxyManager = configuration.getMode() == RateLimitConfiguration.Mode.LOCAL
+                ? null
+                : new JdbcProxyManager(jdbcTemplate);
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(configuration.getMaxBuckets())
+                .expireAfterAccess(Duration.ofMinutes(configuration.getBucketIdleMinutes()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, buckets, "rateLimitBuckets");
+    }
     
     public boolean allowRequest(RegisteredApp app) {
-        String appId = app.getId();
-        
-        // Check minute rate limit
-        Bucket minuteBucket = minuteBuckets.computeIfAbsent(appId, k -> createMinuteBucket(app));
-        if (!minuteBucket.tryConsume(1)) {
-            return false;
+        try {
+            AppBucket appBucket = buckets.get(app.getId(), k -> new AppBucket(createBucket(app),
+                    app.getRateLimitPerMinute(), app.getRateLimitPerHour()));
+            if (appBucket.ratePerMinute != app.getRateLimitPerMinute() || appBucket.ratePerHour != app.getRateLimitPerHour()) {
+                reconfigure(appBucket, app);
+            }
+            return appBucket.bucket.tryConsume(1);
+        } catch (RuntimeException e) {
+            // an unavailable bucket store must not take the API down with it
+            log.error("Rate limit check failed for app {}, allowing request", app.getId(), e);
+            return true;
         }
-        
-        // Check hour rate limit
-        Bucket hourBucket = hourBuckets.computeIfAbsent(appId, k -> createHourBucket(app));
-        if (!hourBucket.tryConsume(1)) {
-            return false;
+    }
+    
+    private void reconfigure(AppBucket appBucket, RegisteredApp app) {
+        synchronized (appBucket) {
+            if (appBucket.ratePerMinute == app.getRateLimitPerMinute() && appBucket.ratePerHour == app.getRateLimitPerHour()) {
+                return;
+            }
+            // ADDITIVE keeps consumed tokens consumed: a raised limit adds the difference, a lowered one caps
+            appBucket.bucket.replaceConfiguration(bucketConfiguration(app), TokensInheritanceStrategy.ADDITIVE);
+            appBucket.ratePerMinute = app.getRateLimitPerMinute();
+            appBucket.ratePerHour = app.getRateLimitPerHour();
+            log.info("Rate limits of app {} changed to {}/min, {}/hour", app.getId(),
+                    app.getRateLimitPerMinute(), app.getRateLimitPerHour());
         }
-        
-        return true;
     }
     
-    private Bucket createMinuteBucket(RegisteredApp app) {
-        Bandwidth limit = Bandwidth.classic(
-            app.getRateLimitPerMinute(),
-            Refill.intervally(app.getRateLimitPerMinute(), Duration.ofMinutes(1))
-        );
-        return Bucket.builder()
-            .addLimit(limit)
+    private BucketConfiguration bucketConfiguration(RegisteredApp app) {
+        // bandwidth ids let replaceConfiguration carry token state over to the matching new bandwidth
+        return BucketConfiguration.builder()
+            .addLimit(Bandwidth.classic(
+                app.getRateLimitPerMinute(),
+                Refill.intervally(app.getRateLimitPerMinute(), Duration.ofMinutes(1))).withId("minute"))
+            .addLimit(Bandwidth.classic(
+                app.getRateLimitPerHour(),
+                Refill.intervally(app.getRateLimitPerHour(), Duration.ofHours(1))).withId("hour"))
             .build();
     }
     
-    private Bucket createHourBucket(RegisteredApp app) {
-        Bandwidth limit = Bandwidth.classic(
-            app.getRateLimitPerHour(),
-            Refill.intervally(app.getRateLimitPerHour(), Duration.ofHours(1))
-        );
-        return Bucket.builder()
-            .addLimit(limit)
-            .build();
+    private Bucket createBucket(RegisteredApp app) {
+        BucketConfiguration bucketConfiguration = bucketConfiguration(app);
+        if (configuration.getMode() == RateLimitConfiguration.Mode.LOCAL) {
+            var builder = Bucket.builder();
+            for (Bandwidth bandwidth : bucketConfiguration.getBandwidths()) {
+                builder.addLimit(bandwidth);
+            }
+            return builder.build();
+        }
+        
+        RemoteBucketBuilder<String> builder = proxyManager.builder();
+        if (configuration.getMode() == RateLimitConfiguration.Mode.HYBRID) {
+            builder = builder.withOptimization(Optimizations.delaying(new DelayParameters(
+                configuration.getHybridMaxUnsynchronizedTokens(),
+                Duration.ofMillis(configuration.getHybridMaxUnsynchronizedMs()))));
+        }
+        BucketProxy bucket = builder.build(app.getId(), () -> bucketConfiguration);
+        // the supplier only applies when no state is stored yet, stored state keeps the limits it was created with
+        proxyManager.getProxyConfiguration(app.getId())
+            .filter(stored -> !stored.equalsByContent(bucketConfiguration))
+            .ifPresent(stored -> {
+                bucket.replaceConfiguration(bucketConfiguration, TokensInheritanceStrategy.ADDITIVE);
+                log.info("Stored rate limits of app {} changed to {}/min, {}/hour", app.getId(),
+                        app.getRateLimitPerMinute(), app.getRateLimitPerHour());
+            });
+        return bucket;
     }
     
     public void resetBuckets(String appId) {
-        minuteBuckets.remove(appId);
-        hourBuckets.remove(appId);
+        buckets.invalidate(appId);
+        if (proxyManager != null) {
+            proxyManager.removeProxy(appId);
+        }
+    }
+    
+    public long bucketCount() {
+        buckets.cleanUp();
+        return buckets.estimatedSize();
     }
 }
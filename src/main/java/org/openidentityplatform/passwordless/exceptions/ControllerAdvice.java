@@ -2,6 +2,8 @@ package org.openidentityplatform.passwordless.exceptions;
 
 import lombok.extern.log4j.Log4j2;
 import org.openidentityplatform.passwordless.otp.services.BadRequestException;
+import org.openidentityplatform.passwordless.otp.services.OtpDeliveryQueueFull;
+import org.openidentityplatform.passwordless.otp.services.OtpSendLimitExceeded;
 import org.openidentityplatform.passwordless.otp.services.SendOtpException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -21,11 +23,21 @@ public class ControllerAdvice {
         return new ResponseEntity<>(Collections.singletonMap(ERROR_PROPERTY, e.getMessage()), HttpStatus.NOT_FOUND);
     }
 
+    @ExceptionHandler(OtpDeliveryQueueFull.class)
+    public ResponseEntity<Map<String, String>> handleOtpDeliveryQueueFull(OtpDeliveryQueueFull e) {
+        return new ResponseEntity<>(Collections.singletonMap(ERROR_PROPERTY, e.getMessage()), HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     @ExceptionHandler(SendOtpException.class)
     public ResponseEntity<Map<String, String>> handleSendOtpException(SendOtpException e) {
         return new ResponseEntity<>(Collections.singletonMap(ERROR_PROPERTY, e.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
+    @ExceptionHandler(OtpSendLimitExceeded.class)
+    public ResponseEntity<Map<String, String>> handleOtpSendLimitExceeded(OtpSendLimitExceeded e) {
+        return new ResponseEntity<>(Collections.singletonMap(ERROR_PROPERTY, e.getMessage()), HttpStatus.TOO_MANY_REQUESTS);
+    }
+
     @ExceptionHandler(BadRequestException.class)
     public ResponseEntity<Map<String, String>> handleSendOtpException(BadRequestException e) {
         return new ResponseEntity<>(Collections.singletonMap(ERROR_PROPERTY, e.getMessage()), HttpStatus.BAD_REQUEST);
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.housekeeping.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of the scheduled purge of expired rows
+ */
+@Configuration
+@ConfigurationProperties(prefix = "housekeeping")
+@Getter
+@Setter
+public class HousekeepingConfiguration {
+
+    private boolean enabled = true;
+
+    private long initialDelayMs = 60_000;
+
+    private long intervalMs = 300_000;
+
+    /**
+     * Tables purged, from sent_otp, magic_links, authorization_codes, user_sessions and oauth_tokens
+     */
+    private List<String> tables = new ArrayList<>(List.of(
+            "sent_otp", "magic_links", "authorization_codes", "user_sessions", "oauth_tokens"));
+
+    /**
+     * Rows removed by one DELETE statement
+     */
+    private int chunkSize = 5000;
+
+    /**
+     * Pause between two chunks of the same table, letting other transactions take the locks
+     */
+    private long chunkPauseMs = 100;
+
+    /**
+     * How long the leader lock is held at most; a purge stops starting new chunks before the lock expires
+     */
+    private long lockAtMostMs = 600_000;
+}
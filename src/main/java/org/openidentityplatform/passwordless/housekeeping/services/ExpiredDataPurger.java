@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.housekeeping.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.openidentityplatform.passwordless.housekeeping.configuration.HousekeepingConfiguration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Deletes expired OTPs, magic links, authorization codes, sessions and tokens on one node of the cluster at a time.
+ * Each table is purged by {@code DELETE ... LIMIT chunkSize} statements on its indexed expiry column, pausing between
+ * chunks, so no statement holds row locks on a hot table for long.
+ */
+@Component
+@Slf4j
+public class ExpiredDataPurger {
+
+    static final String LOCK_NAME = "expired-data-purge";
+
+    /**
+     * Expiry column of each table; sent_otp stores epoch millis, the others timestamps
+     */
+    private static final Map<String, String> EXPIRY_COLUMNS = Map.of(
+            "sent_otp", "expire_time",
+            "magic_links", "expires_at",
+            "authorization_codes", "expires_at",
+            "user_sessions", "expires_at",
+            "oauth_tokens", "expires_at");
+
+    private static final String EPOCH_MILLIS_TABLE = "sent_otp";
+
+    private final HousekeepingConfiguration configuration;
+    private final JdbcTemplate jdbcTemplate;
+    private final LeaderLockService leaderLockService;
+    private final MeterRegistry meterRegistry;
+
+    public ExpiredDataPurger(HousekeepingConfiguration configuration, JdbcTemplate jdbcTemplate,
+                             LeaderLockService leaderLockService, MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.jdbcTemplate = jdbcTemplate;
+        this.leaderLockService = leaderLockService;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Scheduled(initialDelayString = "${housekeeping.initialDelayMs:60000}", fixedDelayString = "${housekeeping.intervalMs:300000}")
+    public void purge() {
+        if (!configuration.isEnabled()) {
+            return;
+        }
+        try {
+            if (!leaderLockService.tryAcquire(LOCK_NAME, Duration.ofMillis(configuration.getLockAtMostMs()))) {
+                return;
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to acquire the purge lock", e);
+            return;
+        }
+        long deadline = System.currentTimeMillis() + configuration.getLockAtMostMs() * 4 / 5;
+        try {
+            for (String table : configuration.getTables()) {
+                purgeTable(table, Instant.now(), deadline);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                leaderLockService.release(LOCK_NAME);
+            } catch (RuntimeException e) {
+                log.warn("Failed to release the purge lock, it expires on its own", e);
+            }
+        }
+    }
+
+    /**
+     * Deletes rows of the table expired before {@code now}, chunk by chunk, until none are left or {@code deadline}
+     * @return rows deleted
+     */
+    long purgeTable(String table, Instant now, long deadline) throws InterruptedException {
+        String column = EXPIRY_COLUMNS.get(table);
+        if (column == null) {
+            log.warn("Unknown housekeeping table {}", table);
+            return 0;
+        }
+        Object cutoff = EPOCH_MILLIS_TABLE.equals(table) ? now.toEpochMilli() : Timestamp.from(now);
+        String sql = "DELETE FROM " + table + " WHERE " + column + " < ? LIMIT " + configuration.getChunkSize();
+        Counter purged = Counter.builder("housekeeping.purged.rows").tag("table", table).register(meterRegistry);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        long total = 0;
+        String outcome = "success";
+        try {
+            int deleted;
+            do {
+                deleted = jdbcTemplate.update(sql, cutoff);
+                total += deleted;
+                purged.increment(deleted);
+                if (deleted == configuration.getChunkSize() && configuration.getChunkPauseMs() > 0) {
+                    Thread.sleep(configuration.getChunkPauseMs());
+                }
+            } while (deleted == configuration.getChunkSize() && System.currentTimeMillis() < deadline);
+        } catch (RuntimeException e) {
+            outcome = "failure";
+            log.error("Failed to purge expired rows of {}", table, e);
+        } finally {
+            sample.stop(Timer.builder("housekeeping.purge").tag("table", table).tag("outcome", outcome).register(meterRegistry));
+        }
+        if (total > 0) {
+            log.info("Purged {} expired rows of {}", total, table);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.housekeeping.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Leader election over the leader_locks table: a lock row is taken over by a conditional UPDATE once it has expired,
+ * or created by an INSERT that only one node can win. A node that dies keeps the lock until {@code lockAtMost} passes.
+ */
+@Component
+@Slf4j
+public class LeaderLockService {
+
+    private static final String TAKE_OVER = "UPDATE leader_locks SET locked_until = ?, locked_by = ? "
+            + "WHERE name = ? AND (locked_until <= ? OR locked_by = ?)";
+
+    private static final String CREATE = "INSERT INTO leader_locks (name, locked_until, locked_by) VALUES (?, ?, ?)";
+
+    private static final String RELEASE = "UPDATE leader_locks SET locked_until = ? WHERE name = ? AND locked_by = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String owner;
+
+    public LeaderLockService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+    }
+
+    /**
+     * @return true if this node holds the lock for the next {@code lockAtMost}
+     */
+    public boolean tryAcquire(String name, Duration lockAtMost) {
+        long now = System.currentTimeMillis();
+        long lockedUntil = now + lockAtMost.toMillis();
+        if (jdbcTemplate.update(TAKE_OVER, lockedUntil, owner, name, now, owner) == 1) {
+            return true;
+        }
+        try {
+            return jdbcTemplate.update(CREATE, name, lockedUntil, owner) == 1;
+        } catch (DuplicateKeyException e) {
+            log.debug("Lock {} is held by another node", name);
+            return false;
+        }
+    }
+
+    public void release(String name) {
+        jdbcTemplate.update(RELEASE, System.currentTimeMillis(), name, owner);
+    }
+}
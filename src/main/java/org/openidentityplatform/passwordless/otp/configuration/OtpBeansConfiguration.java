@@ -16,15 +16,24 @@
 
 package org.openidentityplatform.passwordless.otp.configuration;
 
+import org.openidentityplatform.passwordless.otp.repositories.SentOtpInMemoryStore;
+import org.openidentityplatform.passwordless.otp.repositories.SentOtpJpaStore;
+import org.openidentityplatform.passwordless.otp.repositories.SentOtpRedisStore;
+import org.openidentityplatform.passwordless.otp.repositories.SentOtpRepository;
+import org.openidentityplatform.passwordless.otp.repositories.SentOtpStore;
 import org.openidentityplatform.passwordless.otp.services.DummyOtpSender;
 import org.openidentityplatform.passwordless.otp.services.EmailOtpSender;
 import org.openidentityplatform.passwordless.otp.services.OtpGenerator;
+import org.openidentityplatform.passwordless.otp.services.OtpHasher;
 import org.openidentityplatform.passwordless.otp.services.OtpSender;
+import org.openidentityplatform.passwordless.otp.services.PooledSmtpOtpSender;
 import org.openidentityplatform.passwordless.otp.services.TwilioOtpSender;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.mail.MailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
 
 @Configuration
 public class OtpBeansConfiguration {
@@ -40,12 +49,33 @@ public class OtpBeansConfiguration {
     }
 
     @Bean
-    public OtpSender emailOtpSender(MailSender mailSender) {
+    public OtpSender emailOtpSender(MailSender mailSender, OtpEmailConfiguration emailConfiguration) {
+        if (emailConfiguration.isPooled() && mailSender instanceof JavaMailSenderImpl javaMailSender) {
+            return new PooledSmtpOtpSender(javaMailSender, emailConfiguration);
+        }
         return new EmailOtpSender(mailSender);
     }
 
     @Bean
-    public OtpGenerator otpGenerator() {
-        return new OtpGenerator();
+    @ConditionalOnProperty(value = "otp.store.type", havingValue = "jpa", matchIfMissing = true)
+    public SentOtpStore sentOtpJpaStore(SentOtpRepository sentOtpRepository) {
+        return new SentOtpJpaStore(sentOtpRepository);
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "otp.store.type", havingValue = "memory")
+    public SentOtpStore sentOtpInMemoryStore(OtpStoreConfiguration storeConfiguration) {
+        return new SentOtpInMemoryStore(storeConfiguration.getMaxSize());
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "otp.store.type", havingValue = "redis")
+    public SentOtpStore sentOtpRedisStore(StringRedisTemplate redisTemplate, OtpStoreConfiguration storeConfiguration) {
+        return new SentOtpRedisStore(redisTemplate, storeConfiguration.getKeyPrefix());
+    }
+
+    @Bean
+    public OtpGenerator otpGenerator(OtpHasher otpHasher) {
+        return new OtpGenerator(otpHasher);
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of bulk OTP sends
+ */
+@Configuration
+@ConfigurationProperties(prefix = "otp.bulk")
+@Getter
+@Setter
+public class OtpBulkSendConfiguration {
+
+    private int maxDestinations = 10_000;
+
+    /**
+     * Destinations generated, inserted and reported together
+     */
+    private int chunkSize = 500;
+
+    /**
+     * Bulk deliveries handed to the senders per second, shared by all running batches
+     */
+    private int deliveriesPerSecond = 100;
+
+    /**
+     * How long a bulk delivery waits for room in a full sender queue before the destination is reported FAILED
+     */
+    private long queueFullWaitMs = 5000;
+
+    /**
+     * Added to the time a batch needs at {@code deliveriesPerSecond} to get the async timeout of its streamed response
+     */
+    private long responseTimeoutMarginMs = 60_000;
+}
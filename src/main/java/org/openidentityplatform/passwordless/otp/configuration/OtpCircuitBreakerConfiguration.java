@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Circuit breaker applied to every OTP sender; an open breaker makes delivery fail over to the next sender of the chain
+ */
+@Configuration
+@ConfigurationProperties(prefix = "otp.circuit-breaker")
+@Getter
+@Setter
+public class OtpCircuitBreakerConfiguration {
+
+    /**
+     * Percentage of failed calls in the sliding window that opens the breaker
+     */
+    private float failureRateThreshold = 50;
+
+    /**
+     * Percentage of calls slower than {@code slowCallDurationMs} that opens the breaker
+     */
+    private float slowCallRateThreshold = 50;
+
+    private long slowCallDurationMs = 3000;
+
+    /**
+     * Number of most recent calls the rates are computed over
+     */
+    private int slidingWindowSize = 20;
+
+    private int minimumNumberOfCalls = 10;
+
+    /**
+     * How long an open breaker rejects calls before letting trial calls through
+     */
+    private long waitInOpenStateMs = 30_000;
+
+    private int permittedCallsInHalfOpenState = 3;
+}
@@ -16,6 +16,12 @@ public class OtpConfiguration {
     private Integer attempts;
 
     private Integer resendAllowedAfterMinutes;
+
+    /**
+     * Destinations tracked for the resend window; beyond it the least recently sent are forgotten
+     */
+    private long resendIndexMaxSize = 100_000;
+
     private List<OtpSettings> settings;
     public OtpSettings getSetting(String settingId) {
         return settings.stream()
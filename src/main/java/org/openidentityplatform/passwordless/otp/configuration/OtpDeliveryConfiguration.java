@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Settings of asynchronous OTP delivery; {@code providers} overrides the defaults per sender bean name
+ */
+@Configuration
+@ConfigurationProperties(prefix = "otp.delivery")
+@Getter
+@Setter
+public class OtpDeliveryConfiguration {
+
+    @Getter
+    @Setter
+    public static class Provider {
+        /**
+         * Deliveries running concurrently against the provider
+         */
+        private int workers = 4;
+
+        /**
+         * Deliveries waiting for a worker; sends are rejected when the queue is full
+         */
+        private int queueCapacity = 1000;
+    }
+
+    private Provider defaults = new Provider();
+
+    private Map<String, Provider> providers = new HashMap<>();
+
+    /**
+     * Delivery attempts before an OTP is marked FAILED
+     */
+    private int maxAttempts = 5;
+
+    private long initialBackoffMs = 500;
+
+    private long maxBackoffMs = 30_000;
+
+    public Provider getProvider(String sender) {
+        return providers.getOrDefault(sender, defaults);
+    }
+}
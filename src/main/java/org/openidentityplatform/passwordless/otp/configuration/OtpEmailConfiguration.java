@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of the email OTP sender; SMTP host and credentials are taken from {@code spring.mail}
+ */
+@Configuration
+@ConfigurationProperties(prefix = "otp.email")
+@Getter
+@Setter
+public class OtpEmailConfiguration {
+
+    /**
+     * Keep SMTP connections open between messages instead of connecting per message
+     */
+    private boolean pooled = true;
+
+    /**
+     * Persistent SMTP connections, each served by its own thread
+     */
+    private int connections = 4;
+
+    /**
+     * How long a connection waits for more queued messages before sending a batch
+     */
+    private long batchWindowMs = 5;
+
+    private int maxBatchSize = 50;
+
+    /**
+     * Messages sent over one connection before it is replaced
+     */
+    private int maxMessagesPerConnection = 500;
+
+    /**
+     * Connections idle for longer are closed, before the server drops them
+     */
+    private long maxIdleMs = 30_000;
+
+    /**
+     * How long a send waits for its message to be accepted by the server
+     */
+    private long sendTimeoutMs = 10_000;
+
+    /**
+     * Sender address; when empty the JavaMail default is used
+     */
+    private String from;
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Keyed hashing of stored OTP codes
+ */
+@Configuration
+@ConfigurationProperties(prefix = "otp.hashing")
+@Getter
+@Setter
+public class OtpHashConfiguration {
+
+    /**
+     * HMAC-SHA256 key, the same on every node; required unless {@code otp.store.type} is memory,
+     * where an empty secret means a random key per process
+     */
+    private String secret = "";
+
+    /**
+     * Also accept OTPs stored in plain text before hashing was introduced
+     */
+    private boolean verifyLegacyPlaintext = true;
+}
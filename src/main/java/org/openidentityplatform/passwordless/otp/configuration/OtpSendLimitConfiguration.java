@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.configuration;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Limits on OTP sending per app, client IP, destination and destination prefix
+ */
+@Configuration
+@ConfigurationProperties(prefix = "otp.send-limit")
+@Getter
+@Setter
+public class OtpSendLimitConfiguration {
+
+    @Getter
+    @Setter
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Tier {
+        /**
+         * Sends allowed per period; 0 disables the tier
+         */
+        private long capacity;
+
+        private Duration period;
+    }
+
+    private Tier app = new Tier(1000, Duration.ofMinutes(1));
+
+    private Tier ip = new Tier(100, Duration.ofMinutes(1));
+
+    private Tier destination = new Tier(5, Duration.ofHours(1));
+
+    /**
+     * Destinations sharing a phone prefix (country and operator code) or an email domain
+     */
+    private Tier prefix = new Tier(100, Duration.ofHours(1));
+
+    /**
+     * Bulk sends per app, or per client IP without an app; bulk sends use it instead of the app and IP tiers
+     */
+    private Tier bulk = new Tier(10_000, Duration.ofHours(1));
+
+    /**
+     * Leading digits of a phone number that form its prefix
+     */
+    private int prefixLength = 5;
+
+    /**
+     * Hard cap on tracked keys per tier; the least recently used are evicted beyond it
+     */
+    private long maxKeys = 100_000;
+}
@@ -23,6 +23,11 @@ import lombok.ToString;
 import org.openidentityplatform.passwordless.otp.services.OtpSender;
 import org.springframework.context.ApplicationContext;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 @Data
 @ToString
 @NoArgsConstructor
@@ -49,8 +54,37 @@ public class OtpSettings {
 
     private String sender;
 
+    /**
+     * Senders tried in order when {@code sender} fails or its circuit breaker is open
+     */
+    private List<String> fallbackSenders = new ArrayList<>();
+
     public OtpSender getOtpSender(ApplicationContext applicationContext) {
         return applicationContext.getBean(sender, OtpSender.class);
     }
 
+    /**
+     * The primary sender followed by the fallback senders, in failover order
+     */
+    public Map<String, OtpSender> getOtpSenders(ApplicationContext applicationContext) {
+        Map<String, OtpSender> senders = new LinkedHashMap<>();
+        senders.put(sender, getOtpSender(applicationContext));
+        for (String fallbackSender : fallbackSenders) {
+            senders.putIfAbsent(fallbackSender, applicationContext.getBean(fallbackSender, OtpSender.class));
+        }
+        return senders;
+    }
+
+    /**
+     * @throws IllegalStateException if a fallback sender is not an OtpSender bean of the context
+     */
+    public void validateFallbackSenders(ApplicationContext applicationContext) {
+        for (String fallbackSender : fallbackSenders) {
+            if (!applicationContext.containsBean(fallbackSender)
+                    || !applicationContext.isTypeMatch(fallbackSender, OtpSender.class)) {
+                throw new IllegalStateException("fallback sender " + fallbackSender + " of OTP setting " + id + " not found");
+            }
+        }
+    }
+
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Storage of sent OTPs
+ */
+@Configuration
+@ConfigurationProperties(prefix = "otp.store")
+@Getter
+@Setter
+public class OtpStoreConfiguration {
+
+    public enum Type {
+        /**
+         * sent_otp table
+         */
+        JPA,
+        /**
+         * Process memory, single instance only
+         */
+        MEMORY,
+        /**
+         * Redis configured with spring.data.redis, keys expire with the OTP
+         */
+        REDIS
+    }
+
+    private Type type = Type.JPA;
+
+    /**
+     * OTPs kept by the MEMORY store; beyond it the least recently used are evicted
+     */
+    private long maxSize = 1_000_000;
+
+    private String keyPrefix = "otp:";
+}
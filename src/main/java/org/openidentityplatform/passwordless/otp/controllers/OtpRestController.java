@@ -16,33 +16,122 @@
 
 package org.openidentityplatform.passwordless.otp.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.AllArgsConstructor;
+import org.openidentityplatform.passwordless.apps.models.RegisteredApp;
+import org.openidentityplatform.passwordless.apps.security.ApiKeyAuthenticationFilter;
 import org.openidentityplatform.passwordless.exceptions.NotFoundException;
+import org.openidentityplatform.passwordless.otp.models.BulkSendOtpRequest;
+import org.openidentityplatform.passwordless.otp.models.BulkSendOtpResult;
+import org.openidentityplatform.passwordless.otp.models.BulkSendOtpSummary;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryResult;
 import org.openidentityplatform.passwordless.otp.models.SendOtpRequest;
 import org.openidentityplatform.passwordless.otp.models.SendOtpResult;
 import org.openidentityplatform.passwordless.otp.models.VerifyOtpRequest;
 import org.openidentityplatform.passwordless.otp.models.VerifyOtpResult;
+import org.openidentityplatform.passwordless.otp.services.BadRequestException;
 import org.openidentityplatform.passwordless.otp.services.FrequentSendingForbidden;
+import org.openidentityplatform.passwordless.otp.services.OtpBulkSendService;
+import org.openidentityplatform.passwordless.otp.services.OtpSendLimitExceeded;
 import org.openidentityplatform.passwordless.otp.services.OtpService;
 import org.openidentityplatform.passwordless.otp.services.OtpVerifyAttemptsExceeded;
 import org.openidentityplatform.passwordless.otp.services.SendOtpException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 @RestController
 @AllArgsConstructor
 @RequestMapping("/otp/v1")
 public class OtpRestController {
 
+    public static final String BATCH_ID_HEADER = "X-Batch-Id";
+
     private final OtpService otpService;
 
+    private final OtpBulkSendService otpBulkSendService;
+
+    private final ObjectMapper objectMapper;
+
     @PostMapping("/send")
-    public SendOtpResult send(@RequestBody @Valid SendOtpRequest sendOTPRequest)
-            throws NotFoundException, SendOtpException, FrequentSendingForbidden {
-        return otpService.send(sendOTPRequest.getSender(), sendOTPRequest.getDestination());
+    public SendOtpResult send(@RequestBody @Valid SendOtpRequest sendOTPRequest, HttpServletRequest request)
+            throws NotFoundException, SendOtpException, FrequentSendingForbidden, OtpSendLimitExceeded {
+        RegisteredApp app = (RegisteredApp) request.getAttribute(ApiKeyAuthenticationFilter.REGISTERED_APP_ATTRIBUTE);
+        String clientIp = (String) request.getAttribute(ApiKeyAuthenticationFilter.CLIENT_IP_ATTRIBUTE);
+        return otpService.send(sendOTPRequest.getSender(), sendOTPRequest.getDestination(),
+                app != null ? app.getId() : null, clientIp != null ? clientIp : request.getRemoteAddr());
+    }
+
+    /**
+     * Sends OTPs to all destinations of the request and streams one NDJSON line per destination, in request order,
+     * as each chunk is queued for delivery. The batch id is returned in the {@value #BATCH_ID_HEADER} header.
+     */
+    @PostMapping("/bulk/send")
+    public ResponseEntity<StreamingResponseBody> bulkSend(@RequestBody @Valid BulkSendOtpRequest bulkSendOtpRequest,
+                                                          HttpServletRequest request)
+            throws NotFoundException, BadRequestException {
+        RegisteredApp app = (RegisteredApp) request.getAttribute(ApiKeyAuthenticationFilter.REGISTERED_APP_ATTRIBUTE);
+        String clientIp = (String) request.getAttribute(ApiKeyAuthenticationFilter.CLIENT_IP_ATTRIBUTE);
+        OtpBulkSendService.Batch batch = otpBulkSendService.prepare(bulkSendOtpRequest.getSender(),
+                bulkSendOtpRequest.getDestinations(), app != null ? app.getId() : null,
+                clientIp != null ? clientIp : request.getRemoteAddr());
+        // the default async timeout would close the stream long before a large batch is sent
+        AsyncWebRequest asyncWebRequest = WebAsyncUtils.getAsyncManager(request).getAsyncWebRequest();
+        if (asyncWebRequest != null) {
+            asyncWebRequest.setTimeout(otpBulkSendService.responseTimeoutMs(batch));
+        }
+        ObjectWriter writer = objectMapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("\n");
+        StreamingResponseBody body = outputStream -> {
+            JsonGenerator jsonGenerator = writer.createGenerator(outputStream);
+            try {
+                otpBulkSendService.send(batch, results -> {
+                    try {
+                        for (BulkSendOtpResult result : results) {
+                            writer.writeValue(jsonGenerator, result);
+                        }
+                        jsonGenerator.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            jsonGenerator.writeRaw('\n');
+            jsonGenerator.flush();
+        };
+        return ResponseEntity.ok()
+                .header(BATCH_ID_HEADER, batch.getId().toString())
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+
+    @GetMapping("/bulk/{batchId}")
+    public BulkSendOtpSummary getBulkSummary(@PathVariable String batchId) throws BadRequestException {
+        return otpBulkSendService.getSummary(batchId);
+    }
+
+    @GetMapping("/delivery/{sessionId}")
+    public OtpDeliveryResult getDeliveryStatus(@PathVariable String sessionId) throws NotFoundException {
+        return otpService.getDeliveryStatus(sessionId);
     }
 
     @PostMapping("/verify")
@@ -0,0 +1,17 @@
+package org.openidentityplatform.passwordless.otp.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class OtpDeliveryResult {
+    private String sessionId;
+    private OtpDeliveryStatus status;
+    private Integer attempts;
+    private String error;
+}
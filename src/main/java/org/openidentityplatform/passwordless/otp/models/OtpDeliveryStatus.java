@@ -0,0 +1,17 @@
+package org.openidentityplatform.passwordless.otp.models;
+
+public enum OtpDeliveryStatus {
+    /**
+     * Waiting in the sender's delivery queue
+     */
+    QUEUED,
+    /**
+     * A delivery attempt failed, another one is scheduled
+     */
+    RETRYING,
+    DELIVERED,
+    /**
+     * All delivery attempts failed (dead letter)
+     */
+    FAILED
+}
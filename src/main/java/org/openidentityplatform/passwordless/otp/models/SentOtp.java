@@ -37,8 +37,10 @@ import java.util.UUID;
 @Entity
 @Table(name = "sent_otp", indexes = {
     @Index(name = "idx_otp_destination", columnList = "destination"),
+    @Index(name = "idx_otp_destination_hash", columnList = "destination, otp_hash"),
     @Index(name = "idx_otp_user", columnList = "user_id"),
-    @Index(name = "idx_otp_expire", columnList = "expireTime")
+    @Index(name = "idx_otp_expire", columnList = "expireTime"),
+    @Index(name = "idx_otp_batch", columnList = "batch_id")
 })
 public class SentOtp {
 
@@ -46,8 +48,26 @@ public class SentOtp {
     @Column(name = "session_id")
     private UUID sessionId;
 
+    /**
+     * Plain text code, kept in memory to build the message and never stored
+     */
+    @Transient
+    @ToString.Exclude
     private String otp;
 
+    /**
+     * Keyed hash of the code, see {@code OtpHasher}
+     */
+    @Column(name = "otp_hash", length = 64)
+    private String otpHash;
+
+    /**
+     * Plain text code of OTPs stored before hashing; null for new OTPs
+     */
+    @Column(name = "otp")
+    @ToString.Exclude
+    private String legacyOtp;
+
     private long expireTime;
 
     private String destination;
@@ -55,6 +75,22 @@ public class SentOtp {
     private long lastSentAt;
 
     private Integer attempts;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "delivery_status", length = 16)
+    private OtpDeliveryStatus deliveryStatus;
+
+    @Column(name = "delivery_attempts")
+    private Integer deliveryAttempts;
+
+    @Column(name = "delivery_error", length = 500)
+    private String deliveryError;
+
+    /**
+     * Bulk send batch the OTP was created in, null for single sends
+     */
+    @Column(name = "batch_id")
+    private UUID batchId;
     
     /**
      * Link to User entity for centralized authentication
@@ -64,4 +100,15 @@ public class SentOtp {
     @JoinColumn(name = "user_id")
     private User user;
 
+    /**
+     * @param otpHash keyed hash of the presented code
+     * @param legacyOtp presented code, matched against OTPs stored in plain text; null to skip them
+     */
+    public boolean matches(String otpHash, String legacyOtp) {
+        if (this.otpHash != null) {
+            return this.otpHash.equals(otpHash);
+        }
+        return legacyOtp != null && legacyOtp.equals(this.legacyOtp);
+    }
+
 }
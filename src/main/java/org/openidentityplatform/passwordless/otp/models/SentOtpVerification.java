@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Outcome of checking a code against a stored OTP, decided in one atomic step of the store
+ */
+@Data
+@AllArgsConstructor
+public class SentOtpVerification {
+
+    public enum Status {
+        /**
+         * The code matched, the OTP is consumed
+         */
+        VALID,
+        /**
+         * The code did not match, one attempt is taken off
+         */
+        INVALID,
+        /**
+         * No attempts were left, nothing changed
+         */
+        ATTEMPTS_EXCEEDED,
+        /**
+         * No live OTP for the session
+         */
+        NOT_FOUND
+    }
+
+    private Status status;
+
+    /**
+     * Attempts left after an INVALID code
+     */
+    private int remainingAttempts;
+
+    public static SentOtpVerification of(Status status) {
+        return new SentOtpVerification(status, 0);
+    }
+}
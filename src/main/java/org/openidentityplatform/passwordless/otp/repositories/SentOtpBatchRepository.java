@@ -0,0 +1,30 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.repositories;
+
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+
+import java.util.List;
+
+public interface SentOtpBatchRepository {
+
+    /**
+     * Inserts new OTPs in JDBC batches of {@code hibernate.jdbc.batch_size} rows,
+     * skipping the per-row existence check {@code save} does for entities with an assigned id
+     */
+    void insertAll(List<SentOtp> sentOtps);
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.repositories;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+class SentOtpBatchRepositoryImpl implements SentOtpBatchRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    public void insertAll(List<SentOtp> sentOtps) {
+        for (SentOtp sentOtp : sentOtps) {
+            entityManager.persist(sentOtp);
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.repositories;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.openidentityplatform.passwordless.otp.models.SentOtpVerification;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores OTPs in process memory, for single-instance deployments. Each OTP is evicted at its expire time,
+ * and both lookups are a single hash probe. Stored and returned OTPs are copies, as with a database.
+ */
+public class SentOtpInMemoryStore implements SentOtpStore {
+
+    private final Cache<UUID, SentOtp> sentOtps;
+
+    /**
+     * Destination and code hash to the session most recently sent them
+     */
+    private final Map<String, UUID> codeIndex = new ConcurrentHashMap<>();
+
+    public SentOtpInMemoryStore(long maxSize) {
+        this.sentOtps = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<UUID, SentOtp>() {
+                    @Override
+                    public long expireAfterCreate(UUID sessionId, SentOtp sentOtp, long currentTime) {
+                        return untilExpiry(sentOtp);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(UUID sessionId, SentOtp sentOtp, long currentTime, long currentDuration) {
+                        return untilExpiry(sentOtp);
+                    }
+
+                    @Override
+                    public long expireAfterRead(UUID sessionId, SentOtp sentOtp, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .scheduler(Scheduler.systemScheduler())
+                .removalListener((UUID sessionId, SentOtp sentOtp, RemovalCause cause) -> {
+                    if (sentOtp != null && cause != RemovalCause.REPLACED) {
+                        codeIndex.remove(codeKey(sentOtp.getDestination(), sentOtp.getOtpHash()), sessionId);
+                    }
+                })
+                .build();
+    }
+
+    private static long untilExpiry(SentOtp sentOtp) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(sentOtp.getExpireTime() - System.currentTimeMillis(), 0));
+    }
+
+    private static String codeKey(String destination, String otpHash) {
+        return destination + '\0' + otpHash;
+    }
+
+    @Override
+    public void save(SentOtp sentOtp) {
+        sentOtps.put(sentOtp.getSessionId(), copy(sentOtp));
+        codeIndex.put(codeKey(sentOtp.getDestination(), sentOtp.getOtpHash()), sentOtp.getSessionId());
+    }
+
+    @Override
+    public void saveAll(List<SentOtp> sentOtps) {
+        sentOtps.forEach(this::save);
+    }
+
+    @Override
+    public Optional<SentOtp> findById(UUID sessionId) {
+        return Optional.ofNullable(sentOtps.getIfPresent(sessionId)).map(SentOtpInMemoryStore::copy);
+    }
+
+    @Override
+    public List<SentOtp> findByDestinationAndOtpHash(String destination, String otpHash) {
+        UUID sessionId = codeIndex.get(codeKey(destination, otpHash));
+        if (sessionId == null) {
+            return List.of();
+        }
+        return findById(sessionId).map(List::of).orElse(List.of());
+    }
+
+    @Override
+    public void delete(SentOtp sentOtp) {
+        sentOtps.invalidate(sentOtp.getSessionId());
+    }
+
+    /**
+     * Decided inside the map's compute, which is atomic per session
+     */
+    @Override
+    public SentOtpVerification verify(UUID sessionId, String otpHash, String legacyOtp, long now) {
+        SentOtpVerification[] verification = {SentOtpVerification.of(SentOtpVerification.Status.NOT_FOUND)};
+        sentOtps.asMap().computeIfPresent(sessionId, (id, stored) -> {
+            if (stored.getExpireTime() <= now) {
+                return stored;
+            }
+            int attempts = stored.getAttempts() != null ? stored.getAttempts() : 0;
+            if (attempts <= 0) {
+                verification[0] = SentOtpVerification.of(SentOtpVerification.Status.ATTEMPTS_EXCEEDED);
+                return stored;
+            }
+            if (stored.matches(otpHash, legacyOtp)) {
+                verification[0] = SentOtpVerification.of(SentOtpVerification.Status.VALID);
+                return null;
+            }
+            SentOtp updated = copy(stored);
+            updated.setAttempts(attempts - 1);
+            verification[0] = new SentOtpVerification(SentOtpVerification.Status.INVALID, attempts - 1);
+            return updated;
+        });
+        return verification[0];
+    }
+
+    @Override
+    public boolean consume(String destination, String otpHash, String legacyOtp, long now) {
+        UUID sessionId = codeIndex.get(codeKey(destination, otpHash));
+        return sessionId != null
+                && verify(sessionId, otpHash, null, now).getStatus() == SentOtpVerification.Status.VALID;
+    }
+
+    @Override
+    public void updateDeliveryStatus(UUID sessionId, OtpDeliveryStatus status, int attempts, String error) {
+        sentOtps.asMap().computeIfPresent(sessionId, (id, stored) -> {
+            SentOtp updated = copy(stored);
+            updated.setDeliveryStatus(status);
+            updated.setDeliveryAttempts(attempts);
+            updated.setDeliveryError(error);
+            return updated;
+        });
+    }
+
+    @Override
+    public Map<OtpDeliveryStatus, Long> countByBatchId(UUID batchId) {
+        Map<OtpDeliveryStatus, Long> counts = new EnumMap<>(OtpDeliveryStatus.class);
+        for (SentOtp sentOtp : sentOtps.asMap().values()) {
+            if (batchId.equals(sentOtp.getBatchId()) && sentOtp.getDeliveryStatus() != null) {
+                counts.merge(sentOtp.getDeliveryStatus(), 1L, Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    private static SentOtp copy(SentOtp sentOtp) {
+        SentOtp copy = new SentOtp();
+        copy.setSessionId(sentOtp.getSessionId());
+        copy.setOtpHash(sentOtp.getOtpHash());
+        copy.setLegacyOtp(sentOtp.getLegacyOtp());
+        copy.setExpireTime(sentOtp.getExpireTime());
+        copy.setDestination(sentOtp.getDestination());
+        copy.setLastSentAt(sentOtp.getLastSentAt());
+        copy.setAttempts(sentOtp.getAttempts());
+        copy.setDeliveryStatus(sentOtp.getDeliveryStatus());
+        copy.setDeliveryAttempts(sentOtp.getDeliveryAttempts());
+        copy.setDeliveryError(sentOtp.getDeliveryError());
+        copy.setBatchId(sentOtp.getBatchId());
+        return copy;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.repositories;
+
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.openidentityplatform.passwordless.otp.models.SentOtpVerification;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Stores OTPs in the sent_otp table. Expired rows are not removed by the database
+ */
+public class SentOtpJpaStore implements SentOtpStore {
+
+    private final SentOtpRepository sentOtpRepository;
+
+    public SentOtpJpaStore(SentOtpRepository sentOtpRepository) {
+        this.sentOtpRepository = sentOtpRepository;
+    }
+
+    @Override
+    public void save(SentOtp sentOtp) {
+        sentOtpRepository.save(sentOtp);
+    }
+
+    @Override
+    public void saveAll(List<SentOtp> sentOtps) {
+        sentOtpRepository.insertAll(sentOtps);
+    }
+
+    @Override
+    public Optional<SentOtp> findById(UUID sessionId) {
+        return sentOtpRepository.findById(sessionId);
+    }
+
+    @Override
+    public List<SentOtp> findByDestinationAndOtpHash(String destination, String otpHash) {
+        return sentOtpRepository.findByDestinationAndOtpHashOrderByLastSentAtDesc(destination, otpHash);
+    }
+
+    @Override
+    public void delete(SentOtp sentOtp) {
+        sentOtpRepository.delete(sentOtp);
+    }
+
+    /**
+     * A matching code costs one conditional DELETE; a wrong one a conditional UPDATE and a read of the attempts left
+     */
+    @Override
+    public SentOtpVerification verify(UUID sessionId, String otpHash, String legacyOtp, long now) {
+        if (sentOtpRepository.deleteLiveBySessionIdAndOtp(sessionId, otpHash, legacyOtp, now) == 1) {
+            return SentOtpVerification.of(SentOtpVerification.Status.VALID);
+        }
+        boolean decremented = sentOtpRepository.decrementLiveAttempts(sessionId, now) == 1;
+        Optional<SentOtp> sentOtp = sentOtpRepository.findById(sessionId);
+        if (sentOtp.isEmpty() || sentOtp.get().getExpireTime() <= now) {
+            return SentOtpVerification.of(SentOtpVerification.Status.NOT_FOUND);
+        }
+        if (!decremented) {
+            return SentOtpVerification.of(SentOtpVerification.Status.ATTEMPTS_EXCEEDED);
+        }
+        return new SentOtpVerification(SentOtpVerification.Status.INVALID, sentOtp.get().getAttempts());
+    }
+
+    @Override
+    public boolean consume(String destination, String otpHash, String legacyOtp, long now) {
+        return sentOtpRepository.deleteLiveByDestinationAndOtp(destination, otpHash, legacyOtp, now) > 0;
+    }
+
+    @Override
+    public void updateDeliveryStatus(UUID sessionId, OtpDeliveryStatus status, int attempts, String error) {
+        sentOtpRepository.updateDeliveryStatus(sessionId, status, attempts, error);
+    }
+
+    @Override
+    public Map<OtpDeliveryStatus, Long> countByBatchId(UUID batchId) {
+        Map<OtpDeliveryStatus, Long> counts = new EnumMap<>(OtpDeliveryStatus.class);
+        for (Object[] row : sentOtpRepository.countByBatchIdGroupByDeliveryStatus(batchId)) {
+            counts.put((OtpDeliveryStatus) row[0], (Long) row[1]);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.repositories;
+
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.openidentityplatform.passwordless.otp.models.SentOtpVerification;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Stores OTPs in Redis hashes expiring at the OTP expire time, so expired OTPs are dropped by Redis itself.
+ * Keys, under {@code keyPrefix}:
+ * <ul>
+ *     <li>{@code session:<sessionId>} hash of the OTP fields</li>
+ *     <li>{@code code:<destination>:<otpHash>} session id most recently sent the code</li>
+ *     <li>{@code batch:<batchId>} set of the session ids of a bulk send batch</li>
+ * </ul>
+ */
+public class SentOtpRedisStore implements SentOtpStore {
+
+    private static final RedisScript<Long> UPDATE_DELIVERY_STATUS = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then "
+                    + "redis.call('HSET', KEYS[1], 'deliveryStatus', ARGV[1], 'deliveryAttempts', ARGV[2], 'deliveryError', ARGV[3]) "
+                    + "return 1 end return 0", Long.class);
+
+    private static final RedisScript<Long> DELETE = new DefaultRedisScript<>(
+            "redis.call('DEL', KEYS[1]) "
+                    + "if redis.call('GET', KEYS[2]) == ARGV[1] then redis.call('DEL', KEYS[2]) end "
+                    + "return 1", Long.class);
+
+    /**
+     * Lua test of a session hash h = HMGET(otpHash, otp) against ARGV[1] code hash and ARGV[2] plain text code,
+     * the latter for sessions stored before hashing and only when not empty
+     */
+    private static final String MATCHES = "local function matches(h) "
+            + "if h[1] and h[1] ~= '' then return h[1] == ARGV[1] end "
+            + "return ARGV[2] ~= '' and h[2] == ARGV[2] end ";
+
+    /**
+     * Returns {status, remaining attempts}: 0 not found, 1 attempts exceeded, 2 invalid, 3 valid (session deleted)
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> VERIFY = new DefaultRedisScript<>(MATCHES
+            + "local h = redis.call('HMGET', KEYS[1], 'otpHash', 'otp', 'expireTime', 'attempts') "
+            + "if not h[3] or tonumber(h[3]) <= tonumber(ARGV[3]) then return {0, 0} end "
+            + "local attempts = tonumber(h[4]) or 0 "
+            + "if attempts <= 0 then return {1, 0} end "
+            + "if matches(h) then redis.call('DEL', KEYS[1]) return {3, 0} end "
+            + "redis.call('HSET', KEYS[1], 'attempts', attempts - 1) "
+            + "return {2, attempts - 1}", List.class);
+
+    /**
+     * Deletes the session the first existing code key points to, and that code key, if the OTP matches
+     * and is live with attempts left; ARGV[4] is the session key prefix
+     */
+    private static final RedisScript<Long> CONSUME = new DefaultRedisScript<>(MATCHES
+            + "for _, codeKey in ipairs(KEYS) do "
+            + "local id = redis.call('GET', codeKey) "
+            + "if id then "
+            + "local key = ARGV[4] .. id "
+            + "local h = redis.call('HMGET', key, 'otpHash', 'otp', 'expireTime', 'attempts') "
+            + "if h[3] and tonumber(h[3]) > tonumber(ARGV[3]) and (tonumber(h[4]) or 0) > 0 and matches(h) then "
+            + "redis.call('DEL', key, codeKey) return 1 end "
+            + "end end "
+            + "return 0", Long.class);
+
+    private static final SentOtpVerification.Status[] VERIFY_STATUSES = {
+            SentOtpVerification.Status.NOT_FOUND,
+            SentOtpVerification.Status.ATTEMPTS_EXCEEDED,
+            SentOtpVerification.Status.INVALID,
+            SentOtpVerification.Status.VALID
+    };
+
+    private final StringRedisTemplate redisTemplate;
+    private final String keyPrefix;
+
+    public SentOtpRedisStore(StringRedisTemplate redisTemplate, String keyPrefix) {
+        this.redisTemplate = redisTemplate;
+        this.keyPrefix = keyPrefix;
+    }
+
+    String sessionKey(UUID sessionId) {
+        return keyPrefix + "session:" + sessionId;
+    }
+
+    /**
+     * @param code hash of the code, or the plain text code of sessions stored before hashing
+     */
+    String codeKey(String destination, String code) {
+        return keyPrefix + "code:" + destination + ":" + code;
+    }
+
+    String batchKey(UUID batchId) {
+        return keyPrefix + "batch:" + batchId;
+    }
+
+    @Override
+    public void save(SentOtp sentOtp) {
+        saveAll(List.of(sentOtp));
+    }
+
+    /**
+     * Writes all OTPs in one MULTI/EXEC transaction, each key with its expire time
+     */
+    @Override
+    public void saveAll(List<SentOtp> sentOtps) {
+        redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> redis = (RedisOperations<String, String>) operations;
+                redis.multi();
+                for (SentOtp sentOtp : sentOtps) {
+                    Instant expireAt = Instant.ofEpochMilli(sentOtp.getExpireTime());
+                    String sessionId = sentOtp.getSessionId().toString();
+                    String sessionKey = sessionKey(sentOtp.getSessionId());
+                    String codeKey = codeKey(sentOtp.getDestination(), sentOtp.getOtpHash());
+                    redis.opsForHash().putAll(sessionKey, toHash(sentOtp));
+                    redis.expireAt(sessionKey, expireAt);
+                    redis.opsForValue().set(codeKey, sessionId);
+                    redis.expireAt(codeKey, expireAt);
+                    if (sentOtp.getBatchId() != null) {
+                        String batchKey = batchKey(sentOtp.getBatchId());
+                        redis.opsForSet().add(batchKey, sessionId);
+                        redis.expireAt(batchKey, expireAt);
+                    }
+                }
+                return redis.exec();
+            }
+        });
+    }
+
+    @Override
+    public Optional<SentOtp> findById(UUID sessionId) {
+        Map<Object, Object> hash = redisTemplate.opsForHash().entries(sessionKey(sessionId));
+        if (hash.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(fromHash(sessionId, hash));
+    }
+
+    @Override
+    public List<SentOtp> findByDestinationAndOtpHash(String destination, String otpHash) {
+        String sessionId = redisTemplate.opsForValue().get(codeKey(destination, otpHash));
+        if (sessionId == null) {
+            return List.of();
+        }
+        return findById(UUID.fromString(sessionId)).map(List::of).orElse(List.of());
+    }
+
+    @Override
+    public void delete(SentOtp sentOtp) {
+        redisTemplate.execute(DELETE,
+                List.of(sessionKey(sentOtp.getSessionId()), codeKey(sentOtp.getDestination(), sentOtp.getOtpHash())),
+                sentOtp.getSessionId().toString());
+    }
+
+    /**
+     * Decided by a Lua script, which Redis runs atomically; the code key of a consumed OTP is left to expire
+     */
+    @Override
+    public SentOtpVerification verify(UUID sessionId, String otpHash, String legacyOtp, long now) {
+        List<?> result = redisTemplate.execute(VERIFY, List.of(sessionKey(sessionId)),
+                otpHash, legacyOtp != null ? legacyOtp : "", String.valueOf(now));
+        return new SentOtpVerification(VERIFY_STATUSES[((Number) result.get(0)).intValue()],
+                ((Number) result.get(1)).intValue());
+    }
+
+    @Override
+    public boolean consume(String destination, String otpHash, String legacyOtp, long now) {
+        List<String> codeKeys = legacyOtp != null
+                ? List.of(codeKey(destination, otpHash), codeKey(destination, legacyOtp))
+                : List.of(codeKey(destination, otpHash));
+        Long consumed = redisTemplate.execute(CONSUME, codeKeys,
+                otpHash, legacyOtp != null ? legacyOtp : "", String.valueOf(now), keyPrefix + "session:");
+        return consumed != null && consumed == 1;
+    }
+
+    @Override
+    public void updateDeliveryStatus(UUID sessionId, OtpDeliveryStatus status, int attempts, String error) {
+        redisTemplate.execute(UPDATE_DELIVERY_STATUS, List.of(sessionKey(sessionId)),
+                status.name(), String.valueOf(attempts), error != null ? error : "");
+    }
+
+    /**
+     * Reads the delivery status of every session of the batch in one pipeline; expired sessions are not counted
+     */
+    @Override
+    public Map<OtpDeliveryStatus, Long> countByBatchId(UUID batchId) {
+        Set<String> sessionIds = redisTemplate.opsForSet().members(batchKey(batchId));
+        Map<OtpDeliveryStatus, Long> counts = new EnumMap<>(OtpDeliveryStatus.class);
+        if (sessionIds == null || sessionIds.isEmpty()) {
+            return counts;
+        }
+        List<String> keys = new ArrayList<>(sessionIds.size());
+        sessionIds.forEach(sessionId -> keys.add(sessionKey(UUID.fromString(sessionId))));
+        List<Object> statuses = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> redis = (RedisOperations<String, String>) operations;
+                keys.forEach(key -> redis.opsForHash().get(key, "deliveryStatus"));
+                return null;
+            }
+        });
+        for (Object status : statuses) {
+            if (status != null) {
+                counts.merge(OtpDeliveryStatus.valueOf(status.toString()), 1L, Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    static Map<String, String> toHash(SentOtp sentOtp) {
+        Map<String, String> hash = new HashMap<>();
+        putField(hash, "otpHash", sentOtp.getOtpHash());
+        putField(hash, "otp", sentOtp.getLegacyOtp());
+        hash.put("destination", sentOtp.getDestination());
+        hash.put("expireTime", String.valueOf(sentOtp.getExpireTime()));
+        hash.put("lastSentAt", String.valueOf(sentOtp.getLastSentAt()));
+        putField(hash, "attempts", sentOtp.getAttempts());
+        putField(hash, "deliveryStatus", sentOtp.getDeliveryStatus());
+        putField(hash, "deliveryAttempts", sentOtp.getDeliveryAttempts());
+        putField(hash, "deliveryError", sentOtp.getDeliveryError());
+        putField(hash, "batchId", sentOtp.getBatchId());
+        return hash;
+    }
+
+    private static void putField(Map<String, String> hash, String field, Object value) {
+        hash.put(field, value != null ? value.toString() : "");
+    }
+
+    static SentOtp fromHash(UUID sessionId, Map<Object, Object> hash) {
+        SentOtp sentOtp = new SentOtp();
+        sentOtp.setSessionId(sessionId);
+        sentOtp.setOtpHash(field(hash, "otpHash"));
+        sentOtp.setLegacyOtp(field(hash, "otp"));
+        sentOtp.setDestination(field(hash, "destination"));
+        sentOtp.setExpireTime(Long.parseLong(field(hash, "expireTime")));
+        sentOtp.setLastSentAt(Long.parseLong(field(hash, "lastSentAt")));
+        String attempts = field(hash, "attempts");
+        sentOtp.setAttempts(attempts != null ? Integer.valueOf(attempts) : null);
+        String deliveryStatus = field(hash, "deliveryStatus");
+        sentOtp.setDeliveryStatus(deliveryStatus != null ? OtpDeliveryStatus.valueOf(deliveryStatus) : null);
+        String deliveryAttempts = field(hash, "deliveryAttempts");
+        sentOtp.setDeliveryAttempts(deliveryAttempts != null ? Integer.valueOf(deliveryAttempts) : null);
+        sentOtp.setDeliveryError(field(hash, "deliveryError"));
+        String batchId = field(hash, "batchId");
+        sentOtp.setBatchId(batchId != null ? UUID.fromString(batchId) : null);
+        return sentOtp;
+    }
+
+    /**
+     * Hash value of the field, null for a missing or empty field
+     */
+    private static String field(Map<Object, Object> hash, String field) {
+        Object value = hash.get(field);
+        return value == null || value.toString().isEmpty() ? null : value.toString();
+    }
+}
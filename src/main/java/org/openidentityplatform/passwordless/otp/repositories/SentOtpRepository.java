@@ -1,15 +1,63 @@
 package org.openidentityplatform.passwordless.otp.repositories;
 
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
 import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
-import java.util.Optional;
 import java.util.UUID;
 
 @Repository
-public interface SentOtpRepository extends CrudRepository<SentOtp, UUID> {
-    Optional<SentOtp> findFirstByDestinationOrderByLastSentAtDesc(String destination);
-    List<SentOtp> findByDestinationAndOtpOrderByLastSentAtDesc(String destination, String otp);
+public interface SentOtpRepository extends CrudRepository<SentOtp, UUID>, SentOtpBatchRepository {
+    List<SentOtp> findByDestinationAndOtpHashOrderByLastSentAtDesc(String destination, String otpHash);
+
+    /**
+     * Updates delivery columns only, leaving verification attempts untouched
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE SentOtp s SET s.deliveryStatus = :status, s.deliveryAttempts = :attempts, s.deliveryError = :error " +
+           "WHERE s.sessionId = :sessionId")
+    int updateDeliveryStatus(UUID sessionId, OtpDeliveryStatus status, int attempts, String error);
+
+    /**
+     * Consumes the OTP of the session if the code matches and it is live with attempts left;
+     * OTPs stored before hashing match on their plain text code
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM SentOtp s WHERE s.sessionId = :sessionId " +
+           "AND (s.otpHash = :otpHash OR (s.otpHash IS NULL AND s.legacyOtp = :legacyOtp)) " +
+           "AND s.attempts > 0 AND s.expireTime > :now")
+    int deleteLiveBySessionIdAndOtp(UUID sessionId, String otpHash, String legacyOtp, long now);
+
+    /**
+     * Takes one attempt off the OTP of the session if it is live with attempts left
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE SentOtp s SET s.attempts = s.attempts - 1 " +
+           "WHERE s.sessionId = :sessionId AND s.attempts > 0 AND s.expireTime > :now")
+    int decrementLiveAttempts(UUID sessionId, long now);
+
+    /**
+     * Consumes the live OTPs with attempts left sent to the destination with the code, an indexed lookup on
+     * (destination, otp_hash) that also picks up OTPs stored before hashing
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM SentOtp s WHERE s.destination = :destination " +
+           "AND (s.otpHash = :otpHash OR (s.otpHash IS NULL AND s.legacyOtp = :legacyOtp)) " +
+           "AND s.attempts > 0 AND s.expireTime > :now")
+    int deleteLiveByDestinationAndOtp(String destination, String otpHash, String legacyOtp, long now);
+
+    /**
+     * Delivery status and OTP count of a bulk send batch, for the OTPs not yet verified
+     */
+    @Query("SELECT s.deliveryStatus, COUNT(s) FROM SentOtp s WHERE s.batchId = :batchId GROUP BY s.deliveryStatus")
+    List<Object[]> countByBatchIdGroupByDeliveryStatus(UUID batchId);
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.repositories;
+
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.openidentityplatform.passwordless.otp.models.SentOtpVerification;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Storage of sent OTPs, selected with {@code otp.store.type}
+ */
+public interface SentOtpStore {
+
+    /**
+     * Stores a new OTP or replaces a stored one
+     */
+    void save(SentOtp sentOtp);
+
+    /**
+     * Stores new OTPs in as few round trips as the store allows
+     */
+    void saveAll(List<SentOtp> sentOtps);
+
+    Optional<SentOtp> findById(UUID sessionId);
+
+    /**
+     * OTPs sent to the destination with the code hash, most recently sent first
+     */
+    List<SentOtp> findByDestinationAndOtpHash(String destination, String otpHash);
+
+    void delete(SentOtp sentOtp);
+
+    /**
+     * Checks the code against the OTP of the session, live at {@code now}, and atomically either consumes the OTP
+     * on a match or takes one attempt off it, so concurrent guesses cannot share an attempt
+     * @param otpHash keyed hash of the presented code
+     * @param legacyOtp presented code, matched against OTPs stored in plain text; null to skip them
+     */
+    SentOtpVerification verify(UUID sessionId, String otpHash, String legacyOtp, long now);
+
+    /**
+     * Atomically consumes the live OTPs sent to the destination with the code and attempts left
+     * @param otpHash keyed hash of the presented code
+     * @param legacyOtp presented code, matched against OTPs stored in plain text; null to skip them
+     * @return true if an OTP was consumed
+     */
+    boolean consume(String destination, String otpHash, String legacyOtp, long now);
+
+    /**
+     * Updates delivery fields only, leaving verification attempts untouched; no-op if the OTP is gone
+     */
+    void updateDeliveryStatus(UUID sessionId, OtpDeliveryStatus status, int attempts, String error);
+
+    /**
+     * Stored OTPs of a bulk send batch by delivery status
+     */
+    Map<OtpDeliveryStatus, Long> countByBatchId(UUID batchId);
+}
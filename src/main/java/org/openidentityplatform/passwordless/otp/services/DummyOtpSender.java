@@ -27,4 +27,9 @@ public class DummyOtpSender implements OtpSender {
     public void sendOTP(String destination, String messageBody, String messageTitle) {
         log.info("message: {}", messageBody);
     }
+
+    @Override
+    public boolean isLogOnly() {
+        return true;
+    }
 }
@@ -31,7 +31,7 @@ public class EmailOtpSender implements OtpSender {
     }
 
     @Override
-    public void sendOTP(String destination, String messageBody, String messageTitle) {
+    public void sendOTP(String destination, String messageBody, String messageTitle) throws SendOtpException {
         SimpleMailMessage msg = new SimpleMailMessage();
         msg.setTo(destination);
         msg.setText(messageBody);
@@ -41,6 +41,7 @@ public class EmailOtpSender implements OtpSender {
         }
         catch (MailException ex) {
             log.error(ex);
+            throw new SendOtpException();
         }
     }
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.openidentityplatform.passwordless.otp.configuration.OtpBulkSendConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpSettings;
+import org.openidentityplatform.passwordless.otp.models.BulkSendOtpResult;
+import org.openidentityplatform.passwordless.otp.models.BulkSendOtpSummary;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.openidentityplatform.passwordless.otp.repositories.SentOtpStore;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Sends OTPs to many destinations of one setting. Destinations are processed in chunks: codes are generated together,
+ * rows are inserted in JDBC batches, and deliveries are handed to {@link OtpDeliveryService} at a shared rate
+ * so a campaign does not fill the sender queues used by interactive sends.
+ */
+@Service
+@Log4j2
+public class OtpBulkSendService {
+
+    private static final long QUEUE_FULL_POLL_MS = 50;
+
+    /**
+     * A validated bulk send; created before the response starts so unknown settings are reported as errors
+     */
+    @Getter
+    public static class Batch {
+        private final UUID id = UUID.randomUUID();
+        private final OtpSettings otpSettings;
+        private final Map<String, OtpSender> otpSenders;
+        private final List<String> destinations;
+        private final String appId;
+        private final String clientIp;
+
+        Batch(OtpSettings otpSettings, Map<String, OtpSender> otpSenders, List<String> destinations,
+              String appId, String clientIp) {
+            this.otpSettings = otpSettings;
+            this.otpSenders = otpSenders;
+            this.destinations = destinations;
+            this.appId = appId;
+            this.clientIp = clientIp;
+        }
+    }
+
+    private final OtpConfiguration otpConfiguration;
+    private final OtpBulkSendConfiguration configuration;
+    private final SentOtpStore sentOtpStore;
+    private final OtpGenerator otpGenerator;
+    private final ApplicationContext applicationContext;
+    private final OtpSendRateLimiter otpSendRateLimiter;
+    private final ResendWindowIndex resendWindowIndex;
+    private final OtpDeliveryService otpDeliveryService;
+    private final Bucket deliveryRate;
+    private final Map<BulkSendOtpResult.Status, Counter> results = new EnumMap<>(BulkSendOtpResult.Status.class);
+
+    public OtpBulkSendService(OtpConfiguration otpConfiguration, OtpBulkSendConfiguration configuration,
+                              SentOtpStore sentOtpStore, OtpGenerator otpGenerator,
+                              ApplicationContext applicationContext, OtpSendRateLimiter otpSendRateLimiter,
+                              ResendWindowIndex resendWindowIndex, OtpDeliveryService otpDeliveryService,
+                              MeterRegistry meterRegistry) {
+        this.otpConfiguration = otpConfiguration;
+        this.configuration = configuration;
+        this.sentOtpStore = sentOtpStore;
+        this.otpGenerator = otpGenerator;
+        this.applicationContext = applicationContext;
+        this.otpSendRateLimiter = otpSendRateLimiter;
+        this.resendWindowIndex = resendWindowIndex;
+        this.otpDeliveryService = otpDeliveryService;
+        this.deliveryRate = Bucket.builder()
+                .addLimit(Bandwidth.simple(configuration.getDeliveriesPerSecond(), Duration.ofSeconds(1)))
+                .build();
+        for (BulkSendOtpResult.Status status : BulkSendOtpResult.Status.values()) {
+            results.put(status, Counter.builder("otp.bulk.sent").tag("status", status.name()).register(meterRegistry));
+        }
+    }
+
+    /**
+     * Validates a bulk send. Destinations are charged against the bulk quota of the calling app, or of the client IP
+     * without an app, and against the destination and prefix limits.
+     * @param appId calling app, may be null
+     * @param clientIp calling client address, may be null
+     */
+    public Batch prepare(String type, List<String> destinations, String appId, String clientIp) throws SenderNotFoundException, BadRequestException {
+        if (destinations.size() > configuration.getMaxDestinations()) {
+            throw new BadRequestException("at most " + configuration.getMaxDestinations() + " destinations per batch");
+        }
+        final OtpSettings otpSettings;
+        try {
+            otpSettings = otpConfiguration.getSetting(type);
+            if (otpSettings == null) {
+                throw new NoSuchElementException();
+            }
+        } catch (NoSuchElementException e) {
+            log.warn("sender {} not found", type);
+            throw new SenderNotFoundException();
+        }
+        try {
+            return new Batch(otpSettings, otpSettings.getOtpSenders(applicationContext), destinations,
+                    appId, clientIp);
+        } catch (BeansException e) {
+            log.warn("otp sender {} not found", otpSettings.getSender());
+            throw new SenderNotFoundException();
+        }
+    }
+
+    /**
+     * Sends the batch chunk by chunk, passing the results of each chunk in destination order
+     */
+    public void send(Batch batch, Consumer<List<BulkSendOtpResult>> chunkResults) throws InterruptedException {
+        List<String> destinations = batch.getDestinations();
+        for (int from = 0; from < destinations.size(); from += configuration.getChunkSize()) {
+            int to = Math.min(from + configuration.getChunkSize(), destinations.size());
+            chunkResults.accept(sendChunk(batch, destinations.subList(from, to)));
+        }
+    }
+
+    /**
+     * How long the response of a batch may stay open: the time its deliveries take at the bulk rate plus a margin.
+     * Destinations over the bulk quota are rejected at once, so at most the quota's capacity is delivered
+     */
+    public long responseTimeoutMs(Batch batch) {
+        long deliveries = batch.getDestinations().size();
+        if (otpSendRateLimiter.bulkCapacity() > 0) {
+            deliveries = Math.min(deliveries, otpSendRateLimiter.bulkCapacity());
+        }
+        long seconds = (deliveries + configuration.getDeliveriesPerSecond() - 1L) / configuration.getDeliveriesPerSecond();
+        return seconds * 1000 + configuration.getResponseTimeoutMarginMs();
+    }
+
+    List<BulkSendOtpResult> sendChunk(Batch batch, List<String> destinations) throws InterruptedException {
+        BulkSendOtpResult[] chunkResults = new BulkSendOtpResult[destinations.size()];
+        List<Integer> allowed = new ArrayList<>(destinations.size());
+        for (int i = 0; i < destinations.size(); i++) {
+            String destination = destinations.get(i);
+            if (!StringUtils.hasText(destination)) {
+                chunkResults[i] = result(BulkSendOtpResult.rejected(destination, BulkSendOtpResult.Status.INVALID));
+                continue;
+            }
+            try {
+                otpSendRateLimiter.acquireBulk(batch.getAppId(), batch.getClientIp(), destination);
+                allowed.add(i);
+            } catch (OtpSendLimitExceeded e) {
+                chunkResults[i] = result(BulkSendOtpResult.rejected(destination, BulkSendOtpResult.Status.LIMITED));
+            }
+        }
+
+        List<String> allowedDestinations = allowed.stream().map(destinations::get).toList();
+        List<SentOtp> generated = otpGenerator.generateSentOTPs(batch.getOtpSettings(), allowedDestinations);
+        List<SentOtp> reserved = new ArrayList<>(generated.size());
+        List<Integer> reservedPositions = new ArrayList<>(generated.size());
+        for (int k = 0; k < generated.size(); k++) {
+            SentOtp sentOtp = generated.get(k);
+            if (!resendWindowIndex.tryReserve(sentOtp.getDestination(), sentOtp.getLastSentAt())) {
+                chunkResults[allowed.get(k)] = result(BulkSendOtpResult.rejected(sentOtp.getDestination(),
+                        BulkSendOtpResult.Status.RESEND_FORBIDDEN));
+                continue;
+            }
+            sentOtp.setAttempts(otpConfiguration.getAttempts());
+            sentOtp.setDeliveryStatus(OtpDeliveryStatus.QUEUED);
+            sentOtp.setDeliveryAttempts(0);
+            sentOtp.setBatchId(batch.getId());
+            reserved.add(sentOtp);
+            reservedPositions.add(allowed.get(k));
+        }
+
+        try {
+            sentOtpStore.saveAll(reserved);
+        } catch (RuntimeException e) {
+            log.error("failed to save {} OTPs of batch {}", reserved.size(), batch.getId(), e);
+            for (int k = 0; k < reserved.size(); k++) {
+                SentOtp sentOtp = reserved.get(k);
+                resendWindowIndex.release(sentOtp.getDestination(), sentOtp.getLastSentAt());
+                chunkResults[reservedPositions.get(k)] = result(BulkSendOtpResult.rejected(sentOtp.getDestination(),
+                        BulkSendOtpResult.Status.FAILED));
+            }
+            return Arrays.asList(chunkResults);
+        }
+
+        OtpSettings otpSettings = batch.getOtpSettings();
+        for (int k = 0; k < reserved.size(); k++) {
+            SentOtp sentOtp = reserved.get(k);
+            String messageBody = OtpService.createMessage(otpSettings.getMessageTemplate(), sentOtp.getOtp());
+            if (deliver(batch, sentOtp, messageBody)) {
+                chunkResults[reservedPositions.get(k)] = result(new BulkSendOtpResult(sentOtp.getDestination(),
+                        BulkSendOtpResult.Status.QUEUED, sentOtp.getSessionId().toString(), sentOtp.getExpireTime()));
+            } else {
+                sentOtpStore.delete(sentOtp);
+                resendWindowIndex.release(sentOtp.getDestination(), sentOtp.getLastSentAt());
+                chunkResults[reservedPositions.get(k)] = result(BulkSendOtpResult.rejected(sentOtp.getDestination(),
+                        BulkSendOtpResult.Status.FAILED));
+            }
+        }
+        return Arrays.asList(chunkResults);
+    }
+
+    /**
+     * Hands one OTP to its sender pipeline at the bulk delivery rate, waiting up to {@code queueFullWaitMs}
+     * for room in the sender queue
+     */
+    private boolean deliver(Batch batch, SentOtp sentOtp, String messageBody) throws InterruptedException {
+        deliveryRate.asBlocking().consume(1);
+        String senderName = batch.getOtpSettings().getSender();
+        long deadline = System.currentTimeMillis() + configuration.getQueueFullWaitMs();
+        while (otpDeliveryService.remainingCapacity(senderName) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(QUEUE_FULL_POLL_MS);
+        }
+        try {
+            otpDeliveryService.submit(sentOtp, senderName, batch.getOtpSenders(), messageBody,
+                    batch.getOtpSettings().getMessageTitle());
+            return true;
+        } catch (OtpDeliveryQueueFull e) {
+            return false;
+        }
+    }
+
+    public BulkSendOtpSummary getSummary(String batchId) throws BadRequestException {
+        final UUID batchUUID;
+        try {
+            batchUUID = UUID.fromString(batchId);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("invalid batch id");
+        }
+        return new BulkSendOtpSummary(batchId, sentOtpStore.countByBatchId(batchUUID));
+    }
+
+    private BulkSendOtpResult result(BulkSendOtpResult result) {
+        results.get(result.getStatus()).increment();
+        return result;
+    }
+}
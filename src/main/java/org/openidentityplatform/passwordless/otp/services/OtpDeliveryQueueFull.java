@@ -0,0 +1,7 @@
+package org.openidentityplatform.passwordless.otp.services;
+
+public class OtpDeliveryQueueFull extends SendOtpException {
+    public OtpDeliveryQueueFull() {
+        super("OTP delivery queue is full, try again later");
+    }
+}
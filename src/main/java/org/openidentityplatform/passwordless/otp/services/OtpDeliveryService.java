@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.openidentityplatform.passwordless.otp.configuration.OtpDeliveryConfiguration;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.openidentityplatform.passwordless.otp.repositories.SentOtpStore;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers OTPs off the request thread. Each sender gets its own worker pool with a bounded queue,
+ * so a slow provider cannot exhaust request threads or starve other providers.
+ * Failed attempts are retried with exponential backoff; after {@code maxAttempts} the OTP is marked FAILED.
+ */
+@Component
+@Log4j2
+public class OtpDeliveryService {
+
+    private static final class DeliveryJob {
+        final UUID sessionId;
+        final String destination;
+        final long sentAt;
+        final String senderName;
+        final Map<String, OtpSender> senders;
+        final String messageBody;
+        final String messageTitle;
+        int attempts;
+
+        DeliveryJob(SentOtp sentOtp, String senderName, Map<String, OtpSender> senders, String messageBody, String messageTitle) {
+            this.sessionId = sentOtp.getSessionId();
+            this.destination = sentOtp.getDestination();
+            this.sentAt = sentOtp.getLastSentAt();
+            this.senderName = senderName;
+            this.senders = senders;
+            this.messageBody = messageBody;
+            this.messageTitle = messageTitle;
+        }
+    }
+
+    private final OtpDeliveryConfiguration configuration;
+    private final SentOtpStore sentOtpStore;
+    private final ResendWindowIndex resendWindowIndex;
+    private final OtpSenderCircuitBreakers circuitBreakers;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService retryScheduler;
+
+    public OtpDeliveryService(OtpDeliveryConfiguration configuration, SentOtpStore sentOtpStore,
+                              ResendWindowIndex resendWindowIndex, OtpSenderCircuitBreakers circuitBreakers,
+                              MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.sentOtpStore = sentOtpStore;
+        this.resendWindowIndex = resendWindowIndex;
+        this.circuitBreakers = circuitBreakers;
+        this.meterRegistry = meterRegistry;
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("otp-delivery-retry"));
+    }
+
+    /**
+     * Queues the first delivery attempt of a saved OTP
+     * @param senderName primary sender, whose worker pool runs the delivery
+     * @param senders primary and fallback senders in failover order
+     * @throws OtpDeliveryQueueFull if the sender's queue is full
+     */
+    public void submit(SentOtp sentOtp, String senderName, Map<String, OtpSender> senders, String messageBody,
+                       String messageTitle) throws OtpDeliveryQueueFull {
+        DeliveryJob job = new DeliveryJob(sentOtp, senderName, senders, messageBody, messageTitle);
+        try {
+            executor(senderName).execute(() -> deliver(job));
+        } catch (RejectedExecutionException e) {
+            counter(senderName, "rejected").increment();
+            log.warn("delivery queue of {} is full", senderName);
+            throw new OtpDeliveryQueueFull();
+        }
+    }
+
+    /**
+     * Deliveries the sender's queue can still accept
+     */
+    public int remainingCapacity(String senderName) {
+        return executor(senderName).getQueue().remainingCapacity();
+    }
+
+    private void deliver(DeliveryJob job) {
+        job.attempts++;
+        try {
+            circuitBreakers.send(job.senders, job.destination, job.messageBody, job.messageTitle);
+            updateStatus(job, OtpDeliveryStatus.DELIVERED, null);
+            counter(job.senderName, "delivered").increment();
+        } catch (Exception e) {
+            if (job.attempts >= configuration.getMaxAttempts()) {
+                log.error("delivery of session {} via {} failed after {} attempts", job.sessionId, job.senderName, job.attempts, e);
+                // the user never got the code, let them request a new one right away
+                resendWindowIndex.release(job.destination, job.sentAt);
+                updateStatus(job, OtpDeliveryStatus.FAILED, e.getMessage());
+                counter(job.senderName, "failed").increment();
+            } else {
+                log.warn("delivery of session {} via {} failed, attempt {}: {}", job.sessionId, job.senderName, job.attempts, e.toString());
+                updateStatus(job, OtpDeliveryStatus.RETRYING, e.getMessage());
+                counter(job.senderName, "retried").increment();
+                scheduleRetry(job, backoffMillis(job.attempts));
+            }
+        }
+    }
+
+    private void scheduleRetry(DeliveryJob job, long delayMillis) {
+        retryScheduler.schedule(() -> {
+            try {
+                executor(job.senderName).execute(() -> deliver(job));
+            } catch (RejectedExecutionException e) {
+                // the queue is full, the retry waits without spending an attempt
+                scheduleRetry(job, delayMillis);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Exponential backoff with full jitter, capped at {@code maxBackoffMs}
+     */
+    long backoffMillis(int attempts) {
+        long exponential = configuration.getInitialBackoffMs() << Math.min(attempts - 1, 20);
+        long capped = Math.min(exponential, configuration.getMaxBackoffMs());
+        return capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1);
+    }
+
+    private void updateStatus(DeliveryJob job, OtpDeliveryStatus status, String error) {
+        try {
+            String truncated = error != null && error.length() > 500 ? error.substring(0, 500) : error;
+            sentOtpStore.updateDeliveryStatus(job.sessionId, status, job.attempts, truncated);
+        } catch (RuntimeException e) {
+            log.error("failed to update delivery status of session {}", job.sessionId, e);
+        }
+    }
+
+    private ThreadPoolExecutor executor(String senderName) {
+        return executors.computeIfAbsent(senderName, name -> {
+            OtpDeliveryConfiguration.Provider provider = configuration.getProvider(name);
+            BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(provider.getQueueCapacity());
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(provider.getWorkers(), provider.getWorkers(),
+                    60, TimeUnit.SECONDS, queue, daemonThreads("otp-delivery-" + name));
+            executor.allowCoreThreadTimeOut(true);
+            Gauge.builder("otp.delivery.queue.depth", queue, BlockingQueue::size).tag("sender", name).register(meterRegistry);
+            return executor;
+        });
+    }
+
+    private Counter counter(String senderName, String status) {
+        return Counter.builder("otp.delivery").tag("sender", senderName).tag("status", status).register(meterRegistry);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger sequence = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+        for (ThreadPoolExecutor executor : executors.values()) {
+            try {
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.warn("{} OTP deliveries abandoned on shutdown", executor.getQueue().size());
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
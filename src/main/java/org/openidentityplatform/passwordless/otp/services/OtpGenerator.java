@@ -4,31 +4,55 @@ import org.openidentityplatform.passwordless.otp.configuration.OtpSettings;
 import org.openidentityplatform.passwordless.otp.models.SentOtp;
 
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 public class OtpGenerator {
     
     private static final SecureRandom secureRandom = new SecureRandom();
 
+    private final OtpHasher otpHasher;
+
+    public OtpGenerator(OtpHasher otpHasher) {
+        this.otpHasher = otpHasher;
+    }
+
     public SentOtp generateSentOTP(OtpSettings otpSettings, String destination) {
-        String otp = generateOtpCode(otpSettings.getOtpLength(), otpSettings.isUseLetters(), otpSettings.isUseDigits());
+        String otp = generateOtpCode(otpSettings.getOtpLength(), alphabet(otpSettings.isUseLetters(), otpSettings.isUseDigits()));
+        return newSentOtp(otpSettings, destination, otp, System.currentTimeMillis());
+    }
+
+    /**
+     * Generates OTPs for many destinations at once, sharing the alphabet and the send time
+     */
+    public List<SentOtp> generateSentOTPs(OtpSettings otpSettings, List<String> destinations) {
+        String alphabet = alphabet(otpSettings.isUseLetters(), otpSettings.isUseDigits());
+        long now = System.currentTimeMillis();
+        List<SentOtp> sentOtps = new ArrayList<>(destinations.size());
+        for (String destination : destinations) {
+            sentOtps.add(newSentOtp(otpSettings, destination, generateOtpCode(otpSettings.getOtpLength(), alphabet), now));
+        }
+        return sentOtps;
+    }
+
+    private SentOtp newSentOtp(OtpSettings otpSettings, String destination, String otp, long now) {
         SentOtp sentOTP = new SentOtp();
         sentOTP.setSessionId(UUID.randomUUID());
-        sentOTP.setExpireTime(System.currentTimeMillis() + otpSettings.getTtlMinutes() * 60 * 1000);
+        sentOTP.setExpireTime(now + otpSettings.getTtlMinutes() * 60 * 1000);
         sentOTP.setOtp(otp);
+        sentOTP.setOtpHash(otpHasher.hash(otp));
         sentOTP.setDestination(destination);
-        sentOTP.setLastSentAt(System.currentTimeMillis());
+        sentOTP.setLastSentAt(now);
         return sentOTP;
     }
     
     /**
-     * Generate a cryptographically secure OTP code
-     * @param length Length of the OTP code
+     * Characters OTP codes are built from
      * @param useLetters Include letters in the OTP
      * @param useDigits Include digits in the OTP
-     * @return Generated OTP code
      */
-    private String generateOtpCode(int length, boolean useLetters, boolean useDigits) {
+    private static String alphabet(boolean useLetters, boolean useDigits) {
         if (!useLetters && !useDigits) {
             throw new IllegalArgumentException("At least one of useLetters or useDigits must be true");
         }
@@ -40,7 +64,16 @@ public class OtpGenerator {
         if (useLetters) {
             characters += "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
         }
-        
+        return characters;
+    }
+
+    /**
+     * Generate a cryptographically secure OTP code
+     * @param length Length of the OTP code
+     * @param characters Characters to pick from
+     * @return Generated OTP code
+     */
+    private String generateOtpCode(int length, String characters) {
         StringBuilder otp = new StringBuilder(length);
         for (int i = 0; i < length; i++) {
             int randomIndex = secureRandom.nextInt(characters.length());
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import lombok.extern.log4j.Log4j2;
+import org.openidentityplatform.passwordless.otp.configuration.OtpHashConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpStoreConfiguration;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * HMAC-SHA256 of OTP codes under a server secret. OTPs live for minutes and are guarded by attempt limits,
+ * so a fast keyed hash is enough: without the secret a leaked hash cannot be brute forced, and equal codes hash
+ * equally, which keeps verification by destination an indexed point lookup.
+ */
+@Component
+@Log4j2
+public class OtpHasher {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * @throws IllegalStateException when {@code otp.hashing.secret} is empty and OTPs are stored outside process memory,
+     * where other nodes and restarts would not be able to verify them
+     */
+    public OtpHasher(OtpHashConfiguration configuration, OtpStoreConfiguration storeConfiguration,
+                     SecureRandom secureRandom) {
+        byte[] secret;
+        if (configuration.getSecret() == null || configuration.getSecret().isEmpty()) {
+            if (storeConfiguration.getType() != OtpStoreConfiguration.Type.MEMORY) {
+                throw new IllegalStateException("otp.hashing.secret must be set with otp.store.type "
+                        + storeConfiguration.getType().name().toLowerCase());
+            }
+            log.warn("otp.hashing.secret is not set, OTPs are hashed with a random per-process key");
+            secret = new byte[32];
+            secureRandom.nextBytes(secret);
+        } else {
+            secret = configuration.getSecret().getBytes(StandardCharsets.UTF_8);
+        }
+        SecretKeySpec key = new SecretKeySpec(secret, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public String hash(String otp) {
+        byte[] digest = macs.get().doFinal(otp.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(digest);
+    }
+}
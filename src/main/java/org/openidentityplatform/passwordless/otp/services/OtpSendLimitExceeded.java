@@ -0,0 +1,7 @@
+package org.openidentityplatform.passwordless.otp.services;
+
+public class OtpSendLimitExceeded extends BadRequestException {
+    public OtpSendLimitExceeded() {
+        super("OTP send limit exceeded");
+    }
+}
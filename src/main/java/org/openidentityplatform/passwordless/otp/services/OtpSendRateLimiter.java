@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.openidentityplatform.passwordless.otp.configuration.OtpSendLimitConfiguration;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * In-memory token buckets limiting OTP sends per app, client IP, destination and destination prefix,
+ * and bulk sends per app.
+ * Evaluated before any database access or sender call; each tier keeps a bounded, self-evicting key space.
+ */
+@Component
+@Log4j2
+public class OtpSendRateLimiter {
+
+    private final class Tier {
+        final String name;
+        final OtpSendLimitConfiguration.Tier limit;
+        final Cache<String, Bucket> buckets;
+        final Counter rejected;
+
+        Tier(String name, OtpSendLimitConfiguration.Tier limit, MeterRegistry meterRegistry) {
+            this.name = name;
+            this.limit = limit;
+            this.buckets = Caffeine.newBuilder()
+                    .maximumSize(configuration.getMaxKeys())
+                    .expireAfterAccess(limit.getPeriod())
+                    .build();
+            this.rejected = Counter.builder("otp.send.limited").tag("tier", name).register(meterRegistry);
+        }
+
+        boolean enabled(String key) {
+            return key != null && limit.getCapacity() > 0;
+        }
+
+        Bucket bucket(String key) {
+            return buckets.get(key, k -> Bucket.builder()
+                    .addLimit(Bandwidth.simple(limit.getCapacity(), limit.getPeriod()))
+                    .build());
+        }
+    }
+
+    private final OtpSendLimitConfiguration configuration;
+    private final Tier appTier;
+    private final Tier ipTier;
+    private final Tier prefixTier;
+    private final Tier destinationTier;
+    private final Tier bulkTier;
+
+    public OtpSendRateLimiter(OtpSendLimitConfiguration configuration, MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.appTier = new Tier("app", configuration.getApp(), meterRegistry);
+        this.ipTier = new Tier("ip", configuration.getIp(), meterRegistry);
+        this.prefixTier = new Tier("prefix", configuration.getPrefix(), meterRegistry);
+        this.destinationTier = new Tier("destination", configuration.getDestination(), meterRegistry);
+        this.bulkTier = new Tier("bulk", configuration.getBulk(), meterRegistry);
+    }
+
+    /**
+     * Takes one token from every applicable tier, or none if any tier is exhausted
+     * @param appId calling app, may be null
+     * @param clientIp calling client address, may be null
+     * @param destination phone number or email
+     */
+    public void acquire(String appId, String clientIp, String destination) throws OtpSendLimitExceeded {
+        acquire(appTier, appId, ipTier, clientIp, destination);
+    }
+
+    /**
+     * Takes one token of a bulk send: from the bulk quota of the app, or of the client IP without an app,
+     * instead of the app and IP tiers, and from the destination and prefix tiers
+     */
+    public void acquireBulk(String appId, String clientIp, String destination) throws OtpSendLimitExceeded {
+        String caller = appId != null ? "app:" + appId : clientIp != null ? "ip:" + clientIp : null;
+        acquire(bulkTier, caller, null, null, destination);
+    }
+
+    /**
+     * Bulk sends of one caller that the bulk quota lets through when it is full, 0 when the tier is disabled
+     */
+    public long bulkCapacity() {
+        return configuration.getBulk().getCapacity();
+    }
+
+    private void acquire(Tier callerTier, String callerKey, Tier ipTier, String clientIp, String destination)
+            throws OtpSendLimitExceeded {
+        String normalized = destination == null ? null : destination.trim().toLowerCase(Locale.ROOT);
+        List<Bucket> consumed = new ArrayList<>(4);
+        if (!tryConsume(callerTier, callerKey, consumed)
+                || (ipTier != null && !tryConsume(ipTier, clientIp, consumed))
+                || !tryConsume(prefixTier, prefixOf(normalized), consumed)
+                || !tryConsume(destinationTier, normalized, consumed)) {
+            // give back tokens taken from the tiers that allowed the send
+            consumed.forEach(bucket -> bucket.addTokens(1));
+            throw new OtpSendLimitExceeded();
+        }
+    }
+
+    private boolean tryConsume(Tier tier, String key, List<Bucket> consumed) {
+        if (!tier.enabled(key)) {
+            return true;
+        }
+        Bucket bucket = tier.bucket(key);
+        if (bucket.tryConsume(1)) {
+            consumed.add(bucket);
+            return true;
+        }
+        tier.rejected.increment();
+        log.warn("OTP send limit of tier {} exceeded for {}", tier.name, key);
+        return false;
+    }
+
+    /**
+     * Email domain, or the leading {@code prefixLength} digits of a phone number
+     */
+    String prefixOf(String destination) {
+        if (destination == null) {
+            return null;
+        }
+        int at = destination.lastIndexOf('@');
+        if (at >= 0) {
+            return destination.substring(at + 1);
+        }
+        StringBuilder digits = new StringBuilder(configuration.getPrefixLength());
+        for (int i = 0; i < destination.length() && digits.length() < configuration.getPrefixLength(); i++) {
+            char c = destination.charAt(i);
+            if (Character.isDigit(c)) {
+                digits.append(c);
+            }
+        }
+        return digits.length() == 0 ? null : "+" + digits;
+    }
+}
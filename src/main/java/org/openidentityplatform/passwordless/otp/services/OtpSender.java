@@ -19,4 +19,11 @@ package org.openidentityplatform.passwordless.otp.services;
 public interface OtpSender {
     void sendOTP(String destination, String messageBody, String messageTitle) throws SendOtpException;
 
+    /**
+     * @return true if the sender only logs messages and never delivers them, so it cannot act as a fallback
+     */
+    default boolean isLogOnly() {
+        return false;
+    }
+
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.openidentityplatform.passwordless.otp.configuration.OtpCircuitBreakerConfiguration;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends OTP messages through an ordered chain of senders, each guarded by its own circuit breaker.
+ * Senders with an open breaker are skipped without a call, so a failing provider is routed around immediately.
+ * Log-only senders are skipped as fallbacks, so a failover to them ends as a failed delivery rather than a silent one.
+ * Breaker states are published as resilience4j.circuitbreaker.* metrics, call latencies as otp.sender.latency.
+ */
+@Component
+@Log4j2
+public class OtpSenderCircuitBreakers {
+
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final MeterRegistry meterRegistry;
+
+    public OtpSenderCircuitBreakers(OtpCircuitBreakerConfiguration configuration, MeterRegistry meterRegistry) {
+        CircuitBreakerConfig circuitBreakerConfig = CircuitBreakerConfig.custom()
+                .failureRateThreshold(configuration.getFailureRateThreshold())
+                .slowCallRateThreshold(configuration.getSlowCallRateThreshold())
+                .slowCallDurationThreshold(Duration.ofMillis(configuration.getSlowCallDurationMs()))
+                .slidingWindowSize(configuration.getSlidingWindowSize())
+                .minimumNumberOfCalls(configuration.getMinimumNumberOfCalls())
+                .waitDurationInOpenState(Duration.ofMillis(configuration.getWaitInOpenStateMs()))
+                .permittedNumberOfCallsInHalfOpenState(configuration.getPermittedCallsInHalfOpenState())
+                .build();
+        this.circuitBreakerRegistry = CircuitBreakerRegistry.of(circuitBreakerConfig);
+        this.meterRegistry = meterRegistry;
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry).bindTo(meterRegistry);
+        circuitBreakerRegistry.getEventPublisher().onEntryAdded(event -> event.getAddedEntry().getEventPublisher()
+                .onStateTransition(transition -> log.warn("OTP sender {} circuit breaker {}",
+                        transition.getCircuitBreakerName(), transition.getStateTransition())));
+    }
+
+    /**
+     * Sends through the first sender of the chain that accepts the call and succeeds
+     * @param senders sender bean names and senders in failover order
+     * @return name of the sender that delivered the message
+     * @throws SendOtpException if every sender failed or had an open breaker
+     */
+    public String send(Map<String, OtpSender> senders, String destination, String messageBody, String messageTitle)
+            throws SendOtpException {
+        List<String> failures = new ArrayList<>(senders.size());
+        boolean primary = true;
+        for (Map.Entry<String, OtpSender> sender : senders.entrySet()) {
+            String name = sender.getKey();
+            if (!primary && sender.getValue().isLogOnly()) {
+                failures.add(name + ": log only, not a delivery");
+                continue;
+            }
+            primary = false;
+            CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(name);
+            if (!circuitBreaker.tryAcquirePermission()) {
+                failures.add(name + ": circuit open");
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                sender.getValue().sendOTP(destination, messageBody, messageTitle);
+                long duration = System.nanoTime() - start;
+                circuitBreaker.onSuccess(duration, TimeUnit.NANOSECONDS);
+                latency(name, "success").record(duration, TimeUnit.NANOSECONDS);
+                return name;
+            } catch (Exception e) {
+                long duration = System.nanoTime() - start;
+                circuitBreaker.onError(duration, TimeUnit.NANOSECONDS, e);
+                latency(name, "failure").record(duration, TimeUnit.NANOSECONDS);
+                log.warn("OTP sender {} failed: {}", name, e.toString());
+                failures.add(name + ": " + e.getMessage());
+            }
+        }
+        throw new SendOtpException(String.join("; ", failures));
+    }
+
+    public CircuitBreaker.State getState(String senderName) {
+        return circuitBreakerRegistry.circuitBreaker(senderName).getState();
+    }
+
+    private Timer latency(String senderName, String outcome) {
+        return Timer.builder("otp.sender.latency")
+                .tag("sender", senderName)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
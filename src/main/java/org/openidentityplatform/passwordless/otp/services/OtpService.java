@@ -1,15 +1,20 @@
 package org.openidentityplatform.passwordless.otp.services;
 
+import jakarta.annotation.PostConstruct;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.text.StringSubstitutor;
 import org.openidentityplatform.passwordless.exceptions.NotFoundException;
 import org.openidentityplatform.passwordless.otp.configuration.OtpSettings;
 import org.openidentityplatform.passwordless.otp.configuration.OtpConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpHashConfiguration;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryResult;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
 import org.openidentityplatform.passwordless.otp.models.SendOtpResult;
 import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.openidentityplatform.passwordless.otp.models.SentOtpVerification;
 import org.openidentityplatform.passwordless.otp.models.VerifyOtpResult;
-import org.openidentityplatform.passwordless.otp.repositories.SentOtpRepository;
+import org.openidentityplatform.passwordless.otp.repositories.SentOtpStore;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Service;
@@ -22,11 +27,40 @@ import java.util.*;
 public class OtpService {
 
     private final OtpConfiguration otpConfiguration;
-    private final SentOtpRepository sentOtpRepository;
+    private final SentOtpStore sentOtpStore;
     private final OtpGenerator otpGenerator;
     private final ApplicationContext applicationContext;
+    private final OtpSendRateLimiter otpSendRateLimiter;
+    private final ResendWindowIndex resendWindowIndex;
+    private final OtpDeliveryService otpDeliveryService;
+    private final OtpHasher otpHasher;
+    private final OtpHashConfiguration otpHashConfiguration;
+
+    /**
+     * Fails startup on a misspelled fallback sender, which would otherwise silently remove the failover
+     */
+    @PostConstruct
+    void validateSettings() {
+        if (otpConfiguration.getSettings() != null) {
+            otpConfiguration.getSettings().forEach(settings -> settings.validateFallbackSenders(applicationContext));
+        }
+    }
+
+    public SendOtpResult send(String type, String destination)
+            throws NotFoundException, SendOtpException, FrequentSendingForbidden, OtpSendLimitExceeded {
+        return send(type, destination, null, null);
+    }
+
+    /**
+     * Saves an OTP and queues its delivery after checking the per-app, per-IP, per-destination and per-prefix send limits.
+     * Delivery runs asynchronously, its progress is returned by {@link #getDeliveryStatus(String)}
+     * @param appId calling app, null if unknown
+     * @param clientIp calling client address, null if unknown
+     */
+    public SendOtpResult send(String type, String destination, String appId, String clientIp)
+            throws NotFoundException, SendOtpException, FrequentSendingForbidden, OtpSendLimitExceeded {
+        otpSendRateLimiter.acquire(appId, clientIp, destination);
 
-    public SendOtpResult send(String type, String destination) throws NotFoundException, SendOtpException, FrequentSendingForbidden {
         final OtpSettings otpSettings;
         try {
             otpSettings = otpConfiguration.getSetting(type);
@@ -38,9 +72,9 @@ public class OtpService {
             throw new SenderNotFoundException();
         }
         final SentOtp sentOTP = otpGenerator.generateSentOTP(otpSettings, destination);
-        final OtpSender otpSender;
+        final Map<String, OtpSender> otpSenders;
         try {
-            otpSender = otpSettings.getOtpSender(applicationContext);
+            otpSenders = otpSettings.getOtpSenders(applicationContext);
         } catch (BeansException e) {
             log.warn("otp sender {} not found", otpSettings.getSender());
             throw new SenderNotFoundException();
@@ -48,33 +82,44 @@ public class OtpService {
         final String messageTitle = otpSettings.getMessageTitle();
         final String messageBody = createMessage(otpSettings.getMessageTemplate(), sentOTP.getOtp());
 
-        validateFrequentSending(destination);
+        if (!resendWindowIndex.tryReserve(destination, sentOTP.getLastSentAt())) {
+            log.warn("frequent sending to {} forbidden", destination);
+            throw new FrequentSendingForbidden();
+        }
 
-        otpSender.sendOTP(destination, messageBody, messageTitle);
         sentOTP.setAttempts(otpConfiguration.getAttempts());
-        sentOtpRepository.save(sentOTP);
+        sentOTP.setDeliveryStatus(OtpDeliveryStatus.QUEUED);
+        sentOTP.setDeliveryAttempts(0);
+        try {
+            sentOtpStore.save(sentOTP);
+        } catch (RuntimeException e) {
+            resendWindowIndex.release(destination, sentOTP.getLastSentAt());
+            throw e;
+        }
+        try {
+            otpDeliveryService.submit(sentOTP, otpSettings.getSender(), otpSenders, messageBody, messageTitle);
+        } catch (OtpDeliveryQueueFull e) {
+            sentOtpStore.delete(sentOTP);
+            resendWindowIndex.release(destination, sentOTP.getLastSentAt());
+            throw e;
+        }
 
         return new SendOtpResult(sentOTP.getSessionId().toString(), sentOTP.getDestination(), sentOTP.getExpireTime(), sentOTP.getAttempts());
     }
 
-    private void validateFrequentSending(String destination) throws FrequentSendingForbidden {
-        if(otpConfiguration.getResendAllowedAfterMinutes() == null
-                || otpConfiguration.getResendAllowedAfterMinutes() == 0) {
-            return;
-        }
-        Optional<SentOtp> sentOtp = sentOtpRepository.findFirstByDestinationOrderByLastSentAtDesc(destination);
-        if(sentOtp.isEmpty()) {
-            return;
-        }
-        int resendAfterMilliseconds = otpConfiguration.getResendAllowedAfterMinutes() * 1000 * 60;
-        long resendAllowedAt = sentOtp.get().getLastSentAt() + resendAfterMilliseconds;
-        if(resendAllowedAt > System.currentTimeMillis()) {
-            log.warn("frequent sending to {} forbidden", destination);
-            throw new FrequentSendingForbidden();
+    public OtpDeliveryResult getDeliveryStatus(String sessionId) throws NotFoundException {
+        final UUID sessionUUID;
+        try {
+            sessionUUID = UUID.fromString(sessionId);
+        } catch (IllegalArgumentException e) {
+            log.warn("session {} not found", sessionId);
+            throw new SessionNotFoundException();
         }
+        SentOtp sentOtp = sentOtpStore.findById(sessionUUID).orElseThrow(SessionNotFoundException::new);
+        return new OtpDeliveryResult(sessionId, sentOtp.getDeliveryStatus(), sentOtp.getDeliveryAttempts(), sentOtp.getDeliveryError());
     }
 
-    private String createMessage(String messageTemplate, String otp) {
+    static String createMessage(String messageTemplate, String otp) {
         final Map<String, String> values = new HashMap<>();
         values.put("otp", otp);
         StringSubstitutor sub = new StringSubstitutor(values);
@@ -82,56 +127,25 @@ public class OtpService {
     }
 
     /**
-     * Verify OTP by destination and OTP code (Google/Microsoft style)
+     * Verify OTP by destination and OTP code (Google/Microsoft style).
+     * The OTP is consumed by a single conditional delete on the (destination, otp_hash) index,
+     * so a code is accepted once even under concurrent requests
      * @param destination Email or phone number
      * @param otp OTP code
      * @return Verification result
      */
-    public VerifyOtpResult verifyByDestination(String destination, String otp) throws NotFoundException, OtpVerifyAttemptsExceeded {
-        List<SentOtp> sentOtps = sentOtpRepository.findByDestinationAndOtpOrderByLastSentAtDesc(destination, otp);
-        
-        if(sentOtps.isEmpty()) {
-            log.warn("No OTP found for destination {} with code {}", destination, otp);
-            throw new SessionNotFoundException();
-        }
-
-        // Find the first non-expired OTP with attempts remaining
-        SentOtp sentOtp = null;
-        for (SentOtp candidate : sentOtps) {
-            if (candidate.getExpireTime() > System.currentTimeMillis() && candidate.getAttempts() > 0) {
-                sentOtp = candidate;
-                break;
-            }
-        }
-
-        if (sentOtp == null) {
-            log.warn("No valid OTP found for destination {} - all expired or no attempts remaining", destination);
+    public VerifyOtpResult verifyByDestination(String destination, String otp) throws NotFoundException {
+        if (!sentOtpStore.consume(destination, otpHasher.hash(otp), legacyOtp(otp), System.currentTimeMillis())) {
+            log.warn("No valid OTP found for destination {} - wrong code, expired or no attempts remaining", destination);
             throw new SessionNotFoundException();
         }
-
-        if(sentOtp.getAttempts() == 0) {
-            throw new OtpVerifyAttemptsExceeded();
-        }
-
-        boolean result = sentOtp.getExpireTime() > System.currentTimeMillis()
-                && sentOtp.getOtp().equals(otp);
-
-        Integer remainingAttempts = null;
-        if(!result) {
-            remainingAttempts = sentOtp.getAttempts() - 1;
-            remainingAttempts = remainingAttempts < 0 ? 0 : remainingAttempts;
-            sentOtp.setAttempts(remainingAttempts);
-            sentOtpRepository.save(sentOtp);
-        } else {
-            // On successful verification, delete the OTP to prevent reuse
-            sentOtpRepository.delete(sentOtp);
-        }
-
-        return new VerifyOtpResult(result, remainingAttempts);
+        return new VerifyOtpResult(true, null);
     }
 
     /**
-     * Verify OTP by sessionId and OTP code (legacy method for backward compatibility)
+     * Verify OTP by sessionId and OTP code (legacy method for backward compatibility).
+     * The store checks the code and either consumes the OTP or takes an attempt off it in one atomic step,
+     * so parallel guesses cannot share an attempt
      * @param sessionId Session ID
      * @param otp OTP code
      * @return Verification result
@@ -145,34 +159,25 @@ public class OtpService {
             throw new SessionNotFoundException();
         }
 
-        Optional<SentOtp> sentOtpOptional = sentOtpRepository.findById(sessionUUID);
-        if(sentOtpOptional.isEmpty()) {
-            log.warn("session {} not found", sessionId);
-            throw new SessionNotFoundException();
-        }
-
-        SentOtp sentOtp = sentOtpOptional.get();
-
-        if(sentOtp.getExpireTime() < System.currentTimeMillis()) {
-            log.warn("session {} expired", sessionId);
-            throw new SessionNotFoundException();
-        }
-
-        if(sentOtp.getAttempts() == 0) {
-            throw new OtpVerifyAttemptsExceeded();
-        }
-
-        boolean result = sentOtp.getExpireTime() > System.currentTimeMillis()
-                && sentOtp.getOtp().equals(otp);
-
-        Integer remainingAttempts = null;
-        if(!result) {
-            remainingAttempts = sentOtp.getAttempts() - 1;
-            remainingAttempts = remainingAttempts < 0 ? 0 : remainingAttempts;
-            sentOtp.setAttempts(remainingAttempts);
-            sentOtpRepository.save(sentOtp);
+        SentOtpVerification verification = sentOtpStore.verify(sessionUUID, otpHasher.hash(otp), legacyOtp(otp),
+                System.currentTimeMillis());
+        switch (verification.getStatus()) {
+            case VALID:
+                return new VerifyOtpResult(true, null);
+            case INVALID:
+                return new VerifyOtpResult(false, verification.getRemainingAttempts());
+            case ATTEMPTS_EXCEEDED:
+                throw new OtpVerifyAttemptsExceeded();
+            default:
+                log.warn("session {} not found or expired", sessionId);
+                throw new SessionNotFoundException();
         }
+    }
 
-        return new VerifyOtpResult(result, remainingAttempts);
+    /**
+     * The presented code for matching OTPs stored in plain text, null once legacy verification is off
+     */
+    private String legacyOtp(String otp) {
+        return otpHashConfiguration.isVerifyLegacyPlaintext() ? otp : null;
     }
 }
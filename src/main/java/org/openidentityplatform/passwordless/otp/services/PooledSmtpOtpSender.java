@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import lombok.extern.log4j.Log4j2;
+import org.openidentityplatform.passwordless.otp.configuration.OtpEmailConfiguration;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Email sender over a fixed pool of persistent SMTP connections.
+ * Each connection thread takes the messages queued within {@code batchWindowMs} and sends them over its open
+ * transport, so the connect, STARTTLS and AUTH round trips are paid once per connection instead of once per message.
+ * A connection is closed and reopened after an I/O or protocol error, after {@code maxMessagesPerConnection}
+ * messages and when idle for {@code maxIdleMs}.
+ */
+@Log4j2
+public class PooledSmtpOtpSender implements OtpSender {
+
+    private static class PendingMail {
+        final MimeMessage message;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        PendingMail(MimeMessage message) {
+            this.message = message;
+        }
+    }
+
+    private class SmtpConnection {
+        Transport transport;
+        int sentMessages;
+
+        void send(MimeMessage message) throws MessagingException {
+            if (transport == null || sentMessages >= configuration.getMaxMessagesPerConnection()) {
+                close();
+                transport = connect();
+            }
+            transport.sendMessage(message, message.getAllRecipients());
+            sentMessages++;
+        }
+
+        void close() {
+            if (transport != null) {
+                try {
+                    transport.close();
+                } catch (MessagingException e) {
+                    log.debug("failed to close SMTP connection: {}", e.toString());
+                }
+                transport = null;
+                sentMessages = 0;
+            }
+        }
+    }
+
+    private final JavaMailSenderImpl mailSender;
+    private final OtpEmailConfiguration configuration;
+    private final BlockingQueue<PendingMail> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> connectionThreads = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public PooledSmtpOtpSender(JavaMailSenderImpl mailSender, OtpEmailConfiguration configuration) {
+        this.mailSender = mailSender;
+        this.configuration = configuration;
+        for (int i = 1; i <= configuration.getConnections(); i++) {
+            Thread thread = new Thread(this::serve, "otp-smtp-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            connectionThreads.add(thread);
+        }
+    }
+
+    @Override
+    public void sendOTP(String destination, String messageBody, String messageTitle) throws SendOtpException {
+        if (!running) {
+            throw new SendOtpException("email sender is shut down");
+        }
+        PendingMail mail;
+        try {
+            mail = new PendingMail(createMessage(destination, messageBody, messageTitle));
+        } catch (MessagingException e) {
+            log.error("invalid email message to {}", destination, e);
+            throw new SendOtpException(e.getMessage());
+        }
+        queue.add(mail);
+        try {
+            mail.result.get(configuration.getSendTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            log.error("failed to send email to {}: {}", destination, e.getCause().toString());
+            throw new SendOtpException(e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            mail.result.cancel(false);
+            throw new SendOtpException("email was not sent within " + configuration.getSendTimeoutMs() + " ms");
+        } catch (InterruptedException e) {
+            mail.result.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new SendOtpException("interrupted");
+        }
+    }
+
+    private MimeMessage createMessage(String destination, String messageBody, String messageTitle) throws MessagingException {
+        MimeMessage message = new MimeMessage(mailSender.getSession());
+        if (StringUtils.hasText(configuration.getFrom())) {
+            message.setFrom(new InternetAddress(configuration.getFrom()));
+        }
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(destination));
+        message.setSubject(messageTitle, "UTF-8");
+        message.setText(messageBody, "UTF-8");
+        message.setSentDate(new Date());
+        message.saveChanges();
+        return message;
+    }
+
+    private void serve() {
+        SmtpConnection connection = new SmtpConnection();
+        List<PendingMail> batch = new ArrayList<>(configuration.getMaxBatchSize());
+        try {
+            while (running) {
+                PendingMail first = queue.poll(configuration.getMaxIdleMs(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    connection.close();
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(configuration.getBatchWindowMs());
+                while (batch.size() < configuration.getMaxBatchSize()) {
+                    PendingMail next = queue.poll(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                for (PendingMail mail : batch) {
+                    send(connection, mail);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void send(SmtpConnection connection, PendingMail mail) {
+        if (mail.result.isDone()) {
+            return;
+        }
+        try {
+            connection.send(mail.message);
+            mail.result.complete(null);
+        } catch (SendFailedException e) {
+            // rejected recipient, the connection stays usable
+            mail.result.completeExceptionally(e);
+        } catch (MessagingException e) {
+            log.warn("SMTP connection failed, reconnecting: {}", e.toString());
+            connection.close();
+            try {
+                connection.send(mail.message);
+                mail.result.complete(null);
+            } catch (MessagingException retryException) {
+                connection.close();
+                mail.result.completeExceptionally(retryException);
+            }
+        }
+    }
+
+    private Transport connect() throws MessagingException {
+        Session session = mailSender.getSession();
+        String protocol = mailSender.getProtocol() != null ? mailSender.getProtocol() : JavaMailSenderImpl.DEFAULT_PROTOCOL;
+        Transport transport = session.getTransport(protocol);
+        String username = StringUtils.hasLength(mailSender.getUsername()) ? mailSender.getUsername() : null;
+        String password = StringUtils.hasLength(mailSender.getPassword()) ? mailSender.getPassword() : null;
+        transport.connect(mailSender.getHost(), mailSender.getPort(), username, password);
+        return transport;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        connectionThreads.forEach(Thread::interrupt);
+        for (PendingMail mail = queue.poll(); mail != null; mail = queue.poll()) {
+            mail.result.completeExceptionally(new MessagingException("email sender is shut down"));
+        }
+    }
+}
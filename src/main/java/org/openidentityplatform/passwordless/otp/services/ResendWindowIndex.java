@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.openidentityplatform.passwordless.otp.configuration.OtpConfiguration;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Last send time per destination, kept for the resend window only.
+ * Checking the window and recording a send is one atomic step, so concurrent sends to a destination cannot both pass.
+ */
+@Component
+public class ResendWindowIndex {
+
+    private final long windowMillis;
+
+    private final Cache<String, Long> lastSentAt;
+
+    public ResendWindowIndex(OtpConfiguration otpConfiguration) {
+        Integer minutes = otpConfiguration.getResendAllowedAfterMinutes();
+        this.windowMillis = minutes == null ? 0 : Duration.ofMinutes(minutes).toMillis();
+        this.lastSentAt = Caffeine.newBuilder()
+                .maximumSize(otpConfiguration.getResendIndexMaxSize())
+                .expireAfterWrite(Duration.ofMillis(Math.max(windowMillis, 1)))
+                .build();
+    }
+
+    /**
+     * Records a send at {@code now} unless the destination was sent to within the resend window
+     * @return false if the resend window has not passed yet
+     */
+    public boolean tryReserve(String destination, long now) {
+        if (windowMillis == 0) {
+            return true;
+        }
+        boolean[] reserved = new boolean[1];
+        lastSentAt.asMap().compute(key(destination), (k, last) -> {
+            if (last != null && last + windowMillis > now) {
+                return last;
+            }
+            reserved[0] = true;
+            return now;
+        });
+        return reserved[0];
+    }
+
+    /**
+     * Undoes a reservation made at {@code reservedAt}, e.g. when sending failed
+     */
+    public void release(String destination, long reservedAt) {
+        if (windowMillis == 0) {
+            return;
+        }
+        lastSentAt.asMap().remove(key(destination), reservedAt);
+    }
+
+    private static String key(String destination) {
+        return destination.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -4,4 +4,8 @@ public class SendOtpException extends Exception {
     public SendOtpException() {
         super("exception ocurred while sending OTP");
     }
+
+    protected SendOtpException(String message) {
+        super(message);
+    }
 }
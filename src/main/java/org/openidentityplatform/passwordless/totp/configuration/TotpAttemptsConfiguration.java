@@ -0,0 +1,29 @@
+package org.openidentityplatform.passwordless.totp.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Failed TOTP verifications allowed per user, counted by /verify and /verify/batch together
+ */
+@Configuration
+@ConfigurationProperties(prefix = "totp.attempts")
+@Getter
+@Setter
+public class TotpAttemptsConfiguration {
+
+    /**
+     * Failed codes accepted per user within {@code windowSeconds}; further codes are rejected until the window ends.
+     * A valid code resets the count
+     */
+    private int maxFailures = 5;
+
+    private long windowSeconds = 300;
+
+    /**
+     * Users tracked in memory; beyond it the least recently used are evicted
+     */
+    private long maximumSize = 100_000;
+}
@@ -0,0 +1,28 @@
+package org.openidentityplatform.passwordless.totp.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of batch TOTP verification
+ */
+@Configuration
+@ConfigurationProperties(prefix = "totp.batch")
+@Getter
+@Setter
+public class TotpBatchConfiguration {
+
+    private int maxItems = 10_000;
+
+    /**
+     * Items whose keys are loaded in one query and whose results are streamed together
+     */
+    private int chunkSize = 1000;
+
+    /**
+     * Threads verifying the items of a chunk, shared by all batches
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+}
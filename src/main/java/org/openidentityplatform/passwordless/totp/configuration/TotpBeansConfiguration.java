@@ -1,9 +1,19 @@
 package org.openidentityplatform.passwordless.totp.configuration;
 
 import com.eatthepath.otp.TimeBasedOneTimePasswordGenerator;
+import org.openidentityplatform.passwordless.totp.repository.TotpStepInMemoryLedger;
+import org.openidentityplatform.passwordless.totp.repository.TotpStepLedger;
+import org.openidentityplatform.passwordless.totp.repository.TotpStepRedisLedger;
+import org.openidentityplatform.passwordless.totp.services.TotpKeyCache;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 
 @Configuration
@@ -15,4 +25,29 @@ public class TotpBeansConfiguration {
         final String algorithm = "Hmac".concat(totpConfiguration.getAlgorithm());
         return new TimeBasedOneTimePasswordGenerator(duration, length, algorithm);
     }
+
+    @Bean
+    @ConditionalOnProperty(value = "totp.replay.type", havingValue = "memory", matchIfMissing = true)
+    public TotpStepLedger totpStepInMemoryLedger(TotpReplayConfiguration replayConfiguration) {
+        return new TotpStepInMemoryLedger(replayConfiguration.getMaximumSize());
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "totp.replay.type", havingValue = "redis")
+    public TotpStepLedger totpStepRedisLedger(StringRedisTemplate redisTemplate, TotpReplayConfiguration replayConfiguration) {
+        return new TotpStepRedisLedger(redisTemplate, replayConfiguration.getKeyPrefix());
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "totp.key-cache.invalidation", havingValue = "redis")
+    public RedisMessageListenerContainer totpKeyCacheInvalidationListener(RedisConnectionFactory connectionFactory,
+                                                                          TotpKeyCache totpKeyCache,
+                                                                          TotpKeyCacheConfiguration keyCacheConfiguration) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener((message, pattern) ->
+                        totpKeyCache.evict(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(keyCacheConfiguration.getChannel()));
+        return container;
+    }
 }
@@ -15,6 +15,11 @@ public class TotpConfiguration {
 
     private Integer digits = 6;
 
+    /**
+     * Time steps accepted either side of the current one, tolerating clock skew of the authenticator
+     */
+    private Integer driftSteps = 1;
+
     private final String algorithm = "SHA1";
 
     private final Integer period = 30;
@@ -0,0 +1,49 @@
+package org.openidentityplatform.passwordless.totp.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Envelope encryption of TOTP secrets: each secret is encrypted with its own data key,
+ * wrapped by a master key of a local keystore
+ */
+@Configuration
+@ConfigurationProperties(prefix = "totp.encryption")
+@Getter
+@Setter
+public class TotpEncryptionConfiguration {
+
+    private boolean enabled = false;
+
+    /**
+     * Keystore file holding the AES master keys as secret key entries
+     */
+    private String keystorePath;
+
+    private String keystoreType = "PKCS12";
+
+    /**
+     * Password of the keystore and of its key entries
+     */
+    private String keystorePassword;
+
+    /**
+     * Master key wrapping new data keys; records wrapped by other keys are re-wrapped by the rotation job
+     */
+    private String activeKeyAlias;
+
+    private boolean rotationEnabled = true;
+
+    private long rotationInitialDelayMs = 120000;
+
+    private long rotationIntervalMs = 3600000;
+
+    /**
+     * Records re-wrapped per query
+     */
+    private int rotationBatchSize = 500;
+
+    private long rotationLockAtMostMs = 600000;
+}
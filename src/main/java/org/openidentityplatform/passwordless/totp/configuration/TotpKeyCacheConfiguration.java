@@ -0,0 +1,39 @@
+package org.openidentityplatform.passwordless.totp.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of the in-process cache of decoded TOTP keys
+ */
+@Configuration
+@ConfigurationProperties(prefix = "totp.key-cache")
+@Getter
+@Setter
+public class TotpKeyCacheConfiguration {
+
+    public enum Invalidation {
+        /**
+         * Registration evicts the key of the node that handled it only, single instance only
+         */
+        LOCAL,
+        /**
+         * Evictions are also published on a channel of the Redis server configured with spring.data.redis,
+         * so every node drops a re-registered key
+         */
+        REDIS
+    }
+
+    private long maximumSize = 100_000;
+
+    /**
+     * Also bounds how long another node may verify with a replaced key if an eviction message is lost
+     */
+    private long ttlSeconds = 300;
+
+    private Invalidation invalidation = Invalidation.LOCAL;
+
+    private String channel = "totp:key-cache:invalidate";
+}
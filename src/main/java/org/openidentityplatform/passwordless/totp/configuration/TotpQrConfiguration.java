@@ -0,0 +1,35 @@
+package org.openidentityplatform.passwordless.totp.configuration;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import lombok.Getter;
+import lombok.Setter;
+import org.openidentityplatform.passwordless.totp.models.QrFormat;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of TOTP registration QR codes
+ */
+@Configuration
+@ConfigurationProperties(prefix = "totp.qr")
+@Getter
+@Setter
+public class TotpQrConfiguration {
+
+    /**
+     * QR code returned by register when the request does not ask for one
+     */
+    private QrFormat defaultFormat = QrFormat.NONE;
+
+    /**
+     * Width and height of PNG images and of SVG images' viewport, in pixels
+     */
+    private int size = 300;
+
+    private ErrorCorrectionLevel errorCorrection = ErrorCorrectionLevel.L;
+
+    /**
+     * Quiet zone around the code, in modules
+     */
+    private int margin = 4;
+}
@@ -0,0 +1,36 @@
+package org.openidentityplatform.passwordless.totp.configuration;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Ledger of the last accepted time step of each user, which rejects replayed TOTP codes
+ */
+@Configuration
+@ConfigurationProperties(prefix = "totp.replay")
+@Getter
+@Setter
+public class TotpReplayConfiguration {
+
+    public enum Type {
+        /**
+         * Process memory, single instance only
+         */
+        MEMORY,
+        /**
+         * Redis configured with spring.data.redis, shared by all nodes
+         */
+        REDIS
+    }
+
+    private Type type = Type.MEMORY;
+
+    /**
+     * Users kept by the MEMORY ledger; beyond it the least recently used are evicted
+     */
+    private long maximumSize = 100_000;
+
+    private String keyPrefix = "totp:step:";
+}
@@ -1,20 +1,42 @@
 package org.openidentityplatform.passwordless.totp.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import jakarta.validation.Valid;
 import lombok.AllArgsConstructor;
+import org.openidentityplatform.passwordless.otp.services.BadRequestException;
+import org.openidentityplatform.passwordless.totp.configuration.TotpQrConfiguration;
+import org.openidentityplatform.passwordless.totp.models.BatchVerificationRequest;
+import org.openidentityplatform.passwordless.totp.models.BatchVerificationResult;
+import org.openidentityplatform.passwordless.totp.models.QrFormat;
 import org.openidentityplatform.passwordless.totp.models.RegistrationRequest;
 import org.openidentityplatform.passwordless.totp.models.RegistrationResponse;
 import org.openidentityplatform.passwordless.totp.models.VerificationRequest;
 import org.openidentityplatform.passwordless.totp.models.VerificationResponse;
 import org.openidentityplatform.passwordless.totp.services.QrService;
+import org.openidentityplatform.passwordless.totp.services.TotpBatchVerifyService;
 import org.openidentityplatform.passwordless.totp.services.TotpService;
+import org.openidentityplatform.passwordless.totp.services.TotpVerifyAttemptsExceeded;
 import org.openidentityplatform.passwordless.totp.services.UserNotFoundException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 @RestController
 @AllArgsConstructor
@@ -25,19 +47,103 @@ public class TotpRestController {
 
     private QrService qrService;
 
+    private TotpQrConfiguration qrConfiguration;
+
+    private TotpBatchVerifyService totpBatchVerifyService;
+
+    private ObjectMapper objectMapper;
+
+    private static final MediaType IMAGE_SVG = MediaType.parseMediaType("image/svg+xml");
+
+    /**
+     * Registers the user and returns the otpauth URI with an optional data URI QR code, or, when the request
+     * accepts {@code image/png} or {@code image/svg+xml}, the QR code alone as a raw image. The QR code carries the
+     * user's secret, so it is only ever returned by the registration that created it and must not be cached
+     */
     @PostMapping("/register")
-    public RegistrationResponse register(@RequestBody @Valid RegistrationRequest registrationRequest) {
+    public ResponseEntity<?> register(@RequestBody @Valid RegistrationRequest registrationRequest,
+                                      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        final QrFormat imageFormat = imageFormat(accept);
         final URI uri = totpService.register(registrationRequest.getUsername());
-        final String qr = qrService.generateQr(uri.toString());
+        if (imageFormat == QrFormat.PNG) {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            qrService.writePng(uri.toString(), png);
+            return ResponseEntity.ok().cacheControl(CacheControl.noStore())
+                    .contentType(MediaType.IMAGE_PNG)
+                    .body(png.toByteArray());
+        }
+        if (imageFormat == QrFormat.SVG) {
+            return ResponseEntity.ok().cacheControl(CacheControl.noStore())
+                    .contentType(IMAGE_SVG)
+                    .body(qrService.generateSvg(uri.toString()).getBytes(StandardCharsets.UTF_8));
+        }
+        final QrFormat qrFormat = registrationRequest.getQr() != null ? registrationRequest.getQr() : qrConfiguration.getDefaultFormat();
+        final String qr = qrService.generateQr(uri.toString(), qrFormat);
         final RegistrationResponse registrationResponse = new RegistrationResponse();
         registrationResponse.setUri(uri.toString());
         registrationResponse.setQr(qr);
-        return registrationResponse;
+        return ResponseEntity.ok(registrationResponse);
+    }
+
+    /**
+     * PNG or SVG when explicitly accepted, wildcards do not count; NONE for the JSON response
+     */
+    private static QrFormat imageFormat(String accept) {
+        if (accept == null) {
+            return QrFormat.NONE;
+        }
+        for (MediaType mediaType : MediaType.parseMediaTypes(accept)) {
+            if (mediaType.equalsTypeAndSubtype(MediaType.IMAGE_PNG)) {
+                return QrFormat.PNG;
+            }
+            if (mediaType.equalsTypeAndSubtype(IMAGE_SVG)) {
+                return QrFormat.SVG;
+            }
+        }
+        return QrFormat.NONE;
     }
 
     @PostMapping("/verify")
-    public VerificationResponse verify(@RequestBody @Valid VerificationRequest verificationRequest) throws UserNotFoundException {
+    public VerificationResponse verify(@RequestBody @Valid VerificationRequest verificationRequest)
+            throws UserNotFoundException, TotpVerifyAttemptsExceeded {
         boolean valid = totpService.verify(verificationRequest.getUsername(), verificationRequest.getTotp());
         return new VerificationResponse(valid);
     }
+
+    /**
+     * Verifies all items of the request and streams one NDJSON line per item, in request order,
+     * as each chunk is verified. Authentication, rate limiting and auditing apply once to the whole batch; each username
+     * may appear once and counts against the same failed-attempt limit as {@code /verify}.
+     */
+    @PostMapping("/verify/batch")
+    public ResponseEntity<StreamingResponseBody> verifyBatch(@RequestBody @Valid BatchVerificationRequest batchVerificationRequest)
+            throws BadRequestException {
+        final List<VerificationRequest> items = batchVerificationRequest.getItems();
+        totpBatchVerifyService.validate(items);
+        ObjectWriter writer = objectMapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("\n");
+        StreamingResponseBody body = outputStream -> {
+            JsonGenerator jsonGenerator = writer.createGenerator(outputStream);
+            try {
+                totpBatchVerifyService.verify(items, results -> {
+                    try {
+                        for (BatchVerificationResult result : results) {
+                            writer.writeValue(jsonGenerator, result);
+                        }
+                        jsonGenerator.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            jsonGenerator.writeRaw('\n');
+            jsonGenerator.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
 }
@@ -0,0 +1,13 @@
+package org.openidentityplatform.passwordless.totp.models;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchVerificationRequest {
+    @NotEmpty
+    private List<@Valid VerificationRequest> items;
+}
@@ -0,0 +1,27 @@
+package org.openidentityplatform.passwordless.totp.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of one item of a batch verification
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchVerificationResult {
+
+    public enum Status {
+        VALID,
+        INVALID,
+        USER_NOT_FOUND,
+        /**
+         * The user has no failed attempts left, the code was not checked
+         */
+        ATTEMPTS_EXCEEDED
+    }
+
+    private String username;
+    private Status status;
+}
@@ -0,0 +1,19 @@
+package org.openidentityplatform.passwordless.totp.models;
+
+/**
+ * Rendering of the QR code of a TOTP registration
+ */
+public enum QrFormat {
+    /**
+     * No QR code, only the otpauth URI
+     */
+    NONE,
+    /**
+     * PNG image, 2D rendered
+     */
+    PNG,
+    /**
+     * SVG image built directly from the QR modules, without image rendering
+     */
+    SVG
+}
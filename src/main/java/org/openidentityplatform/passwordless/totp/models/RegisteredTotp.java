@@ -2,6 +2,7 @@ package org.openidentityplatform.passwordless.totp.models;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import lombok.ToString;
 import org.openidentityplatform.passwordless.iam.models.User;
 
 /**
@@ -12,7 +13,8 @@ import org.openidentityplatform.passwordless.iam.models.User;
 @Entity(name = "registered_totps")
 @Table(name = "registered_totps", indexes = {
     @Index(name = "idx_totp_username", columnList = "username", unique = true),
-    @Index(name = "idx_totp_user", columnList = "user_id")
+    @Index(name = "idx_totp_user", columnList = "user_id"),
+    @Index(name = "idx_totp_master_key", columnList = "master_key_alias")
 })
 @Data
 public class RegisteredTotp {
@@ -23,8 +25,27 @@ public class RegisteredTotp {
     @Column(unique = true, nullable = false)
     private String username;
 
+    /**
+     * Plaintext secret, only kept while encryption is disabled or until the rotation job encrypts it
+     */
     @Column
-    private String secret; //TODO add encryption and decryption
+    @ToString.Exclude
+    private String secret;
+
+    /**
+     * Base64 of the GCM IV and ciphertext of the secret under the record's data key
+     */
+    @Column(name = "encrypted_secret")
+    private String encryptedSecret;
+
+    /**
+     * Base64 of the record's data key wrapped by the master key {@link #masterKeyAlias}
+     */
+    @Column(name = "wrapped_key", length = 128)
+    private String wrappedKey;
+
+    @Column(name = "master_key_alias", length = 64)
+    private String masterKeyAlias;
     
     /**
      * Link to User entity for centralized authentication
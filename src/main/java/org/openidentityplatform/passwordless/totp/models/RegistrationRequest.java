@@ -8,4 +8,9 @@ public class RegistrationRequest {
     @NotEmpty
     private String username;
 
+    /**
+     * QR code to return along with the URI, {@code totp.qr.defaultFormat} if not set
+     */
+    private QrFormat qr;
+
 }
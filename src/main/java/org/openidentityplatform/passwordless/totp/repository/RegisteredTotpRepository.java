@@ -1,8 +1,52 @@
 package org.openidentityplatform.passwordless.totp.repository;
 
 import org.openidentityplatform.passwordless.totp.models.RegisteredTotp;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 public interface RegisteredTotpRepository extends CrudRepository<RegisteredTotp, String> {
 
+    /**
+     * Registration of the user, by the unique username index
+     */
+    Optional<RegisteredTotp> findByUsername(String username);
+
+    /**
+     * Registrations of the users, by the unique username index
+     */
+    List<RegisteredTotp> findAllByUsernameIn(Collection<String> usernames);
+
+    /**
+     * Records in plaintext or wrapped by another master key than {@code alias}, with an id after {@code afterId},
+     * in id order
+     */
+    @Query("SELECT t FROM registered_totps t WHERE (t.masterKeyAlias IS NULL OR t.masterKeyAlias <> :alias) " +
+           "AND t.id > :afterId ORDER BY t.id")
+    List<RegisteredTotp> findNotWrappedBy(String alias, String afterId, Pageable pageable);
+
+    /**
+     * Replaces the wrapped data key only if the record has not changed since it was read
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE registered_totps t SET t.wrappedKey = :wrappedKey, t.masterKeyAlias = :alias " +
+           "WHERE t.id = :id AND t.wrappedKey = :previousWrappedKey")
+    int rewrap(String id, String previousWrappedKey, String wrappedKey, String alias);
+
+    /**
+     * Replaces the plaintext secret by its encryption only if the record has not changed since it was read
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE registered_totps t SET t.secret = NULL, t.encryptedSecret = :encryptedSecret, " +
+           "t.wrappedKey = :wrappedKey, t.masterKeyAlias = :alias " +
+           "WHERE t.id = :id AND t.wrappedKey IS NULL AND t.secret = :secret")
+    int encryptPlaintext(String id, String secret, String encryptedSecret, String wrappedKey, String alias);
 }
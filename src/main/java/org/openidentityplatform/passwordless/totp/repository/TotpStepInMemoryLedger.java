@@ -0,0 +1,53 @@
+package org.openidentityplatform.passwordless.totp.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.time.Duration;
+
+public class TotpStepInMemoryLedger implements TotpStepLedger {
+
+    private record AcceptedStep(long step, long retentionNanos) {
+    }
+
+    private final Cache<String, AcceptedStep> steps;
+
+    public TotpStepInMemoryLedger(long maximumSize) {
+        this.steps = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<String, AcceptedStep>() {
+                    @Override
+                    public long expireAfterCreate(String username, AcceptedStep accepted, long currentTime) {
+                        return accepted.retentionNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String username, AcceptedStep accepted, long currentTime, long currentDuration) {
+                        return accepted.retentionNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String username, AcceptedStep accepted, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Decided inside the map's compute, which is atomic per user
+     */
+    @Override
+    public boolean tryAccept(String username, long step, Duration retention) {
+        boolean[] accepted = {false};
+        steps.asMap().compute(username, (name, last) -> {
+            if (last != null && last.step() >= step) {
+                return last;
+            }
+            accepted[0] = true;
+            return new AcceptedStep(step, retention.toNanos());
+        });
+        return accepted[0];
+    }
+}
@@ -0,0 +1,16 @@
+package org.openidentityplatform.passwordless.totp.repository;
+
+import java.time.Duration;
+
+/**
+ * Last accepted TOTP time step per user, selected with {@code totp.replay.type}
+ */
+public interface TotpStepLedger {
+
+    /**
+     * Atomically records the step if it is later than the last accepted step of the user
+     * @param retention how long the step must be remembered, after which no code of it can be valid
+     * @return false if the step, or a later one, was already accepted
+     */
+    boolean tryAccept(String username, long step, Duration retention);
+}
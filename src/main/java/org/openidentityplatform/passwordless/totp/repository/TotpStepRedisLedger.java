@@ -0,0 +1,35 @@
+package org.openidentityplatform.passwordless.totp.repository;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Keeps the last accepted step of each user under {@code keyPrefix + username}, expiring with its retention
+ */
+public class TotpStepRedisLedger implements TotpStepLedger {
+
+    private static final RedisScript<Long> TRY_ACCEPT = new DefaultRedisScript<>(
+            "local last = redis.call('GET', KEYS[1]) "
+                    + "if last and tonumber(last) >= tonumber(ARGV[1]) then return 0 end "
+                    + "redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2]) "
+                    + "return 1", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final String keyPrefix;
+
+    public TotpStepRedisLedger(StringRedisTemplate redisTemplate, String keyPrefix) {
+        this.redisTemplate = redisTemplate;
+        this.keyPrefix = keyPrefix;
+    }
+
+    @Override
+    public boolean tryAccept(String username, long step, Duration retention) {
+        Long accepted = redisTemplate.execute(TRY_ACCEPT, List.of(keyPrefix + username),
+                String.valueOf(step), String.valueOf(retention.toMillis()));
+        return accepted != null && accepted == 1;
+    }
+}
@@ -1,30 +1,105 @@
 package org.openidentityplatform.passwordless.totp.services;
 
 import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
 import org.apache.commons.codec.binary.Base64;
+import org.openidentityplatform.passwordless.totp.configuration.TotpQrConfiguration;
+import org.openidentityplatform.passwordless.totp.models.QrFormat;
 import org.springframework.stereotype.Service;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
 
 @Service
 public class QrService {
 
     final static String IMG_FORMAT = "png";
-    final static Integer SIZE = 300;
+
+    private final TotpQrConfiguration qrConfiguration;
+
+    private final Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+
+    public QrService(TotpQrConfiguration qrConfiguration) {
+        this.qrConfiguration = qrConfiguration;
+        hints.put(EncodeHintType.ERROR_CORRECTION, qrConfiguration.getErrorCorrection());
+        hints.put(EncodeHintType.MARGIN, qrConfiguration.getMargin());
+    }
+
+    /**
+     * @return PNG image as a data URI
+     */
     public String generateQr(String data) {
-        QRCodeWriter barcodeWriter = new QRCodeWriter();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writePng(data, baos);
+        return "data:image/png;base64, ".concat(Base64.encodeBase64String(baos.toByteArray()));
+    }
+
+    /**
+     * @return image as a data URI, null for {@link QrFormat#NONE}
+     */
+    public String generateQr(String data, QrFormat format) {
+        return switch (format) {
+            case NONE -> null;
+            case PNG -> generateQr(data);
+            case SVG -> "data:image/svg+xml;base64,".concat(
+                    Base64.encodeBase64String(generateSvg(data).getBytes(StandardCharsets.UTF_8)));
+        };
+    }
+
+    public void writePng(String data, OutputStream outputStream) {
+        try {
+            BitMatrix bitMatrix = encode(data, qrConfiguration.getSize());
+            MatrixToImageWriter.writeToStream(bitMatrix, IMG_FORMAT, outputStream);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Renders one module per matrix cell as SVG path runs, scaled by the viewport; no image is drawn
+     */
+    public String generateSvg(String data) {
+        BitMatrix bitMatrix = encode(data, 0);
+        int width = bitMatrix.getWidth();
+        int height = bitMatrix.getHeight();
+        StringBuilder svg = new StringBuilder(width * height / 2 + 256);
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"").append(qrConfiguration.getSize())
+                .append("\" height=\"").append(qrConfiguration.getSize())
+                .append("\" viewBox=\"0 0 ").append(width).append(' ').append(height)
+                .append("\" shape-rendering=\"crispEdges\"><rect width=\"100%\" height=\"100%\" fill=\"#fff\"/><path d=\"");
+        for (int y = 0; y < height; y++) {
+            int x = 0;
+            while (x < width) {
+                if (!bitMatrix.get(x, y)) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while (x < width && bitMatrix.get(x, y)) {
+                    x++;
+                }
+                svg.append('M').append(start).append(',').append(y).append('h').append(x - start).append("v1h-")
+                        .append(x - start).append('z');
+            }
+        }
+        return svg.append("\" fill=\"#000\"/></svg>").toString();
+    }
+
+    /**
+     * @param size image size in pixels, 0 for one pixel per module
+     */
+    private BitMatrix encode(String data, int size) {
         try {
-            BitMatrix bitMatrix = barcodeWriter.encode(data, BarcodeFormat.QR_CODE, SIZE, SIZE);
-            BufferedImage bufferedImage = MatrixToImageWriter.toBufferedImage(bitMatrix);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(bufferedImage, IMG_FORMAT, baos);
-            return "data:image/png;base64, ".concat(Base64.encodeBase64String(baos.toByteArray()));
-        } catch (Exception e) {
+            return new QRCodeWriter().encode(data, BarcodeFormat.QR_CODE, size, size, hints);
+        } catch (WriterException e) {
             throw new RuntimeException(e);
         }
     }
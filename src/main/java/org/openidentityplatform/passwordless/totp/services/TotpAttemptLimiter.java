@@ -0,0 +1,44 @@
+package org.openidentityplatform.passwordless.totp.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.openidentityplatform.passwordless.totp.configuration.TotpAttemptsConfiguration;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-user count of TOTP verifications since the last valid code, kept in memory for a fixed window
+ * from the first failure. Attempts are counted before the code is checked, so concurrent requests cannot exceed the limit
+ */
+@Component
+public class TotpAttemptLimiter {
+
+    private final int maxFailures;
+
+    private final Cache<String, AtomicInteger> attempts;
+
+    public TotpAttemptLimiter(TotpAttemptsConfiguration configuration) {
+        this.maxFailures = configuration.getMaxFailures();
+        this.attempts = Caffeine.newBuilder()
+                .maximumSize(configuration.getMaximumSize())
+                .expireAfterWrite(Duration.ofSeconds(configuration.getWindowSeconds()))
+                .build();
+    }
+
+    /**
+     * Counts an attempt of the user
+     * @return false if the user has already used up the failures of the window
+     */
+    public boolean tryAcquire(String username) {
+        return attempts.get(username, name -> new AtomicInteger()).incrementAndGet() <= maxFailures;
+    }
+
+    /**
+     * Clears the count of the user after a valid code
+     */
+    public void reset(String username) {
+        attempts.invalidate(username);
+    }
+}
@@ -0,0 +1,108 @@
+package org.openidentityplatform.passwordless.totp.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.openidentityplatform.passwordless.otp.services.BadRequestException;
+import org.openidentityplatform.passwordless.totp.configuration.TotpBatchConfiguration;
+import org.openidentityplatform.passwordless.totp.models.BatchVerificationResult;
+import org.openidentityplatform.passwordless.totp.models.VerificationRequest;
+import org.springframework.stereotype.Service;
+
+import java.security.Key;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Verifies many TOTP codes in one request: the keys of each chunk are loaded with one query and the codes are
+ * checked in parallel, each worker thread reusing its own Mac. Results are reported chunk by chunk in request order.
+ * A username may appear once per batch, and every item counts against the user's failed attempts as a single
+ * verification does.
+ */
+@Service
+@Log4j2
+public class TotpBatchVerifyService {
+
+    private final TotpBatchConfiguration configuration;
+    private final TotpService totpService;
+    private final ForkJoinPool pool;
+    private final Map<BatchVerificationResult.Status, Counter> results = new EnumMap<>(BatchVerificationResult.Status.class);
+
+    public TotpBatchVerifyService(TotpBatchConfiguration configuration, TotpService totpService,
+                                  MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.totpService = totpService;
+        this.pool = new ForkJoinPool(configuration.getParallelism());
+        for (BatchVerificationResult.Status status : BatchVerificationResult.Status.values()) {
+            results.put(status, Counter.builder("totp.batch.verified").tag("status", status.name()).register(meterRegistry));
+        }
+    }
+
+    public void validate(List<VerificationRequest> items) throws BadRequestException {
+        if (items.size() > configuration.getMaxItems()) {
+            throw new BadRequestException("at most " + configuration.getMaxItems() + " items per batch");
+        }
+        Set<String> usernames = new HashSet<>();
+        for (VerificationRequest item : items) {
+            if (!usernames.add(item.getUsername())) {
+                throw new BadRequestException("usernames must be unique within a batch");
+            }
+        }
+    }
+
+    /**
+     * @param consumer receives the results of each chunk, in request order
+     */
+    public void verify(List<VerificationRequest> items, Consumer<List<BatchVerificationResult>> consumer)
+            throws InterruptedException {
+        for (int from = 0; from < items.size(); from += configuration.getChunkSize()) {
+            List<VerificationRequest> chunk = items.subList(from, Math.min(from + configuration.getChunkSize(), items.size()));
+            consumer.accept(verifyChunk(chunk));
+        }
+    }
+
+    private List<BatchVerificationResult> verifyChunk(List<VerificationRequest> chunk) throws InterruptedException {
+        Set<String> usernames = new LinkedHashSet<>();
+        chunk.forEach(item -> usernames.add(item.getUsername()));
+        Map<String, Key> keys = totpService.loadKeys(usernames);
+
+        BatchVerificationResult[] chunkResults = new BatchVerificationResult[chunk.size()];
+        try {
+            pool.submit(() -> IntStream.range(0, chunk.size()).parallel().forEach(i -> {
+                VerificationRequest item = chunk.get(i);
+                Key key = keys.get(item.getUsername());
+                BatchVerificationResult.Status status;
+                if (key == null) {
+                    status = BatchVerificationResult.Status.USER_NOT_FOUND;
+                } else {
+                    try {
+                        status = totpService.verify(item.getUsername(), key, item.getTotp())
+                                ? BatchVerificationResult.Status.VALID : BatchVerificationResult.Status.INVALID;
+                    } catch (TotpVerifyAttemptsExceeded e) {
+                        status = BatchVerificationResult.Status.ATTEMPTS_EXCEEDED;
+                    }
+                }
+                results.get(status).increment();
+                chunkResults[i] = new BatchVerificationResult(item.getUsername(), status);
+            })).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return Arrays.asList(chunkResults);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
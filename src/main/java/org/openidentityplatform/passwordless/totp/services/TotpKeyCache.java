@@ -0,0 +1,88 @@
+package org.openidentityplatform.passwordless.totp.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.log4j.Log4j2;
+import org.openidentityplatform.passwordless.totp.configuration.TotpKeyCacheConfiguration;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.security.Key;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Bounded, expiring cache of username to decoded TOTP key, so verification skips the database and Base32 decoding.
+ * With {@code totp.key-cache.invalidation: redis} invalidations are published to the other nodes.
+ */
+@Component
+@Log4j2
+public class TotpKeyCache {
+
+    private final Cache<String, Key> cache;
+    private final StringRedisTemplate redisTemplate;
+    private final String channel;
+
+    public TotpKeyCache(TotpKeyCacheConfiguration configuration, MeterRegistry meterRegistry) {
+        this(configuration, meterRegistry, null);
+    }
+
+    @Autowired
+    public TotpKeyCache(TotpKeyCacheConfiguration configuration, MeterRegistry meterRegistry,
+                        ObjectProvider<StringRedisTemplate> redisTemplate) {
+        this.redisTemplate = configuration.getInvalidation() == TotpKeyCacheConfiguration.Invalidation.REDIS
+                ? redisTemplate.getObject() : null;
+        this.channel = configuration.getChannel();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(configuration.getMaximumSize())
+                .expireAfterWrite(Duration.ofSeconds(configuration.getTtlSeconds()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "totpKeyCache");
+    }
+
+    /**
+     * @param loader loads the key of a user missing from the cache, null for an unknown user, which is not cached
+     */
+    public Optional<Key> get(String username, Function<String, Key> loader) {
+        return Optional.ofNullable(cache.get(username, loader));
+    }
+
+    /**
+     * @param loader loads the keys of the users missing from the cache in one call, leaving out unknown users
+     * @return keys of the known users
+     */
+    public Map<String, Key> getAll(Collection<String> usernames,
+                                   Function<Set<? extends String>, Map<String, Key>> loader) {
+        return cache.getAll(usernames, loader);
+    }
+
+    /**
+     * Evicts the key of a user on this node and, with Redis invalidation, on every other node
+     */
+    public void invalidate(String username) {
+        cache.invalidate(username);
+        if (redisTemplate != null) {
+            try {
+                redisTemplate.convertAndSend(channel, username);
+            } catch (RuntimeException e) {
+                log.warn("failed to publish TOTP key invalidation of {}, other nodes drop it within the TTL", username, e);
+            }
+        }
+    }
+
+    /**
+     * Evicts the key of a user on this node only, for invalidations published by other nodes
+     */
+    public void evict(String username) {
+        cache.invalidate(username);
+    }
+}
@@ -0,0 +1,179 @@
+package org.openidentityplatform.passwordless.totp.services;
+
+import lombok.extern.log4j.Log4j2;
+import org.openidentityplatform.passwordless.totp.configuration.TotpEncryptionConfiguration;
+import org.openidentityplatform.passwordless.totp.models.RegisteredTotp;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Envelope encryption of TOTP secrets. Each secret is encrypted by AES-GCM under its own random data key, with the
+ * username as associated data so a ciphertext cannot be moved to another record. The data key is stored wrapped
+ * (RFC 3394) by a master key of the keystore, so rotating the master key only re-wraps data keys.
+ * Decryption runs only when {@link TotpKeyCache} misses.
+ */
+@Component
+@Log4j2
+public class TotpSecretCipher {
+
+    private static final String SECRET_TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final String WRAP_TRANSFORMATION = "AESWrap";
+
+    private static final int IV_LENGTH = 12;
+
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private static final int DATA_KEY_LENGTH = 32;
+
+    private final boolean enabled;
+
+    private final String activeKeyAlias;
+
+    private final Map<String, SecretKey> masterKeys;
+
+    private final SecureRandom secureRandom;
+
+    public TotpSecretCipher(TotpEncryptionConfiguration configuration, SecureRandom secureRandom) {
+        this.enabled = configuration.isEnabled();
+        this.activeKeyAlias = configuration.getActiveKeyAlias();
+        this.secureRandom = secureRandom;
+        if (!enabled) {
+            log.warn("totp.encryption.enabled is false, TOTP secrets are stored in plaintext");
+            this.masterKeys = Collections.emptyMap();
+            return;
+        }
+        this.masterKeys = loadMasterKeys(configuration);
+        if (!masterKeys.containsKey(activeKeyAlias)) {
+            throw new IllegalStateException("master key " + activeKeyAlias + " not found in " + configuration.getKeystorePath());
+        }
+        log.info("TOTP secrets are encrypted, active master key {}, {} master keys loaded", activeKeyAlias, masterKeys.size());
+    }
+
+    private static Map<String, SecretKey> loadMasterKeys(TotpEncryptionConfiguration configuration) {
+        if (configuration.getKeystorePath() == null || configuration.getKeystorePassword() == null) {
+            throw new IllegalStateException("totp.encryption.keystorePath and keystorePassword must be set");
+        }
+        char[] password = configuration.getKeystorePassword().toCharArray();
+        Map<String, SecretKey> keys = new HashMap<>();
+        try (InputStream inputStream = Files.newInputStream(Path.of(configuration.getKeystorePath()))) {
+            KeyStore keyStore = KeyStore.getInstance(configuration.getKeystoreType());
+            keyStore.load(inputStream, password);
+            for (String alias : Collections.list(keyStore.aliases())) {
+                Key key = keyStore.getKey(alias, password);
+                if (key instanceof SecretKey secretKey) {
+                    keys.put(alias, secretKey);
+                }
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("failed to load TOTP master keys from " + configuration.getKeystorePath(), e);
+        }
+        return keys;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getActiveKeyAlias() {
+        return activeKeyAlias;
+    }
+
+    /**
+     * Stores the secret in the record, encrypted under a new data key wrapped by the active master key,
+     * or in plaintext if encryption is disabled
+     */
+    public void seal(RegisteredTotp registeredTotp, String secret) {
+        if (!enabled) {
+            registeredTotp.setSecret(secret);
+            registeredTotp.setEncryptedSecret(null);
+            registeredTotp.setWrappedKey(null);
+            registeredTotp.setMasterKeyAlias(null);
+            return;
+        }
+        try {
+            byte[] dataKeyBytes = new byte[DATA_KEY_LENGTH];
+            secureRandom.nextBytes(dataKeyBytes);
+            SecretKey dataKey = new SecretKeySpec(dataKeyBytes, "AES");
+            byte[] iv = new byte[IV_LENGTH];
+            secureRandom.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(SECRET_TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, dataKey, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            cipher.updateAAD(registeredTotp.getUsername().getBytes(StandardCharsets.UTF_8));
+            byte[] ciphertext = cipher.doFinal(secret.getBytes(StandardCharsets.US_ASCII));
+            byte[] encrypted = ByteBuffer.allocate(IV_LENGTH + ciphertext.length).put(iv).put(ciphertext).array();
+            registeredTotp.setSecret(null);
+            registeredTotp.setEncryptedSecret(Base64.getEncoder().encodeToString(encrypted));
+            registeredTotp.setWrappedKey(wrap(dataKey));
+            registeredTotp.setMasterKeyAlias(activeKeyAlias);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the secret of the record, decrypted unless it is still in plaintext
+     */
+    public String open(RegisteredTotp registeredTotp) {
+        if (registeredTotp.getWrappedKey() == null) {
+            return registeredTotp.getSecret();
+        }
+        try {
+            SecretKey dataKey = unwrap(registeredTotp);
+            byte[] encrypted = Base64.getDecoder().decode(registeredTotp.getEncryptedSecret());
+            Cipher cipher = Cipher.getInstance(SECRET_TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, dataKey, new GCMParameterSpec(TAG_LENGTH_BITS, encrypted, 0, IV_LENGTH));
+            cipher.updateAAD(registeredTotp.getUsername().getBytes(StandardCharsets.UTF_8));
+            byte[] secret = cipher.doFinal(encrypted, IV_LENGTH, encrypted.length - IV_LENGTH);
+            return new String(secret, StandardCharsets.US_ASCII);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("failed to decrypt the TOTP secret of " + registeredTotp.getUsername(), e);
+        }
+    }
+
+    /**
+     * @return the record's data key wrapped by the active master key; the encrypted secret is unchanged
+     */
+    public String rewrap(RegisteredTotp registeredTotp) {
+        try {
+            return wrap(unwrap(registeredTotp));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("failed to re-wrap the TOTP data key of " + registeredTotp.getUsername(), e);
+        }
+    }
+
+    private String wrap(SecretKey dataKey) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+        cipher.init(Cipher.WRAP_MODE, masterKeys.get(activeKeyAlias));
+        return Base64.getEncoder().encodeToString(cipher.wrap(dataKey));
+    }
+
+    private SecretKey unwrap(RegisteredTotp registeredTotp) throws GeneralSecurityException {
+        SecretKey masterKey = masterKeys.get(registeredTotp.getMasterKeyAlias());
+        if (masterKey == null) {
+            throw new IllegalStateException("master key " + registeredTotp.getMasterKeyAlias() + " of the TOTP secret of "
+                    + registeredTotp.getUsername() + " is not in the keystore");
+        }
+        Cipher cipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+        cipher.init(Cipher.UNWRAP_MODE, masterKey);
+        return (SecretKey) cipher.unwrap(Base64.getDecoder().decode(registeredTotp.getWrappedKey()), "AES", Cipher.SECRET_KEY);
+    }
+}
@@ -0,0 +1,127 @@
+package org.openidentityplatform.passwordless.totp.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.openidentityplatform.passwordless.housekeeping.services.LeaderLockService;
+import org.openidentityplatform.passwordless.totp.configuration.TotpEncryptionConfiguration;
+import org.openidentityplatform.passwordless.totp.models.RegisteredTotp;
+import org.openidentityplatform.passwordless.totp.repository.RegisteredTotpRepository;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Brings every TOTP record under the active master key, on one node of the cluster at a time: plaintext secrets are
+ * encrypted and data keys wrapped by older master keys are re-wrapped, batch by batch. Each record is written by a
+ * conditional UPDATE, so a registration racing the job is never overwritten. Secrets do not change, so
+ * {@link TotpKeyCache} stays valid.
+ */
+@Component
+@Log4j2
+public class TotpSecretRotationJob {
+
+    static final String LOCK_NAME = "totp-secret-rotation";
+
+    private final TotpEncryptionConfiguration configuration;
+    private final TotpSecretCipher totpSecretCipher;
+    private final RegisteredTotpRepository totpRepository;
+    private final LeaderLockService leaderLockService;
+    private final Counter rotated;
+    private final Counter failed;
+
+    public TotpSecretRotationJob(TotpEncryptionConfiguration configuration, TotpSecretCipher totpSecretCipher,
+                                 RegisteredTotpRepository totpRepository, LeaderLockService leaderLockService,
+                                 MeterRegistry meterRegistry) {
+        this.configuration = configuration;
+        this.totpSecretCipher = totpSecretCipher;
+        this.totpRepository = totpRepository;
+        this.leaderLockService = leaderLockService;
+        this.rotated = Counter.builder("totp.secrets.rotated").register(meterRegistry);
+        this.failed = Counter.builder("totp.secrets.rotation.failed").register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${totp.encryption.rotationInitialDelayMs:120000}",
+            fixedDelayString = "${totp.encryption.rotationIntervalMs:3600000}")
+    public void rotate() {
+        if (!totpSecretCipher.isEnabled() || !configuration.isRotationEnabled()) {
+            return;
+        }
+        try {
+            if (!leaderLockService.tryAcquire(LOCK_NAME, Duration.ofMillis(configuration.getRotationLockAtMostMs()))) {
+                return;
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to acquire the TOTP secret rotation lock", e);
+            return;
+        }
+        try {
+            rotateBatches(System.currentTimeMillis() + configuration.getRotationLockAtMostMs() * 4 / 5);
+        } finally {
+            try {
+                leaderLockService.release(LOCK_NAME);
+            } catch (RuntimeException e) {
+                log.warn("Failed to release the TOTP secret rotation lock, it expires on its own", e);
+            }
+        }
+    }
+
+    /**
+     * Rotates batches in id order until none is left or {@code deadline} passes. A record that fails is counted and
+     * skipped, and is retried by the next run
+     * @return records rotated
+     */
+    long rotateBatches(long deadline) {
+        final String alias = totpSecretCipher.getActiveKeyAlias();
+        final int batchSize = configuration.getRotationBatchSize();
+        long total = 0;
+        long failures = 0;
+        String lastId = "";
+        List<RegisteredTotp> batch;
+        do {
+            batch = totpRepository.findNotWrappedBy(alias, lastId, PageRequest.ofSize(batchSize));
+            int done = 0;
+            for (RegisteredTotp registeredTotp : batch) {
+                try {
+                    if (rotate(registeredTotp, alias)) {
+                        done++;
+                    }
+                } catch (RuntimeException e) {
+                    failures++;
+                    failed.increment();
+                    log.error("Failed to rotate the TOTP secret of {}", registeredTotp.getUsername(), e);
+                }
+                lastId = registeredTotp.getId();
+            }
+            total += done;
+            rotated.increment(done);
+        } while (batch.size() == batchSize && System.currentTimeMillis() < deadline);
+        if (total > 0) {
+            log.info("Rotated {} TOTP secrets to master key {}", total, alias);
+        }
+        if (failures > 0) {
+            log.warn("{} TOTP secrets could not be rotated to master key {}", failures, alias);
+        }
+        return total;
+    }
+
+    /**
+     * @return false if the record changed since it was read, a new registration is already under the active key
+     */
+    private boolean rotate(RegisteredTotp registeredTotp, String alias) {
+        if (registeredTotp.getWrappedKey() == null) {
+            final String secret = registeredTotp.getSecret();
+            if (secret == null) {
+                return false;
+            }
+            totpSecretCipher.seal(registeredTotp, secret);
+            return totpRepository.encryptPlaintext(registeredTotp.getId(), secret, registeredTotp.getEncryptedSecret(),
+                    registeredTotp.getWrappedKey(), alias) == 1;
+        }
+        final String wrappedKey = totpSecretCipher.rewrap(registeredTotp);
+        return totpRepository.rewrap(registeredTotp.getId(), registeredTotp.getWrappedKey(), wrappedKey, alias) == 1;
+    }
+}
@@ -1,16 +1,17 @@
 package org.openidentityplatform.passwordless.totp.services;
 
 import com.eatthepath.otp.TimeBasedOneTimePasswordGenerator;
-import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.codec.binary.Base32;
 import org.openidentityplatform.passwordless.totp.configuration.TotpConfiguration;
 import org.openidentityplatform.passwordless.totp.models.RegisteredTotp;
 import org.openidentityplatform.passwordless.totp.repository.RegisteredTotpRepository;
+import org.openidentityplatform.passwordless.totp.repository.TotpStepLedger;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import java.net.URI;
 import java.net.URLEncoder;
@@ -19,24 +20,73 @@ import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 @Log4j2
-@AllArgsConstructor
 public class TotpService {
 
-    private RegisteredTotpRepository totpRepository;
+    private final RegisteredTotpRepository totpRepository;
 
-    private TimeBasedOneTimePasswordGenerator generator;
+    private final TimeBasedOneTimePasswordGenerator generator;
 
-    private TotpConfiguration totpConfiguration;
+    private final TotpConfiguration totpConfiguration;
+
+    private final TotpKeyCache totpKeyCache;
+
+    private final TotpStepLedger totpStepLedger;
+
+    private final TotpSecretCipher totpSecretCipher;
+
+    private final TotpAttemptLimiter totpAttemptLimiter;
+
+    /**
+     * Per-thread Mac of the generator algorithm, re-keyed for each verification instead of created
+     */
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * Per-thread buffer of the counter and then the HMAC result
+     */
+    private final ThreadLocal<byte[]> buffers;
+
+    private final int modDivisor;
 
     private static final String URI_TEMPLATE = "otpauth://totp/{0}:{1}@{2}?secret={3}&issuer={0}";
 
+    public TotpService(RegisteredTotpRepository totpRepository, TimeBasedOneTimePasswordGenerator generator,
+                       TotpConfiguration totpConfiguration, TotpKeyCache totpKeyCache, TotpStepLedger totpStepLedger,
+                       TotpSecretCipher totpSecretCipher, TotpAttemptLimiter totpAttemptLimiter) {
+        this.totpRepository = totpRepository;
+        this.generator = generator;
+        this.totpConfiguration = totpConfiguration;
+        this.totpKeyCache = totpKeyCache;
+        this.totpStepLedger = totpStepLedger;
+        this.totpSecretCipher = totpSecretCipher;
+        this.totpAttemptLimiter = totpAttemptLimiter;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                return Mac.getInstance(generator.getAlgorithm());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.buffers = ThreadLocal.withInitial(() -> new byte[Math.max(Long.BYTES, macs.get().getMacLength())]);
+        int modDivisor = 1;
+        for (int i = 0; i < generator.getPasswordLength(); i++) {
+            modDivisor *= 10;
+        }
+        this.modDivisor = modDivisor;
+    }
+
     public URI register(String username) {
-        Optional<RegisteredTotp> registeredTotpOptional = totpRepository.findById(username);
+        Optional<RegisteredTotp> registeredTotpOptional = totpRepository.findByUsername(username);
         final RegisteredTotp registeredTotp;
         if(registeredTotpOptional.isPresent()) {
             registeredTotp = registeredTotpOptional.get();
@@ -45,8 +95,13 @@ public class TotpService {
             registeredTotp.setUsername(username);
         }
         final String secret = generateKey();
-        registeredTotp.setSecret(secret);
+        totpSecretCipher.seal(registeredTotp, secret);
         totpRepository.save(registeredTotp);
+        totpKeyCache.invalidate(username);
+        return buildUri(username, secret);
+    }
+
+    private URI buildUri(String username, String secret) {
         final String issuerLabelEncoded = URLEncoder.encode(totpConfiguration.getIssuerLabel(), StandardCharsets.UTF_8);
         final String usernameEncoded = URLEncoder.encode(username, StandardCharsets.UTF_8);
         final String issuerEncoded = URLEncoder.encode(totpConfiguration.getIssuer(), StandardCharsets.UTF_8);
@@ -74,21 +129,106 @@ public class TotpService {
         return new SecretKeySpec(b, 0, b.length, generator.getAlgorithm());
     }
 
-    public boolean verify(String username, Integer totp) throws UserNotFoundException {
-        Optional<RegisteredTotp> registeredTotpOptional = totpRepository.findById(username);
-        if(registeredTotpOptional.isEmpty()) {
+    /**
+     * Checks the code against the user's key, taken from {@link TotpKeyCache}, for the current time step and
+     * {@code totp.driftSteps} steps either side, keying the thread's reusable Mac once.
+     * A matched step is accepted only if it is later than the last step accepted for the user, so a code cannot be replayed
+     * @throws TotpVerifyAttemptsExceeded when the user has no failed attempts left, see {@link TotpAttemptLimiter}
+     */
+    public boolean verify(String username, Integer totp) throws UserNotFoundException, TotpVerifyAttemptsExceeded {
+        Optional<Key> key = totpKeyCache.get(username, this::loadKey);
+        if(key.isEmpty()) {
             throw new UserNotFoundException();
         }
-        RegisteredTotp registeredTotp = registeredTotpOptional.get();
-        Key key = restoreKey(registeredTotp.getSecret());
+        return verify(username, key.get(), totp);
+    }
 
-        final int generatedTotp;
+    /**
+     * Checks the code against a key already loaded, see {@link #verify(String, Integer)}
+     */
+    boolean verify(String username, Key key, int totp) throws TotpVerifyAttemptsExceeded {
+        if (!totpAttemptLimiter.tryAcquire(username)) {
+            log.warn("totp verify attempts of user {} exceeded", username);
+            throw new TotpVerifyAttemptsExceeded();
+        }
+        final long stepMillis = generator.getTimeStep().toMillis();
+        final long currentStep = System.currentTimeMillis() / stepMillis;
+        final int driftSteps = totpConfiguration.getDriftSteps();
+        final Mac mac = macs.get();
         try {
-            generatedTotp = generator.generateOneTimePassword(key, Instant.now());
+            mac.init(key);
         } catch (InvalidKeyException e) {
             log.error("totp generation error occurred", e);
             throw new RuntimeException(e);
         }
-        return generatedTotp == totp;
+        // current step first, then -1, +1, -2, +2...
+        for (int i = 0; i <= 2 * driftSteps; i++) {
+            final long step = currentStep + ((i & 1) == 1 ? -(i + 1) / 2 : i / 2);
+            if (generateOneTimePassword(mac, step) == totp) {
+                // no code of the step can match once the window has moved past it
+                final Duration retention = Duration.ofMillis((2L * driftSteps + 2) * stepMillis);
+                if (!totpStepLedger.tryAccept(username, step, retention)) {
+                    log.warn("replayed totp of user {} rejected", username);
+                    return false;
+                }
+                totpAttemptLimiter.reset(username);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Key loadKey(String username) {
+        return totpRepository.findByUsername(username)
+                .map(registeredTotp -> restoreKey(totpSecretCipher.open(registeredTotp)))
+                .orElse(null);
+    }
+
+    /**
+     * Keys of the users, taken from {@link TotpKeyCache} and loading the missing ones in one query;
+     * unknown users are left out
+     */
+    Map<String, Key> loadKeys(Collection<String> usernames) {
+        return totpKeyCache.getAll(usernames, missing -> {
+            Map<String, Key> keys = new HashMap<>();
+            for (RegisteredTotp registeredTotp : totpRepository.findAllByUsernameIn(Set.copyOf(missing))) {
+                keys.put(registeredTotp.getUsername(), restoreKey(totpSecretCipher.open(registeredTotp)));
+            }
+            return keys;
+        });
+    }
+
+    /**
+     * RFC 6238 code of the time step of {@code timestamp}, the same as {@link TimeBasedOneTimePasswordGenerator}
+     * computes without allocating a Mac and buffers per call
+     */
+    int generateOneTimePassword(Key key, Instant timestamp) throws InvalidKeyException {
+        Mac mac = macs.get();
+        mac.init(key);
+        return generateOneTimePassword(mac, timestamp.toEpochMilli() / generator.getTimeStep().toMillis());
+    }
+
+    /**
+     * Code of the time step with a keyed Mac, which is left ready for the next step
+     */
+    private int generateOneTimePassword(Mac mac, long step) {
+        long counter = step;
+        byte[] buffer = buffers.get();
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            buffer[i] = (byte) counter;
+            counter >>>= 8;
+        }
+        mac.update(buffer, 0, Long.BYTES);
+        try {
+            mac.doFinal(buffer, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        int offset = buffer[mac.getMacLength() - 1] & 0x0f;
+        int binary = ((buffer[offset] & 0x7f) << 24)
+                | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8)
+                | (buffer[offset + 3] & 0xff);
+        return binary % modDivisor;
     }
 }
@@ -0,0 +1,9 @@
+package org.openidentityplatform.passwordless.totp.services;
+
+import org.openidentityplatform.passwordless.otp.services.BadRequestException;
+
+public class TotpVerifyAttemptsExceeded extends BadRequestException {
+    public TotpVerifyAttemptsExceeded() {
+        super("TOTP verify attempts exceeded");
+    }
+}
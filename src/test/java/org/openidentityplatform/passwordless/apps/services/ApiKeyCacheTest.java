@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.apps.configuration.ApiKeyCacheConfiguration;
+import org.openidentityplatform.passwordless.apps.models.RegisteredApp;
+
+import java.security.SecureRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApiKeyCacheTest {
+
+    private ApiKeyCache apiKeyCache;
+
+    @BeforeEach
+    void setUp() {
+        ApiKeyCacheConfiguration configuration = new ApiKeyCacheConfiguration();
+        configuration.setMaximumSize(100);
+        apiKeyCache = new ApiKeyCache(configuration, new SecureRandom(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void get_AfterPut_ReturnsApp() {
+        RegisteredApp app = new RegisteredApp();
+        app.setId("app1");
+
+        assertTrue(apiKeyCache.get("pk_key").isEmpty());
+        apiKeyCache.put("pk_key", app, apiKeyCache.generation());
+
+        assertSame(app, apiKeyCache.get("pk_key").orElseThrow());
+        assertTrue(apiKeyCache.get("pk_other").isEmpty());
+        assertEquals(1, apiKeyCache.stats().hitCount());
+        assertEquals(2, apiKeyCache.stats().missCount());
+    }
+
+    @Test
+    void invalidateApp_RemovesOnlyThatApp() {
+        RegisteredApp app1 = new RegisteredApp();
+        app1.setId("app1");
+        RegisteredApp app2 = new RegisteredApp();
+        app2.setId("app2");
+        apiKeyCache.put("pk_key1", app1, apiKeyCache.generation());
+        apiKeyCache.put("pk_key2", app2, apiKeyCache.generation());
+
+        apiKeyCache.invalidateApp("app1");
+
+        assertTrue(apiKeyCache.get("pk_key1").isEmpty());
+        assertTrue(apiKeyCache.get("pk_key2").isPresent());
+    }
+
+    @Test
+    void put_AfterInvalidation_IsDropped() {
+        RegisteredApp app = new RegisteredApp();
+        app.setId("app1");
+        long generation = apiKeyCache.generation();
+
+        apiKeyCache.invalidateApp("app1");
+        apiKeyCache.put("pk_key", app, generation);
+
+        assertTrue(apiKeyCache.get("pk_key").isEmpty());
+    }
+}
@@ -33,6 +33,8 @@ import java.util.Optional;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 class AppRegistrationServiceTest {
@@ -46,6 +48,12 @@ class AppRegistrationServiceTest {
     @Mock
     private SecureRandom secureRandom;
 
+    @Mock
+    private ApiKeyCache apiKeyCache;
+
+    @Mock
+    private AppUsageTracker appUsageTracker;
+
     @InjectMocks
     private AppRegistrationService appRegistrationService;
 
@@ -94,7 +102,8 @@ class AppRegistrationServiceTest {
         assertEquals(rateLimitPerHour, result.getRateLimitPerHour());
 
         verify(appRepository).existsByName(appName);
-        verify(appRepository).save(any(RegisteredApp.class));
+        verify(appRepository).save(argThat(app -> app.getKeyId() != null
+                && app.getApiKey().startsWith("pk_" + app.getKeyId() + "_")));
     }
 
     @Test
@@ -163,16 +172,101 @@ class AppRegistrationServiceTest {
         app.setActive(true);
         app.setApiKeyHash("hashedKey");
 
-        when(appRepository.findAll()).thenReturn(Arrays.asList(app));
+        when(appRepository.findByKeyIdIsNullAndActiveTrue()).thenReturn(Arrays.asList(app));
         when(passwordEncoder.matches(apiKey, app.getApiKeyHash())).thenReturn(true);
-        when(appRepository.save(any(RegisteredApp.class))).thenReturn(app);
 
         // When
         boolean result = appRegistrationService.validateApiKey(apiKey);
 
         // Then
         assertTrue(result);
-        verify(appRepository).save(any(RegisteredApp.class));
+        verify(appUsageTracker).recordUsage(eq("app-id-123"), any());
+        verify(appRepository, never()).save(any(RegisteredApp.class));
+    }
+
+    @Test
+    void getAppByApiKey_KeyedLookup_VerifiesSingleApp() {
+        // Given
+        String keyId = "0123456789abcdef";
+        String apiKey = "pk_" + keyId + "_c2VjcmV0";
+        RegisteredApp app = new RegisteredApp();
+        app.setId("app-id-123");
+        app.setName("TestApp");
+        app.setActive(true);
+        app.setKeyId(keyId);
+        app.setApiKeyHash("hashedKey");
+
+        when(appRepository.findByKeyIdAndActiveTrue(keyId)).thenReturn(Optional.of(app));
+        when(passwordEncoder.matches(apiKey, app.getApiKeyHash())).thenReturn(true);
+
+        // When
+        Optional<RegisteredApp> result = appRegistrationService.getAppByApiKey(apiKey);
+
+        // Then
+        assertTrue(result.isPresent());
+        assertEquals("app-id-123", result.get().getId());
+        verify(passwordEncoder, times(1)).matches(anyString(), anyString());
+        verify(appRepository, never()).findByKeyIdIsNullAndActiveTrue();
+        verify(appRepository, never()).findAll();
+    }
+
+    @Test
+    void getAppByApiKey_UnknownKeyId_ReturnsEmpty() {
+        // Given
+        String apiKey = "pk_0123456789abcdef_c2VjcmV0";
+        when(appRepository.findByKeyIdAndActiveTrue("0123456789abcdef")).thenReturn(Optional.empty());
+
+        // When
+        Optional<RegisteredApp> result = appRegistrationService.getAppByApiKey(apiKey);
+
+        // Then
+        assertTrue(result.isEmpty());
+        verify(passwordEncoder, never()).matches(anyString(), anyString());
+        verify(appRepository, never()).save(any(RegisteredApp.class));
+    }
+
+    @Test
+    void getAppByApiKey_CachedKey_SkipsVerification() {
+        // Given
+        String apiKey = "pk_0123456789abcdef_c2VjcmV0";
+        RegisteredApp app = new RegisteredApp();
+        app.setId("app-id-123");
+        when(apiKeyCache.get(apiKey)).thenReturn(Optional.of(app));
+
+        // When
+        Optional<RegisteredApp> result = appRegistrationService.getAppByApiKey(apiKey);
+
+        // Then
+        assertTrue(result.isPresent());
+        verify(passwordEncoder, never()).matches(anyString(), anyString());
+        verify(appRepository, never()).findByKeyIdAndActiveTrue(anyString());
+        verify(appUsageTracker).recordUsage(eq("app-id-123"), any());
+    }
+
+    @Test
+    void getAppByApiKey_VerifiedKey_IsCached() {
+        // Given
+        String keyId = "0123456789abcdef";
+        String apiKey = "pk_" + keyId + "_c2VjcmV0";
+        RegisteredApp app = new RegisteredApp();
+        app.setId("app-id-123");
+        app.setApiKeyHash("hashedKey");
+        when(appRepository.findByKeyIdAndActiveTrue(keyId)).thenReturn(Optional.of(app));
+        when(passwordEncoder.matches(apiKey, app.getApiKeyHash())).thenReturn(true);
+
+        // When
+        appRegistrationService.getAppByApiKey(apiKey);
+
+        // Then
+        verify(apiKeyCache).put(apiKey, app, 0L);
+    }
+
+    @Test
+    void extractKeyId() {
+        assertEquals("0123456789abcdef", AppRegistrationService.extractKeyId("pk_0123456789abcdef_c2VjcmV0"));
+        assertNull(AppRegistrationService.extractKeyId("pk_c2VjcmV0c2VjcmV0c2VjcmV0c2VjcmV0c2VjcmV0"));
+        assertNull(AppRegistrationService.extractKeyId("pk_0123456789abcdeg_c2VjcmV0"));
+        assertNull(AppRegistrationService.extractKeyId("valid-api-key"));
     }
 
     @Test
@@ -183,7 +277,7 @@ class AppRegistrationServiceTest {
         app.setActive(true);
         app.setApiKeyHash("hashedKey");
 
-        when(appRepository.findAll()).thenReturn(Arrays.asList(app));
+        when(appRepository.findByKeyIdIsNullAndActiveTrue()).thenReturn(Arrays.asList(app));
         when(passwordEncoder.matches(apiKey, app.getApiKeyHash())).thenReturn(false);
 
         // When
@@ -212,6 +306,7 @@ class AppRegistrationServiceTest {
         // Then
         verify(appRepository).findById(appId);
         verify(appRepository).save(any(RegisteredApp.class));
+        verify(apiKeyCache).invalidateApp(appId);
     }
 
     @Test
@@ -239,6 +334,7 @@ class AppRegistrationServiceTest {
 
         // Then
         verify(appRepository).deleteById(appId);
+        verify(apiKeyCache).invalidateApp(appId);
     }
 
     @Test
@@ -259,7 +355,9 @@ class AppRegistrationServiceTest {
 
         // Then
         assertNotNull(newApiKey);
-        assertTrue(newApiKey.startsWith("pk_"));
+        assertTrue(newApiKey.startsWith("pk_" + app.getKeyId() + "_"));
+        assertEquals(app.getKeyId(), AppRegistrationService.extractKeyId(newApiKey));
+        verify(apiKeyCache).invalidateApp(appId);
         verify(appRepository).findById(appId);
         verify(appRepository).save(any(RegisteredApp.class));
     }
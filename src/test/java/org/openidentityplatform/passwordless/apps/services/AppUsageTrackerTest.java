@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class AppUsageTrackerTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private AppUsageTracker appUsageTracker;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        appUsageTracker = new AppUsageTracker(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_CoalescesUsagePerApp() {
+        Instant first = Instant.parse("2026-01-01T00:00:00Z");
+        Instant latest = first.plusSeconds(10);
+        appUsageTracker.recordUsage("app1", first);
+        appUsageTracker.recordUsage("app1", latest);
+        appUsageTracker.recordUsage("app1", first.plusSeconds(5));
+        appUsageTracker.recordUsage("app2", first);
+
+        appUsageTracker.flush();
+
+        ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), batch.capture());
+        assertEquals(2, batch.getValue().size());
+        Object[] app1 = batch.getValue().stream().filter(args -> args[1].equals("app1")).findFirst().orElseThrow();
+        assertEquals(Timestamp.from(latest), app1[0]);
+    }
+
+    @Test
+    void flush_NothingRecorded_SkipsDatabase() {
+        appUsageTracker.flush();
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_Failure_KeepsUsageForNextFlush() {
+        appUsageTracker.recordUsage("app1", Instant.now());
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenThrow(new RuntimeException("db down"));
+        appUsageTracker.flush();
+
+        reset(jdbcTemplate);
+        appUsageTracker.shutdown();
+
+        ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(anyString(), batch.capture());
+        assertEquals(1, batch.getValue().size());
+    }
+}
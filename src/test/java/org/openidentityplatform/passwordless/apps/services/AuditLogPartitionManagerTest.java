@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.apps.configuration.AuditLogConfiguration;
+import org.openidentityplatform.passwordless.housekeeping.services.LeaderLockService;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AuditLogPartitionManagerTest {
+
+    private static final Instant NOW = Instant.parse("2026-10-17T12:00:00Z");
+
+    private AuditLogConfiguration configuration;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private LeaderLockService leaderLockService;
+
+    private AuditLogPartitionManager partitionManager;
+
+    @BeforeEach
+    void setUp() {
+        configuration = new AuditLogConfiguration();
+        configuration.setPartitionsAhead(2);
+        configuration.setRetentionDays(30);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        leaderLockService = mock(LeaderLockService.class);
+        when(leaderLockService.tryAcquire(eq(AuditLogPartitionManager.LOCK_NAME), any())).thenReturn(true);
+        partitionManager = new AuditLogPartitionManager(jdbcTemplate, configuration, leaderLockService);
+    }
+
+    @Test
+    void missingPeriods_NoPartitions_StartsWithCurrentDay() {
+        assertEquals(List.of(LocalDate.parse("2026-10-17"), LocalDate.parse("2026-10-18"), LocalDate.parse("2026-10-19")),
+                partitionManager.missingPeriods(List.of(), NOW));
+    }
+
+    @Test
+    void missingPeriods_ContinuesAfterNewestPartition() {
+        assertEquals(List.of(LocalDate.parse("2026-10-19")),
+                partitionManager.missingPeriods(List.of("p20261017", "p20261018", "pmax"), NOW));
+    }
+
+    @Test
+    void missingPeriods_Monthly() {
+        configuration.setPartitionInterval(AuditLogConfiguration.PartitionInterval.MONTH);
+
+        assertEquals(List.of(LocalDate.parse("2026-12-01")),
+                partitionManager.missingPeriods(List.of("p202610", "p202611", "pmax"), NOW));
+    }
+
+    @Test
+    void expiredPartitions_OnlyWholePeriodsBeforeRetention() {
+        List<String> existing = List.of("p20260916", "p20260917", "p20260918", "p202608", "p202609", "pmax");
+
+        assertEquals(List.of("p20260916", "p202608"), partitionManager.expiredPartitions(existing, NOW));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void maintain_WithoutPartitioning_DeletesExpiredRowsInChunks() {
+        configuration.setPurgeChunkSize(100);
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn("H2");
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(100, 100, 40);
+
+        partitionManager.maintain();
+
+        verify(jdbcTemplate, times(3)).update(eq("DELETE FROM audit_logs WHERE created_at < ? LIMIT 100"), any(Object[].class));
+        verify(jdbcTemplate, never()).execute(anyString());
+        verify(leaderLockService).release(AuditLogPartitionManager.LOCK_NAME);
+    }
+
+    @Test
+    void maintain_LockHeldByAnotherNode_DoesNothing() {
+        when(leaderLockService.tryAcquire(eq(AuditLogPartitionManager.LOCK_NAME), any())).thenReturn(false);
+
+        partitionManager.maintain();
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void maintain_MySql_PartitionsUnpartitionedTable() {
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn("MySQL");
+        when(jdbcTemplate.queryForObject(anyString(), eq(String.class), any(Object[].class))).thenReturn("datetime");
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), any(Object[].class))).thenReturn(List.of());
+
+        partitionManager.maintain();
+
+        verify(jdbcTemplate).execute("ALTER TABLE audit_logs DROP PRIMARY KEY, ADD PRIMARY KEY (id, created_at)");
+        verify(jdbcTemplate).execute(startsWith("ALTER TABLE audit_logs PARTITION BY RANGE COLUMNS (created_at) "
+                + "(PARTITION p20261017 VALUES LESS THAN ('2026-10-18 00:00:00'), "));
+        verify(jdbcTemplate).execute(endsWith("PARTITION pmax VALUES LESS THAN (MAXVALUE))"));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.openidentityplatform.passwordless.apps.configuration.AuditLogConfiguration;
+import org.openidentityplatform.passwordless.apps.models.AuditLog;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class AuditLogPipelineTest {
+
+    private AuditLogConfiguration configuration;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private AuditStatsService auditStatsService;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        configuration = new AuditLogConfiguration();
+        configuration.setQueueCapacity(4);
+        configuration.setBatchSize(3);
+        configuration.setFlushIntervalMs(10);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        auditStatsService = mock(AuditStatsService.class);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    private AuditLog auditLog(String eventType) {
+        AuditLog auditLog = new AuditLog();
+        auditLog.setAppId("app1");
+        auditLog.setEventType(eventType);
+        return auditLog;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void drainBatch_WritesUpToBatchSize() throws Exception {
+        AuditLogPipeline pipeline = new AuditLogPipeline(configuration, jdbcTemplate, auditStatsService, meterRegistry);
+        for (int i = 0; i < 4; i++) {
+            pipeline.submit(auditLog("API_REQUEST"));
+        }
+
+        assertEquals(3, pipeline.drainBatch());
+        assertEquals(1, pipeline.drainBatch());
+        assertEquals(0, pipeline.drainBatch());
+
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), rows.capture());
+        assertEquals(3, rows.getAllValues().get(0).size());
+        assertNotNull(rows.getAllValues().get(0).get(0)[0], "id is generated");
+        assertEquals(2, meterRegistry.get("audit.batch.size").summary().count());
+    }
+
+    @Test
+    void submit_QueueFull_DropsAndCounts() {
+        AuditLogPipeline pipeline = new AuditLogPipeline(configuration, jdbcTemplate, auditStatsService, meterRegistry);
+        for (int i = 0; i < 6; i++) {
+            pipeline.submit(auditLog("API_REQUEST"));
+        }
+
+        assertEquals(4, pipeline.getQueueDepth());
+        assertEquals(2, meterRegistry.get("audit.events.dropped").counter().count());
+        verify(auditStatsService, times(6)).record(any(AuditLog.class));
+    }
+
+    @Test
+    void submit_SamplePolicy_ThinsEventsUnderPressure() {
+        configuration.setOverflowPolicy(AuditLogConfiguration.OverflowPolicy.SAMPLE);
+        configuration.setSampleEvery(2);
+        AuditLogPipeline pipeline = new AuditLogPipeline(configuration, jdbcTemplate, auditStatsService, meterRegistry);
+        for (int i = 0; i < 6; i++) {
+            pipeline.submit(auditLog("API_REQUEST"));
+        }
+
+        assertEquals(4, pipeline.getQueueDepth());
+        assertEquals(2, meterRegistry.get("audit.events.sampled.out").counter().count());
+        assertEquals(0, meterRegistry.get("audit.events.dropped").counter().count());
+    }
+
+    @Test
+    void drainBatch_WriteFailure_CountsFailedEvents() throws Exception {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenThrow(new RuntimeException("db down"));
+        AuditLogPipeline pipeline = new AuditLogPipeline(configuration, jdbcTemplate, auditStatsService, meterRegistry);
+        pipeline.submit(auditLog("API_REQUEST"));
+
+        assertEquals(1, pipeline.drainBatch());
+        assertEquals(1, meterRegistry.get("audit.events.failed").counter().count());
+    }
+
+    @Test
+    void stop_DrainsQueue() {
+        AuditLogPipeline pipeline = new AuditLogPipeline(configuration, jdbcTemplate, auditStatsService, meterRegistry);
+        pipeline.start();
+        pipeline.submit(auditLog("API_REQUEST"));
+        pipeline.submit(auditLog("AUTHENTICATION"));
+        pipeline.stop();
+
+        assertFalse(pipeline.isRunning());
+        assertEquals(0, pipeline.getQueueDepth());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.openidentityplatform.passwordless.apps.configuration.AuditLogConfiguration;
+import org.openidentityplatform.passwordless.apps.models.AuditLog;
+import org.openidentityplatform.passwordless.apps.models.AuditLogCursor;
+import org.openidentityplatform.passwordless.apps.models.AuditLogCursorPage;
+import org.openidentityplatform.passwordless.apps.models.RegisteredApp;
+import org.openidentityplatform.passwordless.apps.repositories.AuditLogRepository;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AuditLogServiceTest {
+
+    private AuditLogRepository auditLogRepository;
+
+    private AuditLogPipeline auditLogPipeline;
+
+    private AuditLogConfiguration auditLogConfiguration;
+
+    private AuditLogService auditLogService;
+
+    @BeforeEach
+    void setUp() {
+        auditLogRepository = mock(AuditLogRepository.class);
+        auditLogPipeline = mock(AuditLogPipeline.class);
+        auditLogConfiguration = new AuditLogConfiguration();
+        auditLogService = new AuditLogService(auditLogRepository, auditLogPipeline, auditLogConfiguration);
+    }
+
+    private AuditLog auditLog(String id, Instant createdAt) {
+        AuditLog auditLog = new AuditLog();
+        auditLog.setId(id);
+        auditLog.setCreatedAt(createdAt);
+        return auditLog;
+    }
+
+    @Test
+    void logApiRequest_RecordsStatusAndLatency() {
+        RegisteredApp app = new RegisteredApp();
+        app.setId("app1");
+        app.setName("App1");
+
+        auditLogService.logApiRequest(app, "/otp/v1/send", "POST", "127.0.0.1", 400, 42);
+
+        ArgumentCaptor<AuditLog> auditLog = ArgumentCaptor.forClass(AuditLog.class);
+        verify(auditLogPipeline).submit(auditLog.capture());
+        assertEquals(AuditLogService.EVENT_API_REQUEST, auditLog.getValue().getEventType());
+        assertEquals(400, auditLog.getValue().getResponseStatus());
+        assertEquals(42L, auditLog.getValue().getLatencyMs());
+        assertFalse(auditLog.getValue().isSuccess());
+    }
+
+    @Test
+    void getAuditLogsByEventType_Authentication_IncludesApiRequests() {
+        Pageable pageable = Pageable.ofSize(20);
+
+        auditLogService.getAuditLogsByEventType(AuditLogService.EVENT_AUTHENTICATION, pageable);
+
+        verify(auditLogRepository).findByEventTypeIn(
+                eq(List.of(AuditLogService.EVENT_AUTHENTICATION, AuditLogService.EVENT_API_REQUEST)), eq(pageable));
+        verify(auditLogRepository, never()).findByEventType(any(), any());
+    }
+
+    @Test
+    void streamAuditLogsInRange_ReadsKeysetChunks() {
+        auditLogConfiguration.setExportChunkSize(2);
+        Instant start = Instant.parse("2026-01-01T00:00:00Z");
+        Instant end = start.plusSeconds(60);
+        AuditLog first = auditLog("a", start);
+        AuditLog second = auditLog("b", start.plusSeconds(1));
+        AuditLog third = auditLog("c", start.plusSeconds(2));
+        when(auditLogRepository.findRangeAfter(end, start, "", Limit.of(2))).thenReturn(List.of(first, second));
+        when(auditLogRepository.findRangeAfter(end, second.getCreatedAt(), "b", Limit.of(2))).thenReturn(List.of(third));
+
+        List<AuditLog> streamed = new ArrayList<>();
+        auditLogService.streamAuditLogsInRange(start, end, streamed::add);
+
+        assertEquals(List.of(first, second, third), streamed);
+        verify(auditLogRepository, times(2)).findRangeAfter(any(), any(), any(), any());
+    }
+
+    @Test
+    void getAuditLogsAfter_FullPage_ReturnsNextCursor() {
+        Instant createdAt = Instant.parse("2026-01-01T00:00:00Z");
+        AuditLog last = auditLog("b", createdAt);
+        when(auditLogRepository.findBefore(AuditLogCursor.NEWEST.getCreatedAt(), "", Limit.of(2)))
+                .thenReturn(List.of(auditLog("a", createdAt.plusSeconds(1)), last));
+        when(auditLogRepository.findBefore(createdAt, "b", Limit.of(2))).thenReturn(List.of());
+
+        AuditLogCursorPage page = auditLogService.getAuditLogsAfter("", 2);
+        assertEquals(2, page.getContent().size());
+        assertNotNull(page.getNextCursor());
+
+        AuditLogCursorPage nextPage = auditLogService.getAuditLogsAfter(page.getNextCursor(), 2);
+        assertTrue(nextPage.getContent().isEmpty());
+        assertNull(nextPage.getNextCursor());
+    }
+}
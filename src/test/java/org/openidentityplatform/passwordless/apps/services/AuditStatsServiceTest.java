@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.apps.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.openidentityplatform.passwordless.apps.configuration.AuditLogConfiguration;
+import org.openidentityplatform.passwordless.apps.models.AuditLog;
+import org.openidentityplatform.passwordless.apps.models.AuditStat;
+import org.openidentityplatform.passwordless.apps.models.AuditStatsResponse;
+import org.openidentityplatform.passwordless.apps.repositories.AuditLogRepository;
+import org.openidentityplatform.passwordless.apps.repositories.AuditStatRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AuditStatsServiceTest {
+
+    private AuditStatRepository auditStatRepository;
+
+    private AuditLogRepository auditLogRepository;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private AuditStatsService auditStatsService;
+
+    @BeforeEach
+    void setUp() {
+        auditStatRepository = mock(AuditStatRepository.class);
+        auditLogRepository = mock(AuditLogRepository.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        auditStatsService = new AuditStatsService(auditStatRepository, auditLogRepository, jdbcTemplate,
+                new AuditLogConfiguration(), TransactionOperations.withoutTransaction());
+    }
+
+    private AuditLog auditLog(String appId, String eventType, boolean success) {
+        AuditLog auditLog = new AuditLog();
+        auditLog.setAppId(appId);
+        auditLog.setEventType(eventType);
+        auditLog.setSuccess(success);
+        auditLog.setCreatedAt(Instant.now());
+        return auditLog;
+    }
+
+    @Test
+    void getStats_CountsPendingEventsByEventType() {
+        auditStatsService.record(auditLog("app1", AuditLogService.EVENT_API_REQUEST, true));
+        auditStatsService.record(auditLog("app1", AuditLogService.EVENT_API_REQUEST, false));
+        auditStatsService.record(auditLog("app1", AuditLogService.EVENT_RATE_LIMIT_EXCEEDED, false));
+        auditStatsService.record(auditLog("app2", AuditLogService.EVENT_API_REQUEST, true));
+
+        AuditStatsResponse stats = auditStatsService.getStats("app1", Duration.ofHours(1));
+
+        assertEquals(3, stats.getTotal());
+        AuditStatsResponse.Counts requests = stats.getByEventType().get(AuditLogService.EVENT_API_REQUEST);
+        assertEquals(2, requests.getRequests());
+        assertEquals(1, requests.getSuccesses());
+        assertEquals(1, requests.getFailures());
+        assertEquals(1, stats.getByEventType().get(AuditLogService.EVENT_RATE_LIMIT_EXCEEDED).getFailures());
+    }
+
+    @Test
+    void record_WithoutApp_IsIgnored() {
+        auditStatsService.record(auditLog(null, AuditLogService.EVENT_AUTHENTICATION, false));
+
+        auditStatsService.flush();
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_InsertsBucketsMissingFromTable() {
+        when(jdbcTemplate.batchUpdate(startsWith("UPDATE"), anyList())).thenReturn(new int[]{0, 0});
+        auditStatsService.record(auditLog("app1", AuditLogService.EVENT_API_REQUEST, true));
+
+        auditStatsService.flush();
+
+        ArgumentCaptor<List<Object[]>> inserts = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(startsWith("INSERT"), inserts.capture());
+        assertEquals(2, inserts.getValue().size(), "one minute and one hour bucket");
+    }
+
+    @Test
+    void flush_Failure_KeepsCountersPending() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenThrow(new RuntimeException("db down"));
+        auditStatsService.record(auditLog("app1", AuditLogService.EVENT_API_REQUEST, true));
+
+        auditStatsService.flush();
+
+        assertEquals(1, auditStatsService.getStats("app1", Duration.ofHours(1)).getTotal());
+    }
+
+    @Test
+    void shutdown_FlushesPendingCounters() {
+        when(jdbcTemplate.batchUpdate(startsWith("UPDATE"), anyList())).thenReturn(new int[]{1, 1});
+        auditStatsService.record(auditLog("app1", AuditLogService.EVENT_API_REQUEST, true));
+
+        auditStatsService.shutdown();
+
+        verify(jdbcTemplate).batchUpdate(startsWith("UPDATE"), anyList());
+    }
+
+    private static AuditStatRepository.EventTypeTotals totals(String eventType, long successes, long failures) {
+        AuditStatRepository.EventTypeTotals totals = mock(AuditStatRepository.EventTypeTotals.class);
+        when(totals.getEventType()).thenReturn(eventType);
+        when(totals.getRequests()).thenReturn(successes + failures);
+        when(totals.getSuccesses()).thenReturn(successes);
+        when(totals.getFailures()).thenReturn(failures);
+        return totals;
+    }
+
+    @Test
+    void getStats_WindowBeyondMinuteRetention_ReadsHourlyBucketsOnly() {
+        when(auditStatRepository.findFirstBucketStart("app1", AuditStat.Granularity.HOUR))
+                .thenReturn(Instant.now().minus(30, ChronoUnit.DAYS).truncatedTo(ChronoUnit.HOURS));
+
+        auditStatsService.getStats("app1", Duration.ofDays(7));
+
+        verify(auditStatRepository).sumByEventType(eq("app1"), eq(AuditStat.Granularity.HOUR), any(), any());
+        verify(auditStatRepository, never()).sumByEventType(any(), eq(AuditStat.Granularity.MINUTE), any(), any());
+        verifyNoInteractions(auditLogRepository);
+    }
+
+    @Test
+    void getStats_WithoutBuckets_CountsAuditLogs() {
+        List<AuditStatRepository.EventTypeTotals> logTotals = List.of(totals(AuditLogService.EVENT_API_REQUEST, 3, 1));
+        when(auditLogRepository.sumByEventType(eq("app1"), any(), any())).thenReturn(logTotals);
+
+        AuditStatsResponse stats = auditStatsService.getStats("app1", Duration.ofDays(7));
+
+        assertEquals(4, stats.getTotal());
+        assertEquals(1, stats.getByEventType().get(AuditLogService.EVENT_API_REQUEST).getFailures());
+        verify(auditLogRepository).sumByEventType("app1", stats.getFrom(), stats.getTo());
+        verify(auditStatRepository, never()).sumByEventType(any(), any(), any(), any());
+    }
+
+    @Test
+    void getStats_RangeBeforeFirstBucket_CountsAuditLogsUpToRollupStart() {
+        Instant firstHour = Instant.now().minus(3, ChronoUnit.DAYS).truncatedTo(ChronoUnit.HOURS);
+        when(auditStatRepository.findFirstBucketStart("app1", AuditStat.Granularity.HOUR)).thenReturn(firstHour);
+        List<AuditStatRepository.EventTypeTotals> logTotals = List.of(totals(AuditLogService.EVENT_API_REQUEST, 5, 0));
+        List<AuditStatRepository.EventTypeTotals> hourTotals = List.of(totals(AuditLogService.EVENT_API_REQUEST, 2, 1));
+        when(auditLogRepository.sumByEventType(eq("app1"), any(), any())).thenReturn(logTotals);
+        when(auditStatRepository.sumByEventType(eq("app1"), eq(AuditStat.Granularity.HOUR), any(), any()))
+                .thenReturn(hourTotals);
+
+        AuditStatsResponse stats = auditStatsService.getStats("app1", Duration.ofDays(7));
+
+        assertEquals(8, stats.getTotal());
+        Instant rollupStart = firstHour.plus(1, ChronoUnit.HOURS);
+        verify(auditLogRepository).sumByEventType("app1", stats.getFrom(), rollupStart);
+        verify(auditStatRepository).sumByEventType(eq("app1"), eq(AuditStat.Granularity.HOUR), eq(rollupStart), any());
+    }
+
+    @Test
+    void getStats_FirstMinuteBucketRetained_StartsRollupAtIt() {
+        Instant firstMinute = Instant.now().minus(3, ChronoUnit.HOURS).truncatedTo(ChronoUnit.MINUTES);
+        when(auditStatRepository.findFirstBucketStart("app1", AuditStat.Granularity.HOUR))
+                .thenReturn(firstMinute.truncatedTo(ChronoUnit.HOURS));
+        when(auditStatRepository.findFirstBucketStart("app1", AuditStat.Granularity.MINUTE)).thenReturn(firstMinute);
+
+        AuditStatsResponse stats = auditStatsService.getStats("app1", Duration.ofDays(1));
+        auditStatsService.getStats("app1", Duration.ofDays(1));
+
+        verify(auditLogRepository).sumByEventType("app1", stats.getFrom(), firstMinute);
+        verify(auditStatRepository, atLeastOnce())
+                .sumByEventType(eq("app1"), eq(AuditStat.Granularity.MINUTE), eq(firstMinute), any());
+        verify(auditStatRepository, times(1)).findFirstBucketStart("app1", AuditStat.Granularity.HOUR);
+    }
+}
@@ -16,10 +16,21 @@
 
 package org.openidentityplatform.passwordless.apps.services;
 
+import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.distributed.AsyncBucketProxy;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.apps.configuration.RateLimitConfiguration;
 import org.openidentityplatform.passwordless.apps.models.RegisteredApp;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -29,7 +40,7 @@ class RateLimitServiceTest {
 
     @BeforeEach
     void setUp() {
-        rateLimitService = new RateLimitService();
+        rateLimitService = new RateLimitService(new RateLimitConfiguration(), null, new SimpleMeterRegistry());
     }
 
     @Test
@@ -110,4 +121,133 @@ class RateLimitServiceTest {
         assertTrue(rateLimitService.allowRequest(app2));
         assertFalse(rateLimitService.allowRequest(app2));
     }
+
+    @Test
+    void allowRequest_LimitRaised_KeepsConsumedTokens() {
+        RegisteredApp app = new RegisteredApp();
+        app.setId("app1");
+        app.setRateLimitPerMinute(2);
+        app.setRateLimitPerHour(100);
+
+        assertTrue(rateLimitService.allowRequest(app));
+        assertTrue(rateLimitService.allowRequest(app));
+        assertFalse(rateLimitService.allowRequest(app));
+
+        app.setRateLimitPerMinute(3);
+
+        assertTrue(rateLimitService.allowRequest(app), "Raised limit adds one token");
+        assertFalse(rateLimitService.allowRequest(app), "Tokens consumed before the change stay consumed");
+    }
+
+    @Test
+    void allowRequest_BucketCountIsBounded() {
+        RateLimitConfiguration configuration = new RateLimitConfiguration();
+        configuration.setMaxBuckets(2);
+        RateLimitService boundedService = new RateLimitService(configuration, null, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 10; i++) {
+            RegisteredApp app = new RegisteredApp();
+            app.setId("app" + i);
+            app.setRateLimitPerMinute(5);
+            app.setRateLimitPerHour(100);
+            assertTrue(boundedService.allowRequest(app));
+        }
+
+        assertTrue(boundedService.bucketCount() <= 2);
+    }
+
+    private JdbcTemplate sharedDatabase() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1"));
+        jdbcTemplate.execute("CREATE TABLE rate_limit_buckets (id VARCHAR(255) PRIMARY KEY, "
+                + "state VARBINARY(2048) NOT NULL, version BIGINT NOT NULL)");
+        return jdbcTemplate;
+    }
+
+    @Test
+    void allowRequest_JdbcMode_LimitSharedBetweenNodes() {
+        RateLimitConfiguration configuration = new RateLimitConfiguration();
+        configuration.setMode(RateLimitConfiguration.Mode.JDBC);
+        JdbcTemplate jdbcTemplate = sharedDatabase();
+        RateLimitService node1 = new RateLimitService(configuration, jdbcTemplate, new SimpleMeterRegistry());
+        RateLimitService node2 = new RateLimitService(configuration, jdbcTemplate, new SimpleMeterRegistry());
+
+        RegisteredApp app = new RegisteredApp();
+        app.setId("app1");
+        app.setRateLimitPerMinute(3);
+        app.setRateLimitPerHour(100);
+
+        assertTrue(node1.allowRequest(app));
+        assertTrue(node2.allowRequest(app));
+        assertTrue(node1.allowRequest(app));
+        assertFalse(node2.allowRequest(app), "Limit is global, not per node");
+        assertFalse(node1.allowRequest(app));
+
+        node1.resetBuckets(app.getId());
+        assertTrue(node1.allowRequest(app), "Reset removes the shared state");
+    }
+
+    @Test
+    void allowRequest_JdbcMode_NewNodeAppliesChangedLimitsToStoredBucket() {
+        RateLimitConfiguration configuration = new RateLimitConfiguration();
+        configuration.setMode(RateLimitConfiguration.Mode.JDBC);
+        JdbcTemplate jdbcTemplate = sharedDatabase();
+        RegisteredApp app = new RegisteredApp();
+        app.setId("app1");
+        app.setRateLimitPerMinute(3);
+        app.setRateLimitPerHour(100);
+        RateLimitService before = new RateLimitService(configuration, jdbcTemplate, new SimpleMeterRegistry());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(before.allowRequest(app));
+        }
+
+        app.setRateLimitPerMinute(5);
+        RateLimitService restarted = new RateLimitService(configuration, jdbcTemplate, new SimpleMeterRegistry());
+
+        assertTrue(restarted.allowRequest(app));
+        assertTrue(restarted.allowRequest(app));
+        assertFalse(restarted.allowRequest(app), "Raised limit adds the difference, consumed tokens stay consumed");
+    }
+
+    @Test
+    void allowRequest_HybridMode_StaysWithinTolerance() {
+        RateLimitConfiguration configuration = new RateLimitConfiguration();
+        configuration.setMode(RateLimitConfiguration.Mode.HYBRID);
+        configuration.setHybridMaxUnsynchronizedTokens(2);
+        JdbcTemplate jdbcTemplate = sharedDatabase();
+        RateLimitService node1 = new RateLimitService(configuration, jdbcTemplate, new SimpleMeterRegistry());
+        RateLimitService node2 = new RateLimitService(configuration, jdbcTemplate, new SimpleMeterRegistry());
+
+        RegisteredApp app = new RegisteredApp();
+        app.setId("app1");
+        app.setRateLimitPerMinute(10);
+        app.setRateLimitPerHour(100);
+
+        int allowed = 0;
+        for (int i = 0; i < 20; i++) {
+            if ((i % 2 == 0 ? node1 : node2).allowRequest(app)) {
+                allowed++;
+            }
+        }
+        assertTrue(allowed >= 10 && allowed <= 10 + 2 * 2, "Allowed " + allowed + " requests");
+    }
+
+    @Test
+    void jdbcProxyManager_AsyncMode() throws Exception {
+        JdbcTemplate jdbcTemplate = sharedDatabase();
+        JdbcProxyManager proxyManager = new JdbcProxyManager(jdbcTemplate);
+        BucketConfiguration configuration = BucketConfiguration.builder()
+                .addLimit(Bandwidth.simple(2, Duration.ofMinutes(1)))
+                .build();
+        AsyncBucketProxy bucket = proxyManager.asAsync().builder()
+                .build("app1", () -> CompletableFuture.completedFuture(configuration));
+
+        assertTrue(bucket.tryConsume(1).get());
+        assertTrue(bucket.tryConsume(1).get());
+        assertFalse(bucket.tryConsume(1).get());
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM rate_limit_buckets", Integer.class));
+
+        proxyManager.asAsync().removeProxy("app1").get();
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM rate_limit_buckets", Integer.class));
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.housekeeping.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.housekeeping.configuration.HousekeepingConfiguration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiredDataPurgerTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private HousekeepingConfiguration configuration;
+    private LeaderLockService leaderLockService;
+    private SimpleMeterRegistry meterRegistry;
+    private ExpiredDataPurger purger;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:housekeeping-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbcTemplate.execute("CREATE TABLE leader_locks (name VARCHAR(64) PRIMARY KEY, locked_until BIGINT NOT NULL, locked_by VARCHAR(255) NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE sent_otp (id INT PRIMARY KEY, expire_time BIGINT NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE magic_links (id INT PRIMARY KEY, expires_at TIMESTAMP NOT NULL)");
+
+        configuration = new HousekeepingConfiguration();
+        configuration.setTables(List.of("sent_otp", "magic_links"));
+        configuration.setChunkSize(3);
+        configuration.setChunkPauseMs(0);
+        leaderLockService = new LeaderLockService(jdbcTemplate);
+        meterRegistry = new SimpleMeterRegistry();
+        purger = new ExpiredDataPurger(configuration, jdbcTemplate, leaderLockService, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("SHUTDOWN");
+    }
+
+    @Test
+    void purge_DeletesExpiredRowsInChunks() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            jdbcTemplate.update("INSERT INTO sent_otp VALUES (?, ?)", i, i < 7 ? now - 1000 : now + 60_000);
+            jdbcTemplate.update("INSERT INTO magic_links VALUES (?, ?)", i,
+                    Timestamp.from(Instant.ofEpochMilli(i < 4 ? now - 1000 : now + 60_000)));
+        }
+
+        purger.purge();
+
+        assertEquals(3, count("sent_otp"));
+        assertEquals(6, count("magic_links"));
+        assertEquals(7, meterRegistry.get("housekeeping.purged.rows").tag("table", "sent_otp").counter().count());
+        assertEquals(4, meterRegistry.get("housekeeping.purged.rows").tag("table", "magic_links").counter().count());
+        assertTrue(leaderLockService.tryAcquire(ExpiredDataPurger.LOCK_NAME, Duration.ofMinutes(1)));
+    }
+
+    @Test
+    void purge_LockHeldByAnotherNode_Skips() {
+        jdbcTemplate.update("INSERT INTO sent_otp VALUES (1, ?)", System.currentTimeMillis() - 1000);
+        assertTrue(new LeaderLockService(jdbcTemplate).tryAcquire(ExpiredDataPurger.LOCK_NAME, Duration.ofMinutes(1)));
+
+        purger.purge();
+
+        assertEquals(1, count("sent_otp"));
+    }
+
+    @Test
+    void purge_FailingTable_ContinuesWithOthers() {
+        configuration.setTables(List.of("oauth_tokens", "unknown", "sent_otp"));
+        jdbcTemplate.update("INSERT INTO sent_otp VALUES (1, ?)", System.currentTimeMillis() - 1000);
+
+        purger.purge();
+
+        assertEquals(0, count("sent_otp"));
+        assertEquals(1, meterRegistry.get("housekeeping.purge").tag("table", "oauth_tokens")
+                .tag("outcome", "failure").timer().count());
+    }
+
+    @Test
+    void tryAcquire_ExpiredLock_IsTakenOver() {
+        LeaderLockService otherNode = new LeaderLockService(jdbcTemplate);
+        assertTrue(otherNode.tryAcquire("lock", Duration.ofMillis(-1)));
+        assertTrue(leaderLockService.tryAcquire("lock", Duration.ofMinutes(1)));
+        assertFalse(otherNode.tryAcquire("lock", Duration.ofMinutes(1)));
+
+        leaderLockService.release("lock");
+
+        assertTrue(otherNode.tryAcquire("lock", Duration.ofMinutes(1)));
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+}
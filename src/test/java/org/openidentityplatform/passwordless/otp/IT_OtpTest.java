@@ -6,10 +6,14 @@ import io.restassured.path.json.JsonPath;
 import io.restassured.response.ValidatableResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 import org.openidentityplatform.passwordless.otp.models.SentOtp;
 import org.openidentityplatform.passwordless.otp.repositories.SentOtpRepository;
+import org.openidentityplatform.passwordless.otp.services.OtpSender;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.boot.test.web.server.LocalServerPort;
 
 import java.util.Optional;
@@ -18,6 +22,9 @@ import java.util.UUID;
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 public class IT_OtpTest {
@@ -28,6 +35,9 @@ public class IT_OtpTest {
     @Autowired
     SentOtpRepository sentOtpRepository;
 
+    @SpyBean(name = "dummyOTPSender")
+    OtpSender dummyOtpSender;
+
     @BeforeEach
     void configureRestAssured() {
         RestAssured.port = port;
@@ -64,10 +74,15 @@ public class IT_OtpTest {
 
         Optional<SentOtp> session = sentOtpRepository.findById(UUID.fromString(sessionId));
         assertFalse(session.isEmpty());
+        assertNull(session.get().getLegacyOtp());
+
+        ArgumentCaptor<String> messageBody = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(dummyOtpSender, Mockito.timeout(2000)).sendOTP(eq("+7999999999"), messageBody.capture(), anyString());
+        String otp = messageBody.getValue().substring("Confirmation code: ".length());
 
         given()
                 .contentType(ContentType.JSON)
-                .body(VERIFY_REQUEST_BODY_TEMPLATE.formatted(sessionId, session.get().getOtp()))
+                .body(VERIFY_REQUEST_BODY_TEMPLATE.formatted(sessionId, otp))
                 .when().log().all()
                 .post("/verify")
                 .then().log().all()
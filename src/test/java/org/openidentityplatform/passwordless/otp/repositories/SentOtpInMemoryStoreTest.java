@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.repositories;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.openidentityplatform.passwordless.otp.models.SentOtpVerification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SentOtpInMemoryStoreTest {
+
+    private SentOtpInMemoryStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new SentOtpInMemoryStore(1000);
+    }
+
+    private static SentOtp sentOtp(String destination, String otpHash, long ttlMillis) {
+        SentOtp sentOtp = new SentOtp();
+        sentOtp.setSessionId(UUID.randomUUID());
+        sentOtp.setDestination(destination);
+        sentOtp.setOtpHash(otpHash);
+        sentOtp.setLastSentAt(System.currentTimeMillis());
+        sentOtp.setExpireTime(System.currentTimeMillis() + ttlMillis);
+        sentOtp.setAttempts(5);
+        sentOtp.setDeliveryStatus(OtpDeliveryStatus.QUEUED);
+        return sentOtp;
+    }
+
+    @Test
+    void save_FoundBySessionAndByCode() {
+        SentOtp sentOtp = sentOtp("+79991234567", "123456", 60_000);
+        store.save(sentOtp);
+
+        assertEquals("123456", store.findById(sentOtp.getSessionId()).orElseThrow().getOtpHash());
+        assertEquals(List.of(sentOtp.getSessionId()), store.findByDestinationAndOtpHash("+79991234567", "123456")
+                .stream().map(SentOtp::getSessionId).toList());
+        assertTrue(store.findByDestinationAndOtpHash("+79991234567", "654321").isEmpty());
+    }
+
+    @Test
+    void findById_ReturnsCopy() {
+        SentOtp sentOtp = sentOtp("+79991234567", "123456", 60_000);
+        store.save(sentOtp);
+
+        store.findById(sentOtp.getSessionId()).orElseThrow().setAttempts(0);
+
+        assertEquals(5, store.findById(sentOtp.getSessionId()).orElseThrow().getAttempts());
+    }
+
+    @Test
+    void expiredOtp_Evicted() throws Exception {
+        SentOtp sentOtp = sentOtp("+79991234567", "123456", 50);
+        store.save(sentOtp);
+
+        Thread.sleep(100);
+
+        assertTrue(store.findById(sentOtp.getSessionId()).isEmpty());
+        assertTrue(store.findByDestinationAndOtpHash("+79991234567", "123456").isEmpty());
+    }
+
+    @Test
+    void delete_RemovesCodeIndex() {
+        SentOtp sentOtp = sentOtp("+79991234567", "123456", 60_000);
+        store.save(sentOtp);
+
+        store.delete(sentOtp);
+
+        assertTrue(store.findByDestinationAndOtpHash("+79991234567", "123456").isEmpty());
+    }
+
+    @Test
+    void updateDeliveryStatus_CountedByBatch() {
+        UUID batchId = UUID.randomUUID();
+        SentOtp first = sentOtp("a@example.com", "111111", 60_000);
+        SentOtp second = sentOtp("b@example.com", "222222", 60_000);
+        first.setBatchId(batchId);
+        second.setBatchId(batchId);
+        store.saveAll(List.of(first, second));
+
+        store.updateDeliveryStatus(first.getSessionId(), OtpDeliveryStatus.DELIVERED, 1, null);
+        store.updateDeliveryStatus(UUID.randomUUID(), OtpDeliveryStatus.DELIVERED, 1, null);
+
+        assertEquals(Map.of(OtpDeliveryStatus.DELIVERED, 1L, OtpDeliveryStatus.QUEUED, 1L), store.countByBatchId(batchId));
+        assertEquals(5, store.findById(first.getSessionId()).orElseThrow().getAttempts());
+    }
+
+    @Test
+    void verify_WrongCodesTakeAttemptsThenMatchConsumes() {
+        SentOtp sentOtp = sentOtp("+79991234567", "123456", 60_000);
+        store.save(sentOtp);
+        long now = System.currentTimeMillis();
+
+        assertEquals(new SentOtpVerification(SentOtpVerification.Status.INVALID, 4),
+                store.verify(sentOtp.getSessionId(), "000000", null, now));
+        assertEquals(SentOtpVerification.Status.VALID, store.verify(sentOtp.getSessionId(), "123456", null, now).getStatus());
+        assertEquals(SentOtpVerification.Status.NOT_FOUND, store.verify(sentOtp.getSessionId(), "123456", null, now).getStatus());
+        assertTrue(store.findByDestinationAndOtpHash("+79991234567", "123456").isEmpty());
+    }
+
+    @Test
+    void verify_ConcurrentGuessesEachTakeAnAttempt() throws Exception {
+        SentOtp sentOtp = sentOtp("+79991234567", "123456", 60_000);
+        store.save(sentOtp);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<SentOtpVerification>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String guess = String.format("%06d", i);
+            results.add(executor.submit(() -> store.verify(sentOtp.getSessionId(), guess, null, System.currentTimeMillis())));
+        }
+        long invalid = 0;
+        for (Future<SentOtpVerification> result : results) {
+            if (result.get().getStatus() == SentOtpVerification.Status.INVALID) {
+                invalid++;
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(5, invalid);
+        assertEquals(SentOtpVerification.Status.ATTEMPTS_EXCEEDED,
+                store.verify(sentOtp.getSessionId(), "123456", null, System.currentTimeMillis()).getStatus());
+    }
+
+    @Test
+    void consume_AcceptsCodeOnce() {
+        SentOtp sentOtp = sentOtp("+79991234567", "123456", 60_000);
+        store.save(sentOtp);
+        long now = System.currentTimeMillis();
+
+        assertFalse(store.consume("+79991234567", "654321", null, now));
+        assertFalse(store.consume("+79991234567", "123456", null, sentOtp.getExpireTime()));
+        assertTrue(store.consume("+79991234567", "123456", null, now));
+        assertFalse(store.consume("+79991234567", "123456", null, now));
+    }
+
+    @Test
+    void verify_LegacyPlaintextOtp() {
+        SentOtp sentOtp = sentOtp("+79991234567", null, 60_000);
+        sentOtp.setLegacyOtp("123456");
+        store.save(sentOtp);
+        long now = System.currentTimeMillis();
+
+        assertEquals(SentOtpVerification.Status.INVALID, store.verify(sentOtp.getSessionId(), "hash", null, now).getStatus());
+        assertEquals(SentOtpVerification.Status.VALID, store.verify(sentOtp.getSessionId(), "hash", "123456", now).getStatus());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.repositories;
+
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class SentOtpRedisStoreTest {
+
+    @Test
+    void hash_RoundTrip() {
+        SentOtp sentOtp = new SentOtp();
+        sentOtp.setSessionId(UUID.randomUUID());
+        sentOtp.setDestination("+79991234567");
+        sentOtp.setOtpHash("xnTJ3b6c8sCz0o2S2E7fYyQ0yFvYQmWzGxGgGj9eC2M=");
+        sentOtp.setExpireTime(2000L);
+        sentOtp.setLastSentAt(1000L);
+        sentOtp.setAttempts(5);
+        sentOtp.setDeliveryStatus(OtpDeliveryStatus.QUEUED);
+        sentOtp.setDeliveryAttempts(0);
+        sentOtp.setBatchId(UUID.randomUUID());
+
+        Map<Object, Object> hash = new HashMap<>(SentOtpRedisStore.toHash(sentOtp));
+
+        assertEquals(sentOtp, SentOtpRedisStore.fromHash(sentOtp.getSessionId(), hash));
+    }
+
+    @Test
+    void keys_Prefixed() {
+        SentOtpRedisStore store = new SentOtpRedisStore(mock(StringRedisTemplate.class), "otp:");
+        UUID sessionId = UUID.fromString("993e61be-23cf-412d-8273-f02e316e8689");
+
+        assertEquals("otp:session:993e61be-23cf-412d-8273-f02e316e8689", store.sessionKey(sessionId));
+        assertEquals("otp:code:a@example.com:123456", store.codeKey("a@example.com", "123456"));
+    }
+}
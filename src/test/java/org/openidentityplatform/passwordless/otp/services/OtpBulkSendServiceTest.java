@@ -0,0 +1,173 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.openidentityplatform.passwordless.otp.configuration.OtpBulkSendConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpHashConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpSendLimitConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpSettings;
+import org.openidentityplatform.passwordless.otp.configuration.OtpStoreConfiguration;
+import org.openidentityplatform.passwordless.otp.models.BulkSendOtpResult;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.openidentityplatform.passwordless.otp.repositories.SentOtpStore;
+import org.springframework.context.ApplicationContext;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class OtpBulkSendServiceTest {
+
+    private static final String TYPE = "sms";
+
+    private OtpBulkSendConfiguration configuration;
+
+    private OtpSendLimitConfiguration sendLimitConfiguration;
+
+    private SentOtpStore sentOtpStore;
+
+    private OtpDeliveryService otpDeliveryService;
+
+    private OtpBulkSendService bulkSendService;
+
+    @BeforeEach
+    void setUp() {
+        OtpSettings otpSettings = new OtpSettings();
+        otpSettings.setId(TYPE);
+        otpSettings.setSender(TYPE);
+        otpSettings.setMessageTitle("Acme LLC");
+        otpSettings.setMessageTemplate("Confirmation code: ${otp}");
+        otpSettings.setOtpLength(6);
+        otpSettings.setUseDigits(true);
+        otpSettings.setTtlMinutes(3);
+
+        OtpConfiguration otpConfiguration = new OtpConfiguration();
+        otpConfiguration.setAttempts(5);
+        otpConfiguration.setResendAllowedAfterMinutes(1);
+        otpConfiguration.setSettings(List.of(otpSettings));
+
+        ApplicationContext applicationContext = mock(ApplicationContext.class);
+        when(applicationContext.getBean(eq(TYPE), eq(OtpSender.class))).thenReturn(mock(OtpSender.class));
+
+        configuration = new OtpBulkSendConfiguration();
+        configuration.setChunkSize(2);
+        configuration.setDeliveriesPerSecond(1000);
+        configuration.setQueueFullWaitMs(0);
+        sentOtpStore = mock(SentOtpStore.class);
+        otpDeliveryService = mock(OtpDeliveryService.class);
+        when(otpDeliveryService.remainingCapacity(anyString())).thenReturn(100);
+
+        sendLimitConfiguration = new OtpSendLimitConfiguration();
+        OtpHashConfiguration hashConfiguration = new OtpHashConfiguration();
+        hashConfiguration.setSecret("secret");
+        OtpGenerator otpGenerator = new OtpGenerator(new OtpHasher(hashConfiguration, new OtpStoreConfiguration(), new SecureRandom()));
+        bulkSendService = new OtpBulkSendService(otpConfiguration, configuration, sentOtpStore, otpGenerator,
+                applicationContext, new OtpSendRateLimiter(sendLimitConfiguration, new SimpleMeterRegistry()),
+                new ResendWindowIndex(otpConfiguration), otpDeliveryService, new SimpleMeterRegistry());
+    }
+
+    private List<BulkSendOtpResult> send(String... destinations) throws Exception {
+        List<BulkSendOtpResult> results = new ArrayList<>();
+        OtpBulkSendService.Batch batch = bulkSendService.prepare(TYPE, Arrays.asList(destinations), "app1", "10.0.0.1");
+        bulkSendService.send(batch, results::addAll);
+        return results;
+    }
+
+    @Test
+    void send_MixedDestinations_ResultsInRequestOrder() throws Exception {
+        List<BulkSendOtpResult> results = send("a@example.com", "", "a@example.com", "b@example.com");
+
+        assertEquals(List.of(BulkSendOtpResult.Status.QUEUED, BulkSendOtpResult.Status.INVALID,
+                        BulkSendOtpResult.Status.RESEND_FORBIDDEN, BulkSendOtpResult.Status.QUEUED),
+                results.stream().map(BulkSendOtpResult::getStatus).toList());
+        assertNotNull(results.get(0).getSessionId());
+        assertEquals("b@example.com", results.get(3).getDestination());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<SentOtp>> inserted = ArgumentCaptor.forClass(List.class);
+        verify(sentOtpStore, times(2)).saveAll(inserted.capture());
+        SentOtp first = inserted.getAllValues().get(0).get(0);
+        assertEquals(OtpDeliveryStatus.QUEUED, first.getDeliveryStatus());
+        assertEquals(5, first.getAttempts());
+        assertNotNull(first.getBatchId());
+        verify(otpDeliveryService, times(2)).submit(any(), eq(TYPE), anyMap(), startsWith("Confirmation code: "), eq("Acme LLC"));
+    }
+
+    @Test
+    void send_InsertFails_ReportsFailedAndReleasesDestination() throws Exception {
+        doThrow(new RuntimeException("db down")).doNothing().when(sentOtpStore).saveAll(anyList());
+
+        assertEquals(BulkSendOtpResult.Status.FAILED, send("a@example.com").get(0).getStatus());
+        assertEquals(BulkSendOtpResult.Status.QUEUED, send("a@example.com").get(0).getStatus());
+        verify(otpDeliveryService, times(1)).submit(any(), anyString(), anyMap(), anyString(), anyString());
+    }
+
+    @Test
+    void send_QueueFull_DeletesOtp() throws Exception {
+        doThrow(new OtpDeliveryQueueFull()).when(otpDeliveryService).submit(any(), anyString(), anyMap(), anyString(), anyString());
+
+        assertEquals(BulkSendOtpResult.Status.FAILED, send("a@example.com").get(0).getStatus());
+        verify(sentOtpStore).delete(any(SentOtp.class));
+    }
+
+    @Test
+    void send_BulkQuota_ReplacesAppAndIpLimits() throws Exception {
+        sendLimitConfiguration.getApp().setCapacity(1);
+        sendLimitConfiguration.getIp().setCapacity(1);
+        sendLimitConfiguration.getBulk().setCapacity(2);
+
+        assertEquals(List.of(BulkSendOtpResult.Status.QUEUED, BulkSendOtpResult.Status.QUEUED,
+                        BulkSendOtpResult.Status.LIMITED),
+                send("a@example.com", "b@example.org", "c@example.net").stream().map(BulkSendOtpResult::getStatus).toList());
+    }
+
+    @Test
+    void responseTimeoutMs_CoversDeliveriesAtBulkRate() throws Exception {
+        configuration.setDeliveriesPerSecond(2);
+        configuration.setResponseTimeoutMarginMs(500);
+
+        assertEquals(2500, bulkSendService.responseTimeoutMs(
+                bulkSendService.prepare(TYPE, List.of("a@example.com", "b@example.com", "c@example.com"), null, null)));
+
+        sendLimitConfiguration.getBulk().setCapacity(1);
+        assertEquals(1500, bulkSendService.responseTimeoutMs(
+                bulkSendService.prepare(TYPE, List.of("a@example.com", "b@example.com", "c@example.com"), null, null)));
+    }
+
+    @Test
+    void prepare_TooManyDestinations_Rejected() {
+        configuration.setMaxDestinations(1);
+
+        assertThrows(BadRequestException.class, () -> bulkSendService.prepare(TYPE, List.of("a@example.com", "b@example.com"), null, null));
+        assertThrows(SenderNotFoundException.class, () -> bulkSendService.prepare("unknown", List.of("a@example.com"), null, null));
+    }
+}
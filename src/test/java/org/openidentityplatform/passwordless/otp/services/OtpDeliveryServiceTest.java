@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.otp.configuration.OtpCircuitBreakerConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpDeliveryConfiguration;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
+import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.openidentityplatform.passwordless.otp.repositories.SentOtpStore;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class OtpDeliveryServiceTest {
+
+    private OtpDeliveryConfiguration configuration;
+
+    private SentOtpStore sentOtpStore;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private OtpDeliveryService deliveryService;
+
+    @BeforeEach
+    void setUp() {
+        configuration = new OtpDeliveryConfiguration();
+        configuration.setInitialBackoffMs(1);
+        configuration.setMaxAttempts(3);
+        sentOtpStore = mock(SentOtpStore.class);
+        meterRegistry = new SimpleMeterRegistry();
+        deliveryService = new OtpDeliveryService(configuration, sentOtpStore,
+                new ResendWindowIndex(new OtpConfiguration()),
+                new OtpSenderCircuitBreakers(new OtpCircuitBreakerConfiguration(), meterRegistry), meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        deliveryService.shutdown();
+    }
+
+    private SentOtp sentOtp() {
+        SentOtp sentOtp = new SentOtp();
+        sentOtp.setSessionId(UUID.randomUUID());
+        sentOtp.setDestination("+79991234567");
+        sentOtp.setLastSentAt(System.currentTimeMillis());
+        return sentOtp;
+    }
+
+    @Test
+    void submit_TransientFailure_RetriedUntilDelivered() throws Exception {
+        OtpSender sender = mock(OtpSender.class);
+        doThrow(SendOtpException.class).doNothing().when(sender).sendOTP(anyString(), anyString(), anyString());
+        SentOtp sentOtp = sentOtp();
+
+        deliveryService.submit(sentOtp, "sms", Map.of("sms", sender), "code", "title");
+
+        verify(sentOtpStore, timeout(2000))
+                .updateDeliveryStatus(sentOtp.getSessionId(), OtpDeliveryStatus.DELIVERED, 2, null);
+        verify(sentOtpStore).updateDeliveryStatus(eq(sentOtp.getSessionId()), eq(OtpDeliveryStatus.RETRYING), eq(1), any());
+        assertEquals(1, meterRegistry.get("otp.delivery").tag("status", "retried").counter().count());
+    }
+
+    @Test
+    void submit_QueueFull_Rejected() throws Exception {
+        OtpDeliveryConfiguration.Provider provider = new OtpDeliveryConfiguration.Provider();
+        provider.setWorkers(1);
+        provider.setQueueCapacity(1);
+        configuration.getProviders().put("slow", provider);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        OtpSender sender = (destination, body, title) -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        deliveryService.submit(sentOtp(), "slow", Map.of("slow", sender), "code", "title");
+        started.await();
+        deliveryService.submit(sentOtp(), "slow", Map.of("slow", sender), "code", "title");
+
+        assertThrows(OtpDeliveryQueueFull.class, () -> deliveryService.submit(sentOtp(), "slow", Map.of("slow", sender), "code", "title"));
+        deliveryService.submit(sentOtp(), "other", Map.of("other", mock(OtpSender.class)), "code", "title");
+        release.countDown();
+    }
+
+    @Test
+    void backoffMillis_GrowsExponentiallyUpToCap() {
+        configuration.setInitialBackoffMs(100);
+        configuration.setMaxBackoffMs(1000);
+
+        long first = deliveryService.backoffMillis(1);
+        long third = deliveryService.backoffMillis(3);
+        long tenth = deliveryService.backoffMillis(10);
+
+        assertTrue(first >= 50 && first <= 100, "first " + first);
+        assertTrue(third >= 200 && third <= 400, "third " + third);
+        assertTrue(tenth >= 500 && tenth <= 1000, "tenth " + tenth);
+    }
+}
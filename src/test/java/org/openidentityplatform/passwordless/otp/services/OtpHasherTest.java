@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.otp.configuration.OtpHashConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpStoreConfiguration;
+
+import java.security.SecureRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OtpHasherTest {
+
+    @Test
+    void hash_SameSecret_SameHashOnEveryNode() {
+        OtpHashConfiguration configuration = new OtpHashConfiguration();
+        configuration.setSecret("secret");
+
+        OtpStoreConfiguration storeConfiguration = new OtpStoreConfiguration();
+
+        String hash = new OtpHasher(configuration, storeConfiguration, new SecureRandom()).hash("123456");
+
+        assertEquals(hash, new OtpHasher(configuration, storeConfiguration, new SecureRandom()).hash("123456"));
+        assertNotEquals(hash, new OtpHasher(configuration, storeConfiguration, new SecureRandom()).hash("123457"));
+        assertFalse(hash.contains("123456"));
+    }
+
+    @Test
+    void hash_NoSecret_MemoryStore_RandomKeyPerProcess() {
+        OtpHashConfiguration configuration = new OtpHashConfiguration();
+        OtpStoreConfiguration storeConfiguration = new OtpStoreConfiguration();
+        storeConfiguration.setType(OtpStoreConfiguration.Type.MEMORY);
+
+        assertNotEquals(new OtpHasher(configuration, storeConfiguration, new SecureRandom()).hash("123456"),
+                new OtpHasher(configuration, storeConfiguration, new SecureRandom()).hash("123456"));
+    }
+
+    @Test
+    void constructor_NoSecret_SharedStore_FailsStartup() {
+        OtpHashConfiguration configuration = new OtpHashConfiguration();
+        OtpStoreConfiguration storeConfiguration = new OtpStoreConfiguration();
+
+        assertThrows(IllegalStateException.class, () -> new OtpHasher(configuration, storeConfiguration, new SecureRandom()));
+        storeConfiguration.setType(OtpStoreConfiguration.Type.REDIS);
+        assertThrows(IllegalStateException.class, () -> new OtpHasher(configuration, storeConfiguration, new SecureRandom()));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.otp.configuration.OtpSendLimitConfiguration;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OtpSendRateLimiterTest {
+
+    private OtpSendLimitConfiguration configuration;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        configuration = new OtpSendLimitConfiguration();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void acquire_ExceedsIpLimit_AcrossDestinations() throws Exception {
+        configuration.setIp(new OtpSendLimitConfiguration.Tier(3, Duration.ofMinutes(1)));
+        OtpSendRateLimiter limiter = new OtpSendRateLimiter(configuration, meterRegistry);
+
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire("app1", "10.0.0.1", "+7999000000" + i);
+        }
+
+        assertThrows(OtpSendLimitExceeded.class, () -> limiter.acquire("app1", "10.0.0.1", "+79990000009"));
+        limiter.acquire("app1", "10.0.0.2", "+79990000009");
+        assertEquals(1, meterRegistry.get("otp.send.limited").tag("tier", "ip").counter().count());
+    }
+
+    @Test
+    void acquire_ExceedsPrefixLimit_AcrossNumbers() throws Exception {
+        configuration.setPrefix(new OtpSendLimitConfiguration.Tier(2, Duration.ofHours(1)));
+        OtpSendRateLimiter limiter = new OtpSendRateLimiter(configuration, meterRegistry);
+
+        limiter.acquire(null, null, "+7 999 111 22 33");
+        limiter.acquire(null, null, "+79991445566");
+
+        assertThrows(OtpSendLimitExceeded.class, () -> limiter.acquire(null, null, "+79991778899"));
+        limiter.acquire(null, null, "+44 20 7946 0000");
+    }
+
+    @Test
+    void acquire_Rejected_ReturnsTokensToOtherTiers() throws Exception {
+        configuration.setApp(new OtpSendLimitConfiguration.Tier(2, Duration.ofMinutes(1)));
+        configuration.setDestination(new OtpSendLimitConfiguration.Tier(1, Duration.ofHours(1)));
+        OtpSendRateLimiter limiter = new OtpSendRateLimiter(configuration, meterRegistry);
+
+        limiter.acquire("app1", null, "a@example.com");
+        assertThrows(OtpSendLimitExceeded.class, () -> limiter.acquire("app1", null, "A@example.com"));
+
+        limiter.acquire("app1", null, "b@example.com");
+    }
+
+    @Test
+    void acquireBulk_UsesBulkQuotaOfApp_NotAppAndIpTiers() throws Exception {
+        configuration.setApp(new OtpSendLimitConfiguration.Tier(1, Duration.ofMinutes(1)));
+        configuration.setIp(new OtpSendLimitConfiguration.Tier(1, Duration.ofMinutes(1)));
+        configuration.setBulk(new OtpSendLimitConfiguration.Tier(3, Duration.ofHours(1)));
+        OtpSendRateLimiter limiter = new OtpSendRateLimiter(configuration, meterRegistry);
+
+        for (int i = 0; i < 3; i++) {
+            limiter.acquireBulk("app1", "10.0.0.1", "+7999000000" + i);
+        }
+
+        assertThrows(OtpSendLimitExceeded.class, () -> limiter.acquireBulk("app1", "10.0.0.2", "+79990000009"));
+        limiter.acquireBulk("app2", "10.0.0.1", "+79990000009");
+        limiter.acquire("app1", "10.0.0.1", "+79990000008");
+        assertEquals(1, meterRegistry.get("otp.send.limited").tag("tier", "bulk").counter().count());
+    }
+
+    @Test
+    void prefixOf_PhoneDigitsOrEmailDomain() {
+        OtpSendRateLimiter limiter = new OtpSendRateLimiter(configuration, meterRegistry);
+
+        assertEquals("+79991", limiter.prefixOf("+7 (999) 123-45-67"));
+        assertEquals("example.com", limiter.prefixOf("user@example.com"));
+        assertNull(limiter.prefixOf("unknown"));
+    }
+}
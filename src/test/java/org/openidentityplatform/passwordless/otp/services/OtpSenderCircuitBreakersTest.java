@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.otp.configuration.OtpCircuitBreakerConfiguration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class OtpSenderCircuitBreakersTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private OtpSenderCircuitBreakers circuitBreakers;
+
+    private OtpSender primary;
+
+    private OtpSender backup;
+
+    private Map<String, OtpSender> chain;
+
+    @BeforeEach
+    void setUp() {
+        OtpCircuitBreakerConfiguration configuration = new OtpCircuitBreakerConfiguration();
+        configuration.setSlidingWindowSize(4);
+        configuration.setMinimumNumberOfCalls(4);
+        meterRegistry = new SimpleMeterRegistry();
+        circuitBreakers = new OtpSenderCircuitBreakers(configuration, meterRegistry);
+        primary = mock(OtpSender.class);
+        backup = mock(OtpSender.class);
+        chain = new LinkedHashMap<>();
+        chain.put("primary", primary);
+        chain.put("backup", backup);
+    }
+
+    @Test
+    void send_PrimaryHealthy_BackupNotCalled() throws Exception {
+        assertEquals("primary", circuitBreakers.send(chain, "+79991234567", "code", "title"));
+        verifyNoInteractions(backup);
+        assertEquals(1, meterRegistry.get("otp.sender.latency")
+                .tag("sender", "primary").tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    void send_PrimaryFails_FailsOverToBackup() throws Exception {
+        doThrow(new SendOtpException("provider down")).when(primary).sendOTP(anyString(), anyString(), anyString());
+
+        assertEquals("backup", circuitBreakers.send(chain, "+79991234567", "code", "title"));
+        verify(backup).sendOTP("+79991234567", "code", "title");
+        assertEquals(1, meterRegistry.get("otp.sender.latency")
+                .tag("sender", "primary").tag("outcome", "failure").timer().count());
+    }
+
+    @Test
+    void send_RepeatedFailures_OpenBreakerSkipsPrimary() throws Exception {
+        doThrow(new SendOtpException("provider down")).when(primary).sendOTP(anyString(), anyString(), anyString());
+        for (int i = 0; i < 4; i++) {
+            circuitBreakers.send(chain, "+79991234567", "code", "title");
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreakers.getState("primary"));
+
+        circuitBreakers.send(chain, "+79991234567", "code", "title");
+
+        verify(primary, times(4)).sendOTP(anyString(), anyString(), anyString());
+        verify(backup, times(5)).sendOTP(anyString(), anyString(), anyString());
+        assertEquals(1, meterRegistry.get("resilience4j.circuitbreaker.state")
+                .tag("name", "primary").tag("state", "open").gauge().value());
+    }
+
+    @Test
+    void send_AllSendersFail_Throws() throws Exception {
+        doThrow(new SendOtpException("provider down")).when(primary).sendOTP(anyString(), anyString(), anyString());
+        doThrow(new SendOtpException("mailbox unavailable")).when(backup).sendOTP(anyString(), anyString(), anyString());
+
+        SendOtpException e = assertThrows(SendOtpException.class,
+                () -> circuitBreakers.send(chain, "+79991234567", "code", "title"));
+        assertTrue(e.getMessage().contains("provider down"));
+        assertTrue(e.getMessage().contains("mailbox unavailable"));
+    }
+
+    @Test
+    void send_LogOnlyFallback_IsNotADelivery() throws Exception {
+        doThrow(new SendOtpException("provider down")).when(primary).sendOTP(anyString(), anyString(), anyString());
+        when(backup.isLogOnly()).thenReturn(true);
+
+        SendOtpException e = assertThrows(SendOtpException.class,
+                () -> circuitBreakers.send(chain, "+79991234567", "code", "title"));
+        assertTrue(e.getMessage().contains("backup: log only"));
+        verify(backup, never()).sendOTP(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void send_LogOnlyPrimary_IsUsed() throws Exception {
+        when(primary.isLogOnly()).thenReturn(true);
+
+        assertEquals("primary", circuitBreakers.send(chain, "+79991234567", "code", "title"));
+    }
+}
@@ -1,31 +1,45 @@
 package org.openidentityplatform.passwordless.otp.services;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.openidentityplatform.passwordless.otp.configuration.OtpCircuitBreakerConfiguration;
 import org.openidentityplatform.passwordless.otp.configuration.OtpConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpDeliveryConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpHashConfiguration;
+import org.openidentityplatform.passwordless.otp.configuration.OtpSendLimitConfiguration;
 import org.openidentityplatform.passwordless.otp.configuration.OtpSettings;
+import org.openidentityplatform.passwordless.otp.configuration.OtpStoreConfiguration;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryResult;
+import org.openidentityplatform.passwordless.otp.models.OtpDeliveryStatus;
 import org.openidentityplatform.passwordless.otp.models.SendOtpResult;
 import org.openidentityplatform.passwordless.otp.models.SentOtp;
+import org.openidentityplatform.passwordless.otp.models.SentOtpVerification;
 import org.openidentityplatform.passwordless.otp.models.VerifyOtpResult;
-import org.openidentityplatform.passwordless.otp.repositories.SentOtpRepository;
+import org.openidentityplatform.passwordless.otp.repositories.SentOtpStore;
 import org.springframework.context.ApplicationContext;
 
+import java.security.SecureRandom;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 
 class OtpServiceTest {
 
-    private SentOtpRepository sentOtpRepository;
+    private SentOtpStore sentOtpStore;
 
     private OtpSender otpSender;
 
@@ -40,6 +54,10 @@ class OtpServiceTest {
     private OtpService otpService;
 
     private SentOtp sentOtp;
+
+    private OtpSendRateLimiter otpSendRateLimiter;
+
+    private OtpHasher otpHasher;
     @BeforeEach
     void setup() {
 
@@ -58,6 +76,7 @@ class OtpServiceTest {
         when(otpConfiguration.getSetting(eq("unknown"))).thenThrow(new NoSuchElementException());
         when(otpConfiguration.getAttempts()).thenReturn(ATTEMPTS);
         when(otpConfiguration.getResendAllowedAfterMinutes()).thenReturn(1);
+        when(otpConfiguration.getResendIndexMaxSize()).thenReturn(100L);
 
         sentOtp = new SentOtp();
         sentOtp.setSessionId(UUID.fromString(SESSION_ID));
@@ -69,13 +88,27 @@ class OtpServiceTest {
         OtpGenerator otpGenerator = mock(OtpGenerator.class);
         when(otpGenerator.generateSentOTP(eq(otpSettings), eq(PHONE))).thenReturn(sentOtp);
 
-        sentOtpRepository = mock(SentOtpRepository.class);
-        when(sentOtpRepository.findById(eq(UUID.fromString(SESSION_ID)))).thenReturn(Optional.of(sentOtp));
+        sentOtpStore = mock(SentOtpStore.class);
+        when(sentOtpStore.findById(eq(UUID.fromString(SESSION_ID)))).thenReturn(Optional.of(sentOtp));
 
         ApplicationContext applicationContext = mock(ApplicationContext.class);
         when(applicationContext.getBean(eq(TYPE), eq(OtpSender.class))).thenReturn(otpSender);
 
-        otpService = new OtpService(otpConfiguration, sentOtpRepository, otpGenerator, applicationContext);
+        otpSendRateLimiter = new OtpSendRateLimiter(new OtpSendLimitConfiguration(), new SimpleMeterRegistry());
+
+        ResendWindowIndex resendWindowIndex = new ResendWindowIndex(otpConfiguration);
+        OtpDeliveryConfiguration otpDeliveryConfiguration = new OtpDeliveryConfiguration();
+        otpDeliveryConfiguration.setMaxAttempts(2);
+        otpDeliveryConfiguration.setInitialBackoffMs(1);
+        OtpDeliveryService otpDeliveryService = new OtpDeliveryService(otpDeliveryConfiguration, sentOtpStore,
+                resendWindowIndex, new OtpSenderCircuitBreakers(new OtpCircuitBreakerConfiguration(), new SimpleMeterRegistry()),
+                new SimpleMeterRegistry());
+
+        OtpHashConfiguration hashConfiguration = new OtpHashConfiguration();
+        hashConfiguration.setSecret("secret");
+        otpHasher = new OtpHasher(hashConfiguration, new OtpStoreConfiguration(), new SecureRandom());
+        otpService = new OtpService(otpConfiguration, sentOtpStore, otpGenerator, applicationContext, otpSendRateLimiter,
+                resendWindowIndex, otpDeliveryService, otpHasher, hashConfiguration);
 
     }
     @Test
@@ -87,27 +120,75 @@ class OtpServiceTest {
         assertTrue(result.getResendAllowedAt() > System.currentTimeMillis());
     }
 
+    @Test
+    void validateFallbackSenders_unknownSender() {
+        ApplicationContext applicationContext = mock(ApplicationContext.class);
+        when(applicationContext.containsBean("backupSmsSender")).thenReturn(true);
+        when(applicationContext.isTypeMatch("backupSmsSender", OtpSender.class)).thenReturn(true);
+        OtpSettings otpSettings = new OtpSettings();
+        otpSettings.setId("sms");
+        otpSettings.setSender(TYPE);
+        otpSettings.setFallbackSenders(List.of("backupSmsSender"));
+        otpSettings.validateFallbackSenders(applicationContext);
+
+        otpSettings.setFallbackSenders(List.of("backupSmsSender", "bakupSmsSender"));
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> otpSettings.validateFallbackSenders(applicationContext));
+        assertTrue(e.getMessage().contains("bakupSmsSender"));
+    }
+
     @Test
     void send_typeNotFound() {
         assertThrows(SenderNotFoundException.class, () -> otpService.send("unknown", PHONE));
     }
 
     @Test
-    void send_errorSendingOtp() throws SendOtpException {
+    void send_deliveredAsynchronously() throws Exception {
+        otpService.send(TYPE, PHONE);
+        Mockito.verify(sentOtpStore, timeout(2000))
+                .updateDeliveryStatus(UUID.fromString(SESSION_ID), OtpDeliveryStatus.DELIVERED, 1, null);
+    }
+
+    @Test
+    void send_errorSendingOtp() throws Exception {
         doThrow(SendOtpException.class).when(otpSender).sendOTP(anyString(), anyString(), anyString());
-        assertThrows(SendOtpException.class, () -> otpService.send(TYPE, PHONE));
+        assertNotNull(otpService.send(TYPE, PHONE).getSessionId());
+
+        Mockito.verify(sentOtpStore, timeout(2000))
+                .updateDeliveryStatus(eq(UUID.fromString(SESSION_ID)), eq(OtpDeliveryStatus.FAILED), eq(2), any());
+        assertNotNull(otpService.send(TYPE, PHONE).getSessionId(), "Failed delivery allows an immediate resend");
     }
 
     @Test
-    void send_frequentSendForbidden() {
-        SentOtp lastSentOtp = new SentOtp();
-        lastSentOtp.setLastSentAt(System.currentTimeMillis() - 10000);
-        when(sentOtpRepository.findFirstByDestinationOrderByLastSentAtDesc(PHONE)).thenReturn(Optional.of(lastSentOtp));
+    void send_frequentSendForbidden() throws Exception {
+        otpService.send(TYPE, PHONE);
         assertThrows(FrequentSendingForbidden.class, () -> otpService.send(TYPE, PHONE));
+        Mockito.verify(otpSender, timeout(2000).times(1)).sendOTP(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    void getDeliveryStatus() throws Exception {
+        sentOtp.setDeliveryStatus(OtpDeliveryStatus.RETRYING);
+        sentOtp.setDeliveryAttempts(1);
+        OtpDeliveryResult result = otpService.getDeliveryStatus(SESSION_ID);
+        assertEquals(OtpDeliveryStatus.RETRYING, result.getStatus());
+        assertEquals(1, result.getAttempts());
+        assertThrows(SessionNotFoundException.class, () -> otpService.getDeliveryStatus("bad"));
+    }
+
+    @Test
+    void send_destinationLimitExceeded_SkipsRepository() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            otpSendRateLimiter.acquire("app1", "10.0.0.1", PHONE);
+        }
+        assertThrows(OtpSendLimitExceeded.class, () -> otpService.send(TYPE, PHONE, "app1", "10.0.0.1"));
+        Mockito.verifyNoInteractions(sentOtpStore, otpSender);
     }
 
     @Test
     void verify() throws Exception {
+        when(sentOtpStore.verify(eq(UUID.fromString(SESSION_ID)), eq(otpHasher.hash(OTP)), eq(OTP), anyLong()))
+                .thenReturn(SentOtpVerification.of(SentOtpVerification.Status.VALID));
         VerifyOtpResult result = otpService.verify(SESSION_ID, OTP);
         assertTrue(result.isValid());
         assertNull(result.getRemainingAttempts());
@@ -120,21 +201,32 @@ class OtpServiceTest {
 
     @Test
     void verify_invalidOtp() throws Exception {
+        when(sentOtpStore.verify(eq(UUID.fromString(SESSION_ID)), eq(otpHasher.hash("bad")), eq("bad"), anyLong()))
+                .thenReturn(new SentOtpVerification(SentOtpVerification.Status.INVALID, ATTEMPTS - 1));
         VerifyOtpResult result = otpService.verify(SESSION_ID, "bad");
         assertFalse(result.isValid());
         assertEquals(ATTEMPTS - 1, result.getRemainingAttempts());
-        Mockito.verify(sentOtpRepository, times(1)).save(eq(sentOtp));
+        Mockito.verify(sentOtpStore, Mockito.never()).save(any());
     }
 
     @Test
     void verify_otpTimeout() {
-        sentOtp.setExpireTime(System.currentTimeMillis() - 1000);
+        when(sentOtpStore.verify(eq(UUID.fromString(SESSION_ID)), anyString(), anyString(), anyLong()))
+                .thenReturn(SentOtpVerification.of(SentOtpVerification.Status.NOT_FOUND));
         assertThrows(SessionNotFoundException.class, () -> otpService.verify(SESSION_ID, PHONE));
     }
 
     @Test
     void verify_attemptsExceeded() {
-        sentOtp.setAttempts(0);
+        when(sentOtpStore.verify(eq(UUID.fromString(SESSION_ID)), anyString(), anyString(), anyLong()))
+                .thenReturn(SentOtpVerification.of(SentOtpVerification.Status.ATTEMPTS_EXCEEDED));
         assertThrows(OtpVerifyAttemptsExceeded.class, () -> otpService.verify(SESSION_ID, PHONE));
     }
+
+    @Test
+    void verifyByDestination() throws Exception {
+        when(sentOtpStore.consume(eq(PHONE), eq(otpHasher.hash(OTP)), eq(OTP), anyLong())).thenReturn(true);
+        assertTrue(otpService.verifyByDestination(PHONE, OTP).isValid());
+        assertThrows(SessionNotFoundException.class, () -> otpService.verifyByDestination(PHONE, "bad"));
+    }
 }
\ No newline at end of file
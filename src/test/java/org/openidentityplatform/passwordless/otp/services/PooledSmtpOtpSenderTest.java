@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.otp.configuration.OtpEmailConfiguration;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PooledSmtpOtpSenderTest {
+
+    /**
+     * Minimal SMTP stand-in: accepts every message except those to reject@example.com
+     * and drops a connection after {@code dropAfterMessages} messages when set
+     */
+    static class StubSmtpServer implements AutoCloseable {
+        final ServerSocket serverSocket;
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger messages = new AtomicInteger();
+        volatile int dropAfterMessages;
+
+        StubSmtpServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+            Thread acceptor = new Thread(this::accept);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread session = new Thread(() -> serve(socket));
+                    session.setDaemon(true);
+                    session.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.US_ASCII)) {
+                int received = 0;
+                reply(out, "220 localhost stub");
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    String command = line.toUpperCase();
+                    if (command.startsWith("EHLO") || command.startsWith("HELO")) {
+                        reply(out, "250 localhost");
+                    } else if (command.startsWith("RCPT") && command.contains("REJECT@")) {
+                        reply(out, "550 no such user");
+                    } else if (command.startsWith("DATA")) {
+                        reply(out, "354 end with .");
+                        for (String data = in.readLine(); data != null && !data.equals("."); data = in.readLine()) {
+                            // message content is not checked
+                        }
+                        messages.incrementAndGet();
+                        reply(out, "250 queued");
+                        if (dropAfterMessages > 0 && ++received >= dropAfterMessages) {
+                            return;
+                        }
+                    } else if (command.startsWith("QUIT")) {
+                        reply(out, "221 bye");
+                        return;
+                    } else {
+                        reply(out, "250 ok");
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        private static void reply(PrintWriter out, String line) {
+            out.print(line + "\r\n");
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    private StubSmtpServer server;
+
+    private OtpEmailConfiguration configuration;
+
+    private PooledSmtpOtpSender sender;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new StubSmtpServer();
+        configuration = new OtpEmailConfiguration();
+        configuration.setConnections(2);
+        configuration.setFrom("otp@example.com");
+        configuration.setSendTimeoutMs(5000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (sender != null) {
+            sender.shutdown();
+        }
+        server.close();
+    }
+
+    private PooledSmtpOtpSender createSender() {
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("localhost");
+        mailSender.setPort(server.getPort());
+        return new PooledSmtpOtpSender(mailSender, configuration);
+    }
+
+    @Test
+    void sendOTP_ConcurrentMessages_ReuseConnections() throws Exception {
+        sender = createSender();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            String destination = "user" + i + "@example.com";
+            results.add(executor.submit(() -> {
+                sender.sendOTP(destination, "Confirmation code: 123456", "Acme LLC");
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        assertEquals(40, server.messages.get());
+        assertTrue(server.connections.get() <= 2, "connections: " + server.connections.get());
+    }
+
+    @Test
+    void sendOTP_ConnectionDropped_Reconnects() throws Exception {
+        configuration.setConnections(1);
+        server.dropAfterMessages = 1;
+        sender = createSender();
+
+        sender.sendOTP("first@example.com", "code", "title");
+        sender.sendOTP("second@example.com", "code", "title");
+
+        assertEquals(2, server.messages.get());
+        assertEquals(2, server.connections.get());
+    }
+
+    @Test
+    void sendOTP_RecipientRejected_ConnectionKept() throws Exception {
+        configuration.setConnections(1);
+        sender = createSender();
+
+        assertThrows(SendOtpException.class, () -> sender.sendOTP("reject@example.com", "code", "title"));
+        sender.sendOTP("user@example.com", "code", "title");
+
+        assertEquals(1, server.messages.get());
+        assertEquals(1, server.connections.get());
+    }
+
+    @Test
+    void sendOTP_ServerUnavailable_Throws() throws Exception {
+        sender = createSender();
+        server.close();
+
+        assertThrows(SendOtpException.class, () -> sender.sendOTP("user@example.com", "code", "title"));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openidentityplatform.passwordless.otp.services;
+
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.otp.configuration.OtpConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResendWindowIndexTest {
+
+    private ResendWindowIndex resendWindowIndex(int minutes) {
+        OtpConfiguration otpConfiguration = new OtpConfiguration();
+        otpConfiguration.setResendAllowedAfterMinutes(minutes);
+        return new ResendWindowIndex(otpConfiguration);
+    }
+
+    @Test
+    void tryReserve_WithinWindow_Rejected() {
+        ResendWindowIndex index = resendWindowIndex(1);
+        long now = System.currentTimeMillis();
+
+        assertTrue(index.tryReserve("+79991234567", now));
+        assertFalse(index.tryReserve("+79991234567", now + 59_000));
+        assertTrue(index.tryReserve("+79991234567", now + 60_000));
+        assertTrue(index.tryReserve("+79997654321", now));
+    }
+
+    @Test
+    void release_AllowsImmediateResend() {
+        ResendWindowIndex index = resendWindowIndex(1);
+        long now = System.currentTimeMillis();
+
+        assertTrue(index.tryReserve("user@example.com", now));
+        index.release("User@Example.com", now);
+
+        assertTrue(index.tryReserve("user@example.com", now + 1));
+    }
+
+    @Test
+    void tryReserve_NoWindow_AlwaysAllowed() {
+        ResendWindowIndex index = resendWindowIndex(0);
+        long now = System.currentTimeMillis();
+
+        assertTrue(index.tryReserve("+79991234567", now));
+        assertTrue(index.tryReserve("+79991234567", now));
+    }
+
+    @Test
+    void tryReserve_ConcurrentSends_OnlyOnePasses() throws Exception {
+        ResendWindowIndex index = resendWindowIndex(1);
+        long now = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Boolean>> sends = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                sends.add(() -> index.tryReserve("+79991234567", now));
+            }
+            int passed = 0;
+            for (Future<Boolean> result : executor.invokeAll(sends)) {
+                passed += result.get() ? 1 : 0;
+            }
+            assertEquals(1, passed);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -52,7 +52,8 @@ public class IT_Totp {
 
     final static String REGISTER_REQUEST_BODY = """
             {
-                "username": "%s"
+                "username": "%s",
+                "qr": "PNG"
             }
             """.formatted(USERNAME);
 
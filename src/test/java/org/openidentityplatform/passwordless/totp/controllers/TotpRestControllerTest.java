@@ -2,12 +2,16 @@ package org.openidentityplatform.passwordless.totp.controllers;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.totp.configuration.TotpQrConfiguration;
+import org.openidentityplatform.passwordless.totp.models.QrFormat;
 import org.openidentityplatform.passwordless.totp.services.QrService;
+import org.openidentityplatform.passwordless.totp.services.TotpBatchVerifyService;
 import org.openidentityplatform.passwordless.totp.services.TotpService;
 import org.openidentityplatform.passwordless.totp.services.UserNotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.result.MockMvcResultHandlers;
@@ -18,8 +22,11 @@ import java.security.InvalidKeyException;
 
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -33,10 +40,15 @@ class TotpRestControllerTest {
     private TotpService totpService;
     @MockBean
     private QrService qrService;
+    @MockBean
+    private TotpBatchVerifyService totpBatchVerifyService;
+    @MockBean
+    private TotpQrConfiguration totpQrConfiguration;
 
     final static String REGISTER_REQUEST_BODY = """
             {
-                "username": "john"
+                "username": "john",
+                "qr": "PNG"
             }
             """;
     final static String VERIFY_REQUEST_BODY = """
@@ -52,7 +64,7 @@ class TotpRestControllerTest {
     void testRegister() throws Exception {
         final String qr = IOUtils.resourceToString("/totp/qr-base64.txt", StandardCharsets.UTF_8);
         when(totpService.register(anyString())).thenReturn(URI.create(TOTP_URI));
-        when(qrService.generateQr(anyString())).thenReturn(qr);
+        when(qrService.generateQr(anyString(), eq(QrFormat.PNG))).thenReturn(qr);
         mvc.perform(post("/totp/v1/register")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(REGISTER_REQUEST_BODY))
@@ -62,6 +74,20 @@ class TotpRestControllerTest {
                 .andExpect(jsonPath("$.qr").value(qr));
     }
 
+    @Test
+    void testRegister_AcceptSvg() throws Exception {
+        when(totpService.register(anyString())).thenReturn(URI.create(TOTP_URI));
+        when(qrService.generateSvg(TOTP_URI)).thenReturn("<svg/>");
+        mvc.perform(post("/totp/v1/register")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.parseMediaType("image/svg+xml"), MediaType.APPLICATION_JSON)
+                        .content(REGISTER_REQUEST_BODY))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-store"))
+                .andExpect(content().contentType("image/svg+xml"))
+                .andExpect(content().string("<svg/>"));
+    }
+
     @Test
     void testRegister_InvalidRequest() throws Exception {
         mvc.perform(post("/totp/v1/register")
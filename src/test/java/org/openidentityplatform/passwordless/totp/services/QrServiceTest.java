@@ -1,15 +1,66 @@
 package org.openidentityplatform.passwordless.totp.services;
 
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.totp.configuration.TotpQrConfiguration;
+import org.openidentityplatform.passwordless.totp.models.QrFormat;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class QrServiceTest {
 
+    final static String DATA = "otpauth://totp/ACME:john@acme.com?secret=ONSWG4TFOQ======&issuer=ACME";
+
+    QrService qrService = new QrService(new TotpQrConfiguration());
+
     @Test
     void testGenerateQr() {
-        QrService qrService = new QrService();
         String qr = qrService.generateQr("test");
         assertNotNull(qr);
+        assertTrue(qr.startsWith("data:image/png;base64, "));
+    }
+
+    @Test
+    void testGenerateQr_format() {
+        assertNull(qrService.generateQr(DATA, QrFormat.NONE));
+        assertTrue(qrService.generateQr(DATA, QrFormat.PNG).startsWith("data:image/png;base64,"));
+        assertTrue(qrService.generateQr(DATA, QrFormat.SVG).startsWith("data:image/svg+xml;base64,"));
+    }
+
+    @Test
+    void testWritePng() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        qrService.writePng(DATA, baos);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(300, image.getWidth());
+        LuminanceSource source = new BufferedImageLuminanceSource(image);
+        String decoded = new QRCodeReader().decode(new BinaryBitmap(new HybridBinarizer(source))).getText();
+        assertEquals(DATA, decoded);
+    }
+
+    @Test
+    void testGenerateSvg() {
+        TotpQrConfiguration qrConfiguration = new TotpQrConfiguration();
+        qrConfiguration.setSize(200);
+        qrConfiguration.setErrorCorrection(ErrorCorrectionLevel.H);
+        qrConfiguration.setMargin(2);
+        String svg = new QrService(qrConfiguration).generateSvg("test");
+        // version 1 code is 21 modules wide, plus the margin on each side
+        assertTrue(svg.startsWith("<svg "));
+        assertTrue(svg.contains("width=\"200\""));
+        assertTrue(svg.contains("viewBox=\"0 0 25 25\""));
+        // top left finder pattern row is 7 dark modules after the margin
+        assertTrue(svg.contains("M2,2h7v1h-7z"));
+        assertTrue(svg.endsWith("</svg>"));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,152 @@
+package org.openidentityplatform.passwordless.totp.services;
+
+import com.eatthepath.otp.TimeBasedOneTimePasswordGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.otp.services.BadRequestException;
+import org.openidentityplatform.passwordless.totp.configuration.TotpAttemptsConfiguration;
+import org.openidentityplatform.passwordless.totp.configuration.TotpBatchConfiguration;
+import org.openidentityplatform.passwordless.totp.configuration.TotpConfiguration;
+import org.openidentityplatform.passwordless.totp.configuration.TotpEncryptionConfiguration;
+import org.openidentityplatform.passwordless.totp.configuration.TotpKeyCacheConfiguration;
+import org.openidentityplatform.passwordless.totp.models.BatchVerificationResult;
+import org.openidentityplatform.passwordless.totp.models.RegisteredTotp;
+import org.openidentityplatform.passwordless.totp.models.VerificationRequest;
+import org.openidentityplatform.passwordless.totp.repository.RegisteredTotpRepository;
+import org.openidentityplatform.passwordless.totp.repository.TotpStepInMemoryLedger;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TotpBatchVerifyServiceTest {
+
+    final static String SECRET = "ONSWG4TFOQ======";
+
+    final static int USERS = 50;
+
+    RegisteredTotpRepository totpRepository;
+
+    TimeBasedOneTimePasswordGenerator generator = new TimeBasedOneTimePasswordGenerator();
+
+    TotpService totpService;
+
+    TotpBatchVerifyService batchVerifyService;
+
+    @BeforeEach
+    void setup() {
+        totpRepository = mock(RegisteredTotpRepository.class);
+        when(totpRepository.findAllByUsernameIn(any())).thenAnswer(invocation -> {
+            Collection<String> usernames = invocation.getArgument(0);
+            return usernames.stream()
+                    .filter(username -> username.startsWith("user"))
+                    .map(username -> {
+                        RegisteredTotp registeredTotp = new RegisteredTotp();
+                        registeredTotp.setId(UUID.randomUUID().toString());
+                        registeredTotp.setUsername(username);
+                        registeredTotp.setSecret(SECRET);
+                        return registeredTotp;
+                    }).toList();
+        });
+        totpService = new TotpService(totpRepository, generator, new TotpConfiguration(),
+                new TotpKeyCache(new TotpKeyCacheConfiguration(), new SimpleMeterRegistry()),
+                new TotpStepInMemoryLedger(1000),
+                new TotpSecretCipher(new TotpEncryptionConfiguration(), new SecureRandom()),
+                new TotpAttemptLimiter(new TotpAttemptsConfiguration()));
+        TotpBatchConfiguration configuration = new TotpBatchConfiguration();
+        configuration.setMaxItems(100);
+        configuration.setChunkSize(20);
+        configuration.setParallelism(4);
+        batchVerifyService = new TotpBatchVerifyService(configuration, totpService, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        batchVerifyService.shutdown();
+    }
+
+    private static VerificationRequest item(String username, int totp) {
+        VerificationRequest item = new VerificationRequest();
+        item.setUsername(username);
+        item.setTotp(totp);
+        return item;
+    }
+
+    @Test
+    void verify_ResultsInRequestOrder() throws Exception {
+        int totp = generator.generateOneTimePassword(totpService.restoreKey(SECRET), Instant.now());
+        List<VerificationRequest> items = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            items.add(item("user" + i, i % 2 == 0 ? totp : (totp + 1) % 1_000_000));
+        }
+        items.add(item("unknown", totp));
+
+        List<List<BatchVerificationResult>> chunks = new ArrayList<>();
+        batchVerifyService.verify(items, chunks::add);
+
+        assertEquals(List.of(20, 20, 11), chunks.stream().map(List::size).toList());
+        List<BatchVerificationResult> results = chunks.stream().flatMap(List::stream).toList();
+        for (int i = 0; i < USERS; i++) {
+            assertEquals(new BatchVerificationResult("user" + i, i % 2 == 0
+                    ? BatchVerificationResult.Status.VALID : BatchVerificationResult.Status.INVALID), results.get(i));
+        }
+        assertEquals(BatchVerificationResult.Status.USER_NOT_FOUND, results.get(USERS).getStatus());
+        verify(totpRepository, times(3)).findAllByUsernameIn(any());
+    }
+
+    @Test
+    void verify_KeysLoadedOncePerChunk() throws Exception {
+        int totp = generator.generateOneTimePassword(totpService.restoreKey(SECRET), Instant.now());
+        List<BatchVerificationResult> results = new ArrayList<>();
+
+        batchVerifyService.verify(List.of(item("user1", totp), item("user2", 1)), results::addAll);
+        batchVerifyService.verify(List.of(item("user1", totp), item("user2", 1)), results::addAll);
+
+        verify(totpRepository, times(1)).findAllByUsernameIn(Set.of("user1", "user2"));
+        verify(totpRepository, times(1)).findAllByUsernameIn(any());
+        assertEquals(1, results.stream().filter(r -> r.getStatus() == BatchVerificationResult.Status.VALID).count());
+    }
+
+    @Test
+    void verify_FailedAttemptsSharedWithSingleVerify() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            totpService.verify("user1", totpService.restoreKey(SECRET), 1);
+        }
+        int totp = generator.generateOneTimePassword(totpService.restoreKey(SECRET), Instant.now());
+        List<BatchVerificationResult> results = new ArrayList<>();
+
+        batchVerifyService.verify(List.of(item("user1", totp), item("user2", totp)), results::addAll);
+
+        assertEquals(List.of(BatchVerificationResult.Status.ATTEMPTS_EXCEEDED, BatchVerificationResult.Status.VALID),
+                results.stream().map(BatchVerificationResult::getStatus).toList());
+    }
+
+    @Test
+    void validate_DuplicateUsernames() {
+        assertThrows(BadRequestException.class,
+                () -> batchVerifyService.validate(List.of(item("user1", 1), item("user2", 1), item("user1", 2))));
+    }
+
+    @Test
+    void validate_TooManyItems() {
+        List<VerificationRequest> items = new ArrayList<>();
+        for (int i = 0; i < 101; i++) {
+            items.add(item("user" + i, 1));
+        }
+        assertThrows(BadRequestException.class, () -> batchVerifyService.validate(items));
+    }
+}
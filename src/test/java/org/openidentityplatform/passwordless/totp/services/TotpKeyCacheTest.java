@@ -0,0 +1,75 @@
+package org.openidentityplatform.passwordless.totp.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.totp.configuration.TotpKeyCacheConfiguration;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.Key;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TotpKeyCacheTest {
+
+    private final Key key = new SecretKeySpec(new byte[20], "HmacSHA1");
+
+    private final Key newKey = new SecretKeySpec(new byte[]{1}, "HmacSHA1");
+
+    private TotpKeyCacheConfiguration configuration;
+
+    private StringRedisTemplate redisTemplate;
+
+    private ObjectProvider<StringRedisTemplate> redisTemplateProvider;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        configuration = new TotpKeyCacheConfiguration();
+        redisTemplate = mock(StringRedisTemplate.class);
+        redisTemplateProvider = mock(ObjectProvider.class);
+        when(redisTemplateProvider.getObject()).thenReturn(redisTemplate);
+    }
+
+    @Test
+    void invalidate_Local_NotPublished() {
+        TotpKeyCache cache = new TotpKeyCache(configuration, new SimpleMeterRegistry(), redisTemplateProvider);
+        cache.get("john", u -> key);
+
+        cache.invalidate("john");
+
+        assertEquals(newKey, cache.get("john", u -> newKey).orElseThrow());
+        verify(redisTemplate, never()).convertAndSend(anyString(), anyString());
+    }
+
+    @Test
+    void invalidate_Redis_PublishedToOtherNodes() {
+        configuration.setInvalidation(TotpKeyCacheConfiguration.Invalidation.REDIS);
+        TotpKeyCache cache = new TotpKeyCache(configuration, new SimpleMeterRegistry(), redisTemplateProvider);
+        cache.get("john", u -> key);
+
+        cache.invalidate("john");
+
+        assertEquals(newKey, cache.get("john", u -> newKey).orElseThrow());
+        verify(redisTemplate).convertAndSend("totp:key-cache:invalidate", "john");
+    }
+
+    @Test
+    void evict_PublishedByOtherNode_NotRepublished() {
+        configuration.setInvalidation(TotpKeyCacheConfiguration.Invalidation.REDIS);
+        TotpKeyCache cache = new TotpKeyCache(configuration, new SimpleMeterRegistry(), redisTemplateProvider);
+        cache.get("john", u -> key);
+
+        cache.evict("john");
+
+        assertEquals(newKey, cache.get("john", u -> newKey).orElseThrow());
+        verify(redisTemplate, never()).convertAndSend(anyString(), anyString());
+    }
+}
@@ -0,0 +1,128 @@
+package org.openidentityplatform.passwordless.totp.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openidentityplatform.passwordless.totp.configuration.TotpEncryptionConfiguration;
+import org.openidentityplatform.passwordless.totp.models.RegisteredTotp;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TotpSecretCipherTest {
+
+    final static String SECRET = "5HFDYTGWPC3T72CCWDDXM7SY33ITKLC3";
+
+    final static String PASSWORD = "changeit";
+
+    @TempDir
+    Path tempDir;
+
+    Path keystorePath;
+
+    @BeforeEach
+    void setup() throws Exception {
+        SecureRandom secureRandom = new SecureRandom();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        for (String alias : new String[]{"master-1", "master-2"}) {
+            byte[] key = new byte[32];
+            secureRandom.nextBytes(key);
+            keyStore.setEntry(alias, new KeyStore.SecretKeyEntry(new SecretKeySpec(key, "AES")),
+                    new KeyStore.PasswordProtection(PASSWORD.toCharArray()));
+        }
+        keystorePath = tempDir.resolve("totp.p12");
+        try (OutputStream outputStream = Files.newOutputStream(keystorePath)) {
+            keyStore.store(outputStream, PASSWORD.toCharArray());
+        }
+    }
+
+    TotpSecretCipher cipher(String activeKeyAlias) {
+        TotpEncryptionConfiguration configuration = new TotpEncryptionConfiguration();
+        configuration.setEnabled(true);
+        configuration.setKeystorePath(keystorePath.toString());
+        configuration.setKeystorePassword(PASSWORD);
+        configuration.setActiveKeyAlias(activeKeyAlias);
+        return new TotpSecretCipher(configuration, new SecureRandom());
+    }
+
+    RegisteredTotp registeredTotp(String username) {
+        RegisteredTotp registeredTotp = new RegisteredTotp();
+        registeredTotp.setUsername(username);
+        return registeredTotp;
+    }
+
+    @Test
+    void testSealAndOpen() {
+        TotpSecretCipher cipher = cipher("master-1");
+        RegisteredTotp registeredTotp = registeredTotp("john");
+        cipher.seal(registeredTotp, SECRET);
+
+        assertNull(registeredTotp.getSecret());
+        assertEquals("master-1", registeredTotp.getMasterKeyAlias());
+        assertFalse(registeredTotp.getEncryptedSecret().contains(SECRET));
+        assertEquals(SECRET, cipher.open(registeredTotp));
+    }
+
+    @Test
+    void testOpen_ciphertextOfAnotherUser() {
+        TotpSecretCipher cipher = cipher("master-1");
+        RegisteredTotp john = registeredTotp("john");
+        cipher.seal(john, SECRET);
+        RegisteredTotp jane = registeredTotp("jane");
+        jane.setEncryptedSecret(john.getEncryptedSecret());
+        jane.setWrappedKey(john.getWrappedKey());
+        jane.setMasterKeyAlias(john.getMasterKeyAlias());
+
+        assertThrows(IllegalStateException.class, () -> cipher.open(jane));
+    }
+
+    @Test
+    void testRewrap() {
+        RegisteredTotp registeredTotp = registeredTotp("john");
+        cipher("master-1").seal(registeredTotp, SECRET);
+        TotpSecretCipher rotated = cipher("master-2");
+
+        String wrappedKey = rotated.rewrap(registeredTotp);
+        assertNotEquals(registeredTotp.getWrappedKey(), wrappedKey);
+        registeredTotp.setWrappedKey(wrappedKey);
+        registeredTotp.setMasterKeyAlias("master-2");
+        assertEquals(SECRET, rotated.open(registeredTotp));
+    }
+
+    @Test
+    void testOpen_unknownMasterKey() {
+        TotpSecretCipher cipher = cipher("master-1");
+        RegisteredTotp registeredTotp = registeredTotp("john");
+        cipher.seal(registeredTotp, SECRET);
+        registeredTotp.setMasterKeyAlias("master-0");
+
+        assertThrows(IllegalStateException.class, () -> cipher.open(registeredTotp));
+    }
+
+    @Test
+    void testDisabled_plaintext() {
+        TotpSecretCipher cipher = new TotpSecretCipher(new TotpEncryptionConfiguration(), new SecureRandom());
+        RegisteredTotp registeredTotp = registeredTotp("john");
+        cipher.seal(registeredTotp, SECRET);
+
+        assertEquals(SECRET, registeredTotp.getSecret());
+        assertNull(registeredTotp.getWrappedKey());
+        assertEquals(SECRET, cipher.open(registeredTotp));
+    }
+
+    @Test
+    void testMissingActiveKey() {
+        assertThrows(IllegalStateException.class, () -> cipher("master-3"));
+    }
+}
@@ -0,0 +1,105 @@
+package org.openidentityplatform.passwordless.totp.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.housekeeping.services.LeaderLockService;
+import org.openidentityplatform.passwordless.totp.configuration.TotpEncryptionConfiguration;
+import org.openidentityplatform.passwordless.totp.models.RegisteredTotp;
+import org.openidentityplatform.passwordless.totp.repository.RegisteredTotpRepository;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TotpSecretRotationJobTest {
+
+    RegisteredTotpRepository totpRepository;
+
+    TotpSecretCipher totpSecretCipher;
+
+    LeaderLockService leaderLockService;
+
+    TotpEncryptionConfiguration configuration;
+
+    SimpleMeterRegistry meterRegistry;
+
+    TotpSecretRotationJob job;
+
+    @BeforeEach
+    void setup() {
+        totpRepository = mock(RegisteredTotpRepository.class);
+        totpSecretCipher = mock(TotpSecretCipher.class);
+        leaderLockService = mock(LeaderLockService.class);
+        configuration = new TotpEncryptionConfiguration();
+        configuration.setRotationBatchSize(2);
+        when(totpSecretCipher.isEnabled()).thenReturn(true);
+        when(totpSecretCipher.getActiveKeyAlias()).thenReturn("master-2");
+        meterRegistry = new SimpleMeterRegistry();
+        job = new TotpSecretRotationJob(configuration, totpSecretCipher, totpRepository, leaderLockService,
+                meterRegistry);
+    }
+
+    RegisteredTotp wrapped(String username) {
+        RegisteredTotp registeredTotp = new RegisteredTotp();
+        registeredTotp.setId("id-" + username);
+        registeredTotp.setUsername(username);
+        registeredTotp.setEncryptedSecret("encrypted-" + username);
+        registeredTotp.setWrappedKey("wrapped-" + username);
+        registeredTotp.setMasterKeyAlias("master-1");
+        return registeredTotp;
+    }
+
+    @Test
+    void testRotateBatches() {
+        RegisteredTotp plaintext = new RegisteredTotp();
+        plaintext.setId("id-c");
+        plaintext.setUsername("c");
+        plaintext.setSecret("SECRET");
+        when(totpRepository.findNotWrappedBy(eq("master-2"), eq(""), any())).thenReturn(List.of(wrapped("a"), wrapped("b")));
+        when(totpRepository.findNotWrappedBy(eq("master-2"), eq("id-b"), any())).thenReturn(List.of(plaintext));
+        when(totpSecretCipher.rewrap(any())).thenAnswer(invocation ->
+                "rewrapped-" + invocation.<RegisteredTotp>getArgument(0).getUsername());
+        when(totpRepository.rewrap(anyString(), anyString(), anyString(), anyString())).thenReturn(1);
+        when(totpRepository.encryptPlaintext(anyString(), anyString(), any(), any(), anyString())).thenReturn(1);
+
+        assertEquals(3, job.rotateBatches(Long.MAX_VALUE));
+        verify(totpRepository).rewrap("id-a", "wrapped-a", "rewrapped-a", "master-2");
+        verify(totpRepository).rewrap("id-b", "wrapped-b", "rewrapped-b", "master-2");
+        verify(totpSecretCipher).seal(plaintext, "SECRET");
+        verify(totpRepository).encryptPlaintext(eq("id-c"), eq("SECRET"), any(), any(), eq("master-2"));
+    }
+
+    @Test
+    void testRotateBatches_skipsFailedRecords() {
+        when(totpRepository.findNotWrappedBy(eq("master-2"), eq(""), any())).thenReturn(List.of(wrapped("a"), wrapped("b")));
+        when(totpRepository.findNotWrappedBy(eq("master-2"), eq("id-b"), any())).thenReturn(List.of(wrapped("c"), wrapped("d")));
+        when(totpRepository.findNotWrappedBy(eq("master-2"), eq("id-d"), any())).thenReturn(List.of());
+        when(totpSecretCipher.rewrap(any())).thenAnswer(invocation -> {
+            if (!invocation.<RegisteredTotp>getArgument(0).getUsername().equals("d")) {
+                throw new IllegalStateException("unknown master key");
+            }
+            return "rewrapped-d";
+        });
+        when(totpRepository.rewrap(anyString(), anyString(), anyString(), anyString())).thenReturn(1);
+
+        assertEquals(1, job.rotateBatches(Long.MAX_VALUE));
+        verify(totpRepository).rewrap("id-d", "wrapped-d", "rewrapped-d", "master-2");
+        assertEquals(3, meterRegistry.counter("totp.secrets.rotation.failed").count());
+    }
+
+    @Test
+    void testRotate_notLeader() {
+        when(leaderLockService.tryAcquire(eq(TotpSecretRotationJob.LOCK_NAME), any())).thenReturn(false);
+
+        job.rotate();
+        verify(totpRepository, never()).findNotWrappedBy(anyString(), anyString(), any());
+    }
+}
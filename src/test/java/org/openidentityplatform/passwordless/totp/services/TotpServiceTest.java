@@ -1,17 +1,23 @@
 package org.openidentityplatform.passwordless.totp.services;
 
 import com.eatthepath.otp.TimeBasedOneTimePasswordGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.openidentityplatform.passwordless.totp.configuration.TotpAttemptsConfiguration;
 import org.openidentityplatform.passwordless.totp.configuration.TotpConfiguration;
+import org.openidentityplatform.passwordless.totp.configuration.TotpEncryptionConfiguration;
+import org.openidentityplatform.passwordless.totp.configuration.TotpKeyCacheConfiguration;
 import org.openidentityplatform.passwordless.totp.models.RegisteredTotp;
 import org.openidentityplatform.passwordless.totp.repository.RegisteredTotpRepository;
+import org.openidentityplatform.passwordless.totp.repository.TotpStepInMemoryLedger;
 
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.SecureRandom;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
@@ -21,6 +27,7 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -33,6 +40,8 @@ class TotpServiceTest {
 
     final static String USERNAME = "John";
 
+    final static String ID = "0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0";
+
     final static String SECRET = "ONSWG4TFOQ======";
 
     RegisteredTotpRepository totpRepository;
@@ -46,12 +55,16 @@ class TotpServiceTest {
         totpConfiguration.setIssuer("acme.com");
         totpConfiguration.setIssuerLabel("Acme LLC");
         totpRepository = mock(RegisteredTotpRepository.class);
-        totpService = new TotpService(totpRepository, generator, totpConfiguration);
+        totpService = new TotpService(totpRepository, generator, totpConfiguration,
+                new TotpKeyCache(new TotpKeyCacheConfiguration(), new SimpleMeterRegistry()),
+                new TotpStepInMemoryLedger(100),
+                new TotpSecretCipher(new TotpEncryptionConfiguration(), new SecureRandom()),
+                new TotpAttemptLimiter(new TotpAttemptsConfiguration()));
     }
 
     @Test
     void testRegister() {
-        when(totpRepository.findById(USERNAME)).thenReturn(Optional.empty());
+        when(totpRepository.findByUsername(USERNAME)).thenReturn(Optional.empty());
         URI uri = totpService.register(USERNAME);
         assertEquals("otpauth", uri.getScheme());
         assertEquals("totp", uri.getHost());
@@ -63,29 +76,29 @@ class TotpServiceTest {
 
     @Test
     void testRegister_userExists() {
-        when(totpRepository.existsById(USERNAME)).thenReturn(true);
-
         RegisteredTotp registeredTotp = new RegisteredTotp();
+        registeredTotp.setId(ID);
         registeredTotp.setUsername(USERNAME);
         registeredTotp.setSecret(SECRET);
 
-        when(totpRepository.findById(USERNAME)).thenReturn(Optional.of(registeredTotp));
+        when(totpRepository.findByUsername(USERNAME)).thenReturn(Optional.of(registeredTotp));
         URI uri = totpService.register(USERNAME);
         assertEquals("otpauth", uri.getScheme());
         assertEquals("totp", uri.getHost());
         List<NameValuePair> params = URLEncodedUtils.parse(uri, StandardCharsets.UTF_8);
         assertTrue(params.stream().anyMatch(p -> p.getName().equals("secret")));
         assertTrue(params.stream().anyMatch(p -> p.getName().equals("issuer")));
-        verify(totpRepository, times(1)).findById(eq(USERNAME));
-        verify(totpRepository, times(1)).save(any(RegisteredTotp.class));
+        verify(totpRepository, times(1)).findByUsername(eq(USERNAME));
+        verify(totpRepository, times(1)).save(argThat(saved -> ID.equals(saved.getId())));
     }
 
     @Test
     void testVerify() throws Exception {
         RegisteredTotp registeredTotp = new RegisteredTotp();
+        registeredTotp.setId(ID);
         registeredTotp.setUsername(USERNAME);
         registeredTotp.setSecret(SECRET);
-        when(totpRepository.findById(USERNAME)).thenReturn(Optional.of(registeredTotp));
+        when(totpRepository.findByUsername(USERNAME)).thenReturn(Optional.of(registeredTotp));
         Key key = totpService.restoreKey(SECRET);
         int totp = generator.generateOneTimePassword(key, Instant.now());
         boolean valid = totpService.verify(USERNAME, totp);
@@ -93,18 +106,97 @@ class TotpServiceTest {
     }
 
     @Test
-    void testVerify_invalidCode() throws UserNotFoundException {
+    void testVerify_invalidCode() throws Exception {
         RegisteredTotp registeredTotp = new RegisteredTotp();
+        registeredTotp.setId(ID);
         registeredTotp.setUsername(USERNAME);
         registeredTotp.setSecret(SECRET);
-        when(totpRepository.findById(USERNAME)).thenReturn(Optional.of(registeredTotp));
+        when(totpRepository.findByUsername(USERNAME)).thenReturn(Optional.of(registeredTotp));
         boolean valid = totpService.verify(USERNAME, 1);
         assertFalse(valid);
     }
 
     @Test
     void testVerify_userNotFound() {
-        when(totpRepository.findById(USERNAME)).thenReturn(Optional.empty());
+        when(totpRepository.findByUsername(USERNAME)).thenReturn(Optional.empty());
         assertThrows(UserNotFoundException.class, () -> totpService.verify(USERNAME, 1));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testVerify_keyCachedUntilRegister() throws Exception {
+        RegisteredTotp registeredTotp = new RegisteredTotp();
+        registeredTotp.setId(ID);
+        registeredTotp.setUsername(USERNAME);
+        registeredTotp.setSecret(SECRET);
+        when(totpRepository.findByUsername(USERNAME)).thenReturn(Optional.of(registeredTotp));
+        int totp = generator.generateOneTimePassword(totpService.restoreKey(SECRET), Instant.now());
+
+        assertTrue(totpService.verify(USERNAME, totp));
+        assertFalse(totpService.verify(USERNAME, 1));
+        verify(totpRepository, times(1)).findByUsername(eq(USERNAME));
+
+        totpService.register(USERNAME);
+
+        assertFalse(totpService.verify(USERNAME, totp));
+        verify(totpRepository, times(3)).findByUsername(eq(USERNAME));
+    }
+
+    @Test
+    void testGenerateOneTimePassword_matchesGenerator() throws Exception {
+        Key key = totpService.restoreKey(totpService.generateKey());
+        Instant now = Instant.now();
+        for (int step = 0; step < 100; step++) {
+            Instant timestamp = now.plusSeconds(step * 30L);
+            assertEquals(generator.generateOneTimePassword(key, timestamp), totpService.generateOneTimePassword(key, timestamp));
+        }
+    }
+
+    @Test
+    void testVerify_driftWindow() throws Exception {
+        RegisteredTotp registeredTotp = new RegisteredTotp();
+        registeredTotp.setId(ID);
+        registeredTotp.setUsername(USERNAME);
+        registeredTotp.setSecret(SECRET);
+        when(totpRepository.findByUsername(USERNAME)).thenReturn(Optional.of(registeredTotp));
+        Key key = totpService.restoreKey(SECRET);
+        Instant now = Instant.now();
+
+        assertTrue(totpService.verify(USERNAME, generator.generateOneTimePassword(key, now.minusSeconds(30))));
+        assertFalse(totpService.verify(USERNAME, generator.generateOneTimePassword(key, now.minusSeconds(90))));
+        assertTrue(totpService.verify(USERNAME, generator.generateOneTimePassword(key, now.plusSeconds(30))));
+    }
+
+    @Test
+    void testVerify_replayRejected() throws Exception {
+        RegisteredTotp registeredTotp = new RegisteredTotp();
+        registeredTotp.setId(ID);
+        registeredTotp.setUsername(USERNAME);
+        registeredTotp.setSecret(SECRET);
+        when(totpRepository.findByUsername(USERNAME)).thenReturn(Optional.of(registeredTotp));
+        Key key = totpService.restoreKey(SECRET);
+        Instant now = Instant.now();
+
+        assertTrue(totpService.verify(USERNAME, generator.generateOneTimePassword(key, now)));
+        assertFalse(totpService.verify(USERNAME, generator.generateOneTimePassword(key, now)));
+        assertFalse(totpService.verify(USERNAME, generator.generateOneTimePassword(key, now.minusSeconds(30))));
+    }
+
+    @Test
+    void testVerify_failedAttemptsLimited() throws Exception {
+        RegisteredTotp registeredTotp = new RegisteredTotp();
+        registeredTotp.setId(ID);
+        registeredTotp.setUsername(USERNAME);
+        registeredTotp.setSecret(SECRET);
+        when(totpRepository.findByUsername(USERNAME)).thenReturn(Optional.of(registeredTotp));
+        int totp = generator.generateOneTimePassword(totpService.restoreKey(SECRET), Instant.now());
+
+        for (int i = 0; i < 4; i++) {
+            assertFalse(totpService.verify(USERNAME, 1));
+        }
+        assertTrue(totpService.verify(USERNAME, totp));
+        for (int i = 0; i < 5; i++) {
+            assertFalse(totpService.verify(USERNAME, 1));
+        }
+        assertThrows(TotpVerifyAttemptsExceeded.class, () -> totpService.verify(USERNAME, totp));
+    }
+}